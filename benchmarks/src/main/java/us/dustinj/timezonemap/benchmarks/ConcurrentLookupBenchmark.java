@@ -0,0 +1,18 @@
+package us.dustinj.timezonemap.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Threads;
+
+/**
+ * The throughput of the lookups of {@link LookupBenchmark} with a thread per processor sharing the one map, which
+ * shows how well lookups scale across threads.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Threads(Threads.MAX)
+public class ConcurrentLookupBenchmark extends LookupBenchmark {
+}
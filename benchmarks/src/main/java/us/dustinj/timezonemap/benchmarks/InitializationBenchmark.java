@@ -0,0 +1,66 @@
+package us.dustinj.timezonemap.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import us.dustinj.timezonemap.TimeZoneMap;
+
+/**
+ * The time it takes to initialize a map, from reading the bundled map archive to being ready for lookups. Each
+ * initialization is timed on its own, since that's how a map is used.
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class InitializationBenchmark {
+
+    /** Regions of a city, a country and a continent. */
+    public enum Region {
+        NEW_YORK(40.4, -74.3, 41.0, -73.7),
+        GERMANY(47.2, 5.8, 55.1, 15.1),
+        EUROPE(34.0, -25.0, 72.0, 45.0);
+
+        final double minDegreesLatitude;
+        final double minDegreesLongitude;
+        final double maxDegreesLatitude;
+        final double maxDegreesLongitude;
+
+        Region(double minDegreesLatitude, double minDegreesLongitude, double maxDegreesLatitude,
+                double maxDegreesLongitude) {
+            this.minDegreesLatitude = minDegreesLatitude;
+            this.minDegreesLongitude = minDegreesLongitude;
+            this.maxDegreesLatitude = maxDegreesLatitude;
+            this.maxDegreesLongitude = maxDegreesLongitude;
+        }
+    }
+
+    @State(Scope.Benchmark)
+    public static class RegionState {
+        @Param
+        public Region region;
+    }
+
+    @Benchmark
+    public TimeZoneMap forEverywhere() {
+        return TimeZoneMap.forEverywhere();
+    }
+
+    @Benchmark
+    public TimeZoneMap forRegion(RegionState state) {
+        Region region = state.region;
+        return TimeZoneMap.forRegion(region.minDegreesLatitude, region.minDegreesLongitude,
+                region.maxDegreesLatitude, region.maxDegreesLongitude);
+    }
+}
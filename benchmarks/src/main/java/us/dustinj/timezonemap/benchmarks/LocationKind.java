@@ -0,0 +1,13 @@
+package us.dustinj.timezonemap.benchmarks;
+
+/** The kinds of location that take different paths through a lookup. */
+public enum LocationKind {
+    /** Within a time zone named for a place. */
+    LAND,
+    /** Within one of the {@code Etc/GMT} time zones that cover the open ocean. */
+    OCEAN,
+    /** Within a metre or so of a vertex of a time zone's boundary, where lookups have the most work to do. */
+    BOUNDARY,
+    /** Within more than one time zone, as happens in disputed areas. */
+    DISPUTED
+}
@@ -0,0 +1,108 @@
+package us.dustinj.timezonemap.benchmarks;
+
+import java.util.List;
+import java.util.Random;
+
+import com.esri.core.geometry.Point2D;
+import com.esri.core.geometry.Polygon;
+
+import us.dustinj.timezonemap.TimeZone;
+import us.dustinj.timezonemap.TimeZoneMap;
+
+/**
+ * A fixed set of locations for the benchmarks to look up. Each set is drawn from a seeded random number generator and
+ * picked out using the bundled map, so a given map version gives the same locations on every run, and results can be
+ * compared between commits.
+ */
+final class Locations {
+
+    /** The number of locations in each set, a power of two so that a cursor can wrap around with a mask. */
+    static final int SIZE = 1024;
+
+    private static final long SEED = 42;
+
+    /** How many random locations are tried before giving up on filling a set, which only a broken map would need. */
+    private static final int MAX_ATTEMPTS = 100_000_000;
+
+    final double[] latitudes = new double[SIZE];
+    final double[] longitudes = new double[SIZE];
+
+    private Locations() {
+    }
+
+    /** Draw the set of locations of the given kind, using the map to tell them apart. */
+    static Locations of(LocationKind kind, TimeZoneMap map) {
+        Locations locations = new Locations();
+        Random random = new Random(SEED);
+        if (kind == LocationKind.BOUNDARY) {
+            locations.fillWithBoundaryLocations(map.getTimeZones(), random);
+        } else {
+            locations.fillWithRandomLocations(kind, map, random);
+        }
+
+        return locations;
+    }
+
+    private void fillWithRandomLocations(LocationKind kind, TimeZoneMap map, Random random) {
+        int count = 0;
+        for (int attempt = 0; count < SIZE; attempt++) {
+            if (attempt == MAX_ATTEMPTS) {
+                throw new IllegalStateException("Only found " + count + " " + kind + " locations");
+            }
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            List<TimeZone> timeZones = map.getOverlappingTimeZones(latitude, longitude);
+            if (timeZones.isEmpty()) {
+                continue;
+            }
+            boolean ocean = timeZones.get(0).getZoneId().startsWith("Etc/");
+            boolean matches;
+            switch (kind) {
+                case LAND:
+                    matches = !ocean;
+                    break;
+                case OCEAN:
+                    matches = ocean;
+                    break;
+                default:
+                    matches = timeZones.size() > 1;
+                    break;
+            }
+            if (matches) {
+                latitudes[count] = latitude;
+                longitudes[count] = longitude;
+                count++;
+            }
+        }
+    }
+
+    /**
+     * Pick vertices spread evenly across every time zone's boundary, each moved by up to about a metre so that some
+     * land on either side of it.
+     */
+    private void fillWithBoundaryLocations(List<TimeZone> timeZones, Random random) {
+        long vertexCount = 0;
+        for (TimeZone timeZone : timeZones) {
+            vertexCount += timeZone.getRegion().getPointCount();
+        }
+        long stride = vertexCount / SIZE;
+
+        int count = 0;
+        long vertex = 0;
+        for (TimeZone timeZone : timeZones) {
+            Polygon region = timeZone.getRegion();
+            for (int i = 0; i < region.getPointCount() && count < SIZE; i++, vertex++) {
+                if (vertex % stride == 0) {
+                    Point2D point = region.getXY(i);
+                    latitudes[count] = clamp(point.y + (random.nextDouble() - 0.5) * 2e-5, 90);
+                    longitudes[count] = clamp(point.x + (random.nextDouble() - 0.5) * 2e-5, 180);
+                    count++;
+                }
+            }
+        }
+    }
+
+    private static double clamp(double degrees, double limit) {
+        return Math.max(-limit, Math.min(limit, degrees));
+    }
+}
@@ -0,0 +1,92 @@
+package us.dustinj.timezonemap.benchmarks;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.BenchmarkParams;
+
+import us.dustinj.timezonemap.TimeZone;
+import us.dustinj.timezonemap.TimeZoneMap;
+
+/**
+ * The latency of looking up a location in a map of everywhere, for each kind of location. Each thread goes through
+ * the same fixed locations in turn, so that every run does the same work.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+@State(Scope.Benchmark)
+public class LookupBenchmark {
+
+    @Param
+    public LocationKind locations;
+
+    private TimeZoneMap map;
+    private double[] latitudes;
+    private double[] longitudes;
+    /** The time zone each location is found in, for measuring the distance to its boundary on its own. */
+    private TimeZone[] timeZones;
+
+    /** Where a thread is in the locations. */
+    @State(Scope.Thread)
+    public static class Cursor {
+        private int next;
+
+        int next() {
+            return next++ & (Locations.SIZE - 1);
+        }
+    }
+
+    @Setup
+    public void setUp(BenchmarkParams params) {
+        map = TimeZoneMap.forEverywhere();
+        Locations drawn = Locations.of(locations, map);
+        latitudes = drawn.latitudes;
+        longitudes = drawn.longitudes;
+        timeZones = new TimeZone[Locations.SIZE];
+        for (int i = 0; i < Locations.SIZE; i++) {
+            timeZones[i] = map.getOverlappingTimeZone(latitudes[i], longitudes[i]);
+            if (timeZones[i] == null) {
+                throw new IllegalStateException("No time zone at (" + latitudes[i] + ", " + longitudes[i] + ")");
+            }
+        }
+        // Each time zone indexes its boundary the first time it's asked for a distance, which takes far longer than
+        // the lookups that follow, so the indexes are built up front rather than in whichever iteration gets there.
+        if (params.getBenchmark().endsWith(".getDistanceFromBoundary")) {
+            for (int i = 0; i < Locations.SIZE; i++) {
+                timeZones[i].getDistanceFromBoundary(latitudes[i], longitudes[i]);
+            }
+        }
+    }
+
+    @Benchmark
+    public TimeZone getOverlappingTimeZone(Cursor cursor) {
+        int i = cursor.next();
+        return map.getOverlappingTimeZone(latitudes[i], longitudes[i]);
+    }
+
+    @Benchmark
+    public List<TimeZone> getOverlappingTimeZones(Cursor cursor) {
+        int i = cursor.next();
+        return map.getOverlappingTimeZones(latitudes[i], longitudes[i]);
+    }
+
+    @Benchmark
+    public double getDistanceFromBoundary(Cursor cursor) {
+        int i = cursor.next();
+        return timeZones[i].getDistanceFromBoundary(latitudes[i], longitudes[i]);
+    }
+}
@@ -0,0 +1,100 @@
+package us.dustinj.timezonemap.builder
+
+import us.dustinj.timezonemap.serialization.Generalization
+import us.dustinj.timezonemap.serialization.LatLon
+import us.dustinj.timezonemap.serialization.TimeZone
+
+/**
+ * Builds coarser copies of time zone regions with Douglas-Peucker simplification, which only keeps a ring's points
+ * while some dropped point would otherwise be further than the maximum deviation from the ring's new edges. Since
+ * every original point between two kept points is within the maximum deviation of the edge joining them, and the
+ * original boundary between them is continuous, the two boundaries are within the maximum deviation of each other
+ * everywhere. The kept points are the original points, so serializing them loses nothing more.
+ */
+internal object Generalizer {
+    /**
+     * Build a generalization of each of the time zone's regions for each maximum deviation, leaving out those that
+     * don't have at most half as many points as the next finer copy (or the regions themselves), which wouldn't save
+     * enough to be worth testing first.
+     *
+     * @param maxDeviations In degrees, coarsest first.
+     */
+    fun generalize(timeZone: TimeZone, maxDeviations: List<Double>): List<Generalization> {
+        var finerPoints = pointCount(timeZone.regions)
+        val generalizations = mutableListOf<Generalization>()
+        for (maxDeviation in maxDeviations.reversed()) {
+            val regions = timeZone.regions.map { polygon -> polygon.map { generalizeRing(it, maxDeviation) } }
+            val points = pointCount(regions)
+            if (points * 2 <= finerPoints) {
+                generalizations.add(0, Generalization(maxDeviation, regions))
+                finerPoints = points
+            }
+        }
+
+        return generalizations
+    }
+
+    private fun pointCount(regions: List<List<List<LatLon>>>) = regions.sumOf { polygon -> polygon.sumOf { it.size } }
+
+    /**
+     * Simplify a ring, keeping at least its first point and the point furthest from it, so that even a ring small
+     * enough to vanish still leaves an edge marking where it was.
+     */
+    private fun generalizeRing(ring: List<LatLon>, maxDeviation: Double): List<LatLon> {
+        if (ring.size < 3) return ring
+
+        // Simplify the ring as a line from its first point back around to it.
+        val closed = ring.first() == ring.last()
+        val points = if (closed) ring else ring + ring.first()
+        val keep = BooleanArray(points.size)
+        keep[0] = true
+        keep[points.size - 1] = true
+        val furthest = (1 until points.size - 1).maxByOrNull { distanceSquared(points[it], points[0]) }!!
+        keep[furthest] = true
+
+        val sections = ArrayDeque(listOf(0 to furthest, furthest to points.size - 1))
+        while (sections.isNotEmpty()) {
+            val (start, end) = sections.removeLast()
+            if (end - start < 2) continue
+
+            var furthestFromEdge = -1
+            var maxDistanceSquared = maxDeviation * maxDeviation
+            for (i in start + 1 until end) {
+                val distanceSquared = segmentDistanceSquared(points[i], points[start], points[end])
+                if (distanceSquared > maxDistanceSquared) {
+                    furthestFromEdge = i
+                    maxDistanceSquared = distanceSquared
+                }
+            }
+            if (furthestFromEdge >= 0) {
+                keep[furthestFromEdge] = true
+                sections.addLast(start to furthestFromEdge)
+                sections.addLast(furthestFromEdge to end)
+            }
+        }
+
+        return points.filterIndexed { i, _ -> keep[i] && (closed || i < points.size - 1) }
+    }
+
+    private fun distanceSquared(a: LatLon, b: LatLon): Double {
+        val dx = a.longitude.toDouble() - b.longitude.toDouble()
+        val dy = a.latitude.toDouble() - b.latitude.toDouble()
+
+        return dx * dx + dy * dy
+    }
+
+    /** The squared distance from the point to the nearest point on the segment, in degrees. */
+    private fun segmentDistanceSquared(point: LatLon, start: LatLon, end: LatLon): Double {
+        val dx = end.longitude.toDouble() - start.longitude.toDouble()
+        val dy = end.latitude.toDouble() - start.latitude.toDouble()
+        val lengthSquared = dx * dx + dy * dy
+        if (lengthSquared == 0.0) return distanceSquared(point, start)
+
+        val t = (((point.longitude.toDouble() - start.longitude.toDouble()) * dx +
+                (point.latitude.toDouble() - start.latitude.toDouble()) * dy) / lengthSquared).coerceIn(0.0, 1.0)
+        val distanceX = point.longitude.toDouble() - (start.longitude.toDouble() + t * dx)
+        val distanceY = point.latitude.toDouble() - (start.latitude.toDouble() + t * dy)
+
+        return distanceX * distanceX + distanceY * distanceY
+    }
+}
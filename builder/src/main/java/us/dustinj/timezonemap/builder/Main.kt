@@ -1,35 +1,82 @@
 package us.dustinj.timezonemap.builder
 
+import com.esri.core.geometry.Envelope2D
 import com.esri.core.geometry.OperatorSimplify
 import com.esri.core.geometry.SpatialReference
+import com.fasterxml.jackson.core.JsonToken
 import com.fasterxml.jackson.databind.ObjectMapper
+import com.github.luben.zstd.Zstd
+import com.github.luben.zstd.ZstdOutputStream
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry
 import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream
-import org.apache.commons.compress.compressors.zstandard.ZstdCompressorOutputStream
 import org.geojson.Feature
-import org.geojson.FeatureCollection
 import org.geojson.LngLatAlt
 import org.geojson.MultiPolygon
 import org.geojson.Polygon
+import us.dustinj.timezonemap.serialization.ArchiveCellIndex
+import us.dustinj.timezonemap.serialization.CELL_INDEX_ENTRY_NAME
+import us.dustinj.timezonemap.serialization.CellClassifier
+import us.dustinj.timezonemap.serialization.ENTRY_METADATA_ENTRY_NAME
+import us.dustinj.timezonemap.serialization.EntryMetadata
 import us.dustinj.timezonemap.serialization.Envelope
 import us.dustinj.timezonemap.serialization.LatLon
+import us.dustinj.timezonemap.serialization.RingEncoding
+import us.dustinj.timezonemap.serialization.TableOfContents
+import us.dustinj.timezonemap.serialization.TableOfContentsEntry
 import us.dustinj.timezonemap.serialization.TimeZone
+import us.dustinj.timezonemap.serialization.roundToFixedPoint
+import us.dustinj.timezonemap.serialization.serializeCellIndex
+import us.dustinj.timezonemap.serialization.serializeEntryMetadata
 import us.dustinj.timezonemap.serialization.serializeEnvelope
+import us.dustinj.timezonemap.serialization.serializeTableOfContents
 import us.dustinj.timezonemap.serialization.serializeTimeZone
+import us.dustinj.timezonemap.serialization.versionEntryName
+import java.io.Closeable
+import java.io.EOFException
 import java.io.FileInputStream
 import java.io.FileOutputStream
 import java.io.IOException
+import java.io.InputStream
 import java.io.OutputStream
 import java.net.URL
 import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 import java.nio.file.Files
 import java.nio.file.Path
 import java.nio.file.Paths
+import java.nio.file.StandardOpenOption
+import java.util.ArrayDeque
+import java.util.concurrent.Callable
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import java.util.zip.ZipInputStream
 import kotlin.math.max
 import kotlin.math.min
+import kotlin.math.sin
 
 object Main {
+    /**
+     * How many times the world may be subdivided when building the cell index stored in map archives. At this depth,
+     * the smallest cells are about 40km wide, and list the time zones only partially covering them as candidates.
+     */
+    private const val CELL_INDEX_DEPTH = 10
+    private const val ZSTD_LEVEL = 22
+
+    /** The region the cell index stored in map archives covers. */
+    private val WORLD = Envelope2D(-180.0, -90.0, 180.0, 90.0)
+
+    /** How seekable map archives store ring points, compressed along with the rest of each time zone. */
+    private val SEEKABLE_RING_ENCODING = RingEncoding.DELTA_VARINT
+
+    /**
+     * The maximum deviations, in degrees and coarsest first, of the generalizations stored along with each time zone.
+     * These are about 11km and 1km, so that most lookups are answered by a generalization with far fewer points.
+     */
+    private val GENERALIZATION_MAX_DEVIATIONS = listOf(0.1, 0.01)
+
+    /** The radius, in metres, of the sphere with the same surface area as the WGS84 ellipsoid. */
+    private const val AUTHALIC_EARTH_RADIUS = 6371007.2
+
     private fun createInputStream(argument: String) =
             if (Files.exists(Paths.get(argument))) {
                 FileInputStream(argument)
@@ -41,21 +88,32 @@ object Main {
     private fun List<LngLatAlt>.convertRing(): List<LatLon> =
             this.map { LatLon(it.latitude.toFloat(), it.longitude.toFloat()) }
 
-    private fun cleanseRegion(timeZone: TimeZone): TimeZone {
+    private fun convertToEsriPolygon(timeZone: TimeZone): com.esri.core.geometry.Polygon {
         val polygon = com.esri.core.geometry.Polygon()
         for (region in timeZone.regions.flatten()) {
             polygon.startPath(region[0].longitude.toDouble(), region[0].latitude.toDouble())
             region.subList(1, region.size)
                     .forEach { (lat, long) -> polygon.lineTo(long.toDouble(), lat.toDouble()) }
         }
+        return polygon
+    }
+
+    private fun cleanseRegion(timeZone: TimeZone): TimeZone {
         val cleansedPolygon = OperatorSimplify.local()
-                .execute(polygon, SpatialReference.create("WGS84_WKID"), true, null) as com.esri.core.geometry.Polygon
+                .execute(convertToEsriPolygon(timeZone), SpatialReference.create("WGS84_WKID"), true, null)
+                as com.esri.core.geometry.Polygon
         val rings = (0 until cleansedPolygon.pathCount)
                 .map { ringIndex ->
                     com.esri.core.geometry.Polygon()
                             .also { it.addPath(cleansedPolygon, ringIndex, true) }
                 }
-                .map { ring -> ring.coordinates2D.map { LatLon(it.y.toFloat(), it.x.toFloat()) } }
+                // Rounded to the fixed point the rings are stored in, so that the extents, areas, cell index and
+                // generalizations worked out from here on all agree with the stored rings.
+                .map { ring ->
+                    ring.coordinates2D.map {
+                        LatLon(roundToFixedPoint(it.y.toFloat()), roundToFixedPoint(it.x.toFloat()))
+                    }
+                }
         return TimeZone(timeZone.timeZoneId, listOf(rings))
     }
 
@@ -73,6 +131,27 @@ object Main {
         return Envelope(LatLon(floats[0], floats[1]), LatLon(floats[2], floats[3]))
     }
 
+    /**
+     * The area of the time zone's region on the earth, in square metres, taken to be a sphere with the same surface
+     * area as the WGS84 ellipsoid, which is within a fraction of a percent of the area on the ellipsoid. The region's
+     * rings are oriented as Esri orients them once simplified, with outer rings clockwise and holes counter-clockwise,
+     * so adding up the signed area of every ring leaves the holes out.
+     */
+    private fun getGeodesicArea(timeZone: TimeZone): Double {
+        var doubleArea = 0.0
+        for (ring in timeZone.regions.flatten()) {
+            for (i in ring.indices) {
+                val from = ring[i]
+                val to = ring[(i + 1) % ring.size]
+                doubleArea += Math.toRadians(to.longitude.toDouble() - from.longitude.toDouble()) *
+                        (2 + sin(Math.toRadians(from.latitude.toDouble())) +
+                                sin(Math.toRadians(to.latitude.toDouble())))
+            }
+        }
+
+        return doubleArea / 2 * AUTHALIC_EARTH_RADIUS * AUTHALIC_EARTH_RADIUS
+    }
+
     private fun <T> List<T>.unflatten() = listOf(this)
 
     private fun convertFeatureToTimeZones(feature: Feature): List<TimeZone> {
@@ -93,76 +172,275 @@ object Main {
         return regions.map { TimeZone(timeZoneId, listOf(it)) }
     }
 
+    /**
+     * Read the features of a feature collection one at a time, so that only the features being worked on are held in
+     * memory rather than the whole collection.
+     */
+    private fun readFeatures(objectMapper: ObjectMapper, inputStream: InputStream): Sequence<Feature> = sequence {
+        val parser = objectMapper.factory.createParser(inputStream)
+        if (parser.nextToken() != JsonToken.START_OBJECT) throw IOException("Expected a feature collection")
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            val token = parser.nextToken()
+            if (parser.currentName == "features" && token == JsonToken.START_ARRAY) {
+                while (parser.nextToken() == JsonToken.START_OBJECT) {
+                    yield(objectMapper.readValue(parser, Feature::class.java))
+                }
+            } else {
+                parser.skipChildren()
+            }
+        }
+    }
+
+    /**
+     * Cleanse, generalize and serialize the time zones of a feature, which is the expensive part of building a map
+     * archive and so runs on a pool of threads.
+     *
+     * @param ringEncodings The ring encodings used by the outputs, each of which the time zones are serialized with.
+     * @param compress Whether the time zones are also compressed on their own, for seekable map archives.
+     */
+    private fun serializeFeature(feature: Feature, ringEncodings: Set<RingEncoding>, compress: Boolean,
+            cellClassifier: CellClassifier): List<SerializedTimeZone> =
+            convertFeatureToTimeZones(feature)
+                    .map { cleanseRegion(it) } // Filter all regions that are now empty after cleansing
+                    .filter { (_, regions) -> regions.asSequence().flatten().flatten().firstOrNull() != null }
+                    .map { timeZone ->
+                        val generalizedTimeZone = timeZone.copy(
+                                generalizations = Generalizer.generalize(timeZone, GENERALIZATION_MAX_DEVIATIONS))
+                        val serializedTimeZones = ringEncodings.associateWith {
+                            serializeTimeZone(generalizedTimeZone, it)
+                        }
+                        // The region is built from the serialized coordinates, just as a map reading the archive
+                        // builds it, so that its area orders overlapping time zones the same way the map does.
+                        val region = convertToEsriPolygon(timeZone)
+                        SerializedTimeZone(EntryMetadata(timeZone.timeZoneId, getBoundingBox(timeZone),
+                                region.calculateArea2D(), getGeodesicArea(timeZone), region.pointCount, 0),
+                                serializedTimeZones, cellClassifier.cellsOf(WORLD, region),
+                                if (compress) compress(serializedTimeZones.getValue(SEEKABLE_RING_ENCODING)) else null)
+                    }
+
+    private fun compress(buffer: ByteBuffer) =
+            Zstd.compress(buffer.array().copyOfRange(buffer.position(), buffer.limit()), ZSTD_LEVEL)
+
+    /**
+     * Build the cell index of a map archive over the whole world, once the cells of every time zone entry have been
+     * added to the classifier in the order of the archive's entries. This is the quadtree a map builds for itself at
+     * run time, which is too slow to build this deep for the whole world each time a map is initialized.
+     */
+    private fun buildCellIndex(classifier: CellClassifier, entryCount: Int): ArchiveCellIndex {
+        classifier.build()
+
+        return ArchiveCellIndex(Envelope(LatLon(-90f, -180f), LatLon(90f, 180f)), entryCount, classifier.nodes,
+                classifier.leafOffsets, classifier.leafTimeZones)
+    }
+
     @Throws(IOException::class)
     private fun build(mapDataLocation: String, mapArchiveVersion: String,
-            compressionAndOutputPathPairs: List<Pair<(OutputStream) -> OutputStream, Path>>) {
-        ZipInputStream(createInputStream(mapDataLocation)).use { zipInputStream ->
-            zipInputStream.nextEntry
-            val featureCollection =
-                    ObjectMapper().readValue(zipInputStream, FeatureCollection::class.java)
-            val serializedTimeZones =
-                    featureCollection.features.asSequence()
-                            .flatMap { convertFeatureToTimeZones(it).asSequence() }
-                            .map { cleanseRegion(it) } // Filter all regions that are now empty after cleansing
-                            .filter { (_, regions) ->
-                                regions.asSequence().flatten().flatten().firstOrNull() != null
-                            }
-                            .map { t: TimeZone -> Pair(getBoundingBox(t), t) }
-                            .map {(envelope, timeZone) ->
-                                SerializedTimeZone("${timeZone.timeZoneId}/${serializeEnvelope(envelope)}",
-                                        serializeTimeZone(timeZone))
-                            }
-                            .toMutableList()
-            serializedTimeZones.add(0, SerializedTimeZone(mapArchiveVersion, ByteBuffer.allocate(0)))
-
-            for (compressionAndOutputPath in compressionAndOutputPathPairs) {
-                writeMapArchive(compressionAndOutputPath.first, compressionAndOutputPath.second, serializedTimeZones)
+            formatAndOutputPathPairs: List<Pair<String, Path>>) {
+        val threads = Runtime.getRuntime().availableProcessors()
+        val executor = Executors.newFixedThreadPool(threads)
+        val writers = mutableListOf<MapArchiveWriter>()
+        try {
+            for ((format, outputPath) in formatAndOutputPathPairs) {
+                writers.add(when (format) {
+                    "zstd" -> TarMapArchiveWriter(outputPath, mapArchiveVersion, RingEncoding.DELTA_VARINT) {
+                        ZstdOutputStream(it).setLevel(ZSTD_LEVEL).setWorkers(threads)
+                    }
+                    "seekable" -> SeekableMapArchiveWriter(outputPath, mapArchiveVersion)
+                    // Uncompressed archives are meant to be read in place, where points stored as floats can be read
+                    // straight from the archive instead of being decoded each time a ring is tested.
+                    else -> TarMapArchiveWriter(outputPath, mapArchiveVersion, RingEncoding.POINTS) { it }
+                })
+            }
+            val ringEncodings = writers.map { it.ringEncoding }.toSet()
+            val compress = writers.any { it is SeekableMapArchiveWriter }
+            // Each time zone's cells are found along with its serialization, so that its region can be dropped as
+            // soon as it's been written rather than held until the cell index is built.
+            val cellClassifier = CellClassifier(CELL_INDEX_DEPTH, listCandidates = true)
+            var entryCount = 0
+            // Features are serialized in parallel, but written in the order they were read, so that each build of
+            // the same input gives the same archives. Only a few features per thread are in flight at a time.
+            val pending = ArrayDeque<Future<List<SerializedTimeZone>>>()
+            val writeNext = {
+                for (timeZone in pending.removeFirst().get()) {
+                    writers.forEach { it.write(timeZone) }
+                    cellClassifier.add(entryCount++, timeZone.cells)
+                }
+            }
+
+            ZipInputStream(createInputStream(mapDataLocation)).use { zipInputStream ->
+                zipInputStream.nextEntry
+                for (feature in readFeatures(ObjectMapper(), zipInputStream)) {
+                    if (pending.size == threads * 4) writeNext()
+                    pending.addLast(executor.submit(Callable {
+                        serializeFeature(feature, ringEncodings, compress, cellClassifier)
+                    }))
+                }
             }
+            while (pending.isNotEmpty()) writeNext()
+
+            val cellIndex = serializeCellIndex(buildCellIndex(cellClassifier, entryCount))
+            writers.forEach { it.finish(cellIndex) }
+        } finally {
+            executor.shutdownNow()
+            writers.forEach { it.close() }
         }
     }
 
-    data class SerializedTimeZone(val filename: String, val serializedTimeZone: ByteBuffer)
+    /**
+     * A time zone serialized with each ring encoding the outputs use.
+     *
+     * @param metadata The time zone's entry metadata, apart from its size, which depends on the ring encoding.
+     * @param cells The cells of the archive's cell index that the time zone's region covers or overlaps.
+     */
+    class SerializedTimeZone(private val metadata: EntryMetadata,
+            private val serializedTimeZones: Map<RingEncoding, ByteBuffer>, val cells: CellClassifier.RegionCells,
+            val compressedTimeZone: ByteArray?) {
+        val filename get() = "${metadata.timeZoneId}/${serializeEnvelope(metadata.envelope)}"
 
-    @Throws(IOException::class)
-    private fun writeMapArchive(compressionProvider: (OutputStream) -> OutputStream,
-            outputPath: Path, serializedTimeZones: Collection<SerializedTimeZone>) {
-        Files.createDirectories(outputPath.parent)
-        TarArchiveOutputStream(compressionProvider(FileOutputStream(outputPath.toString()))).use { out ->
-            serializedTimeZones.forEach {
-                val entry = TarArchiveEntry(it.filename)
-                entry.size = it.serializedTimeZone.remaining().toLong()
-                out.putArchiveEntry(entry)
-                out.write(it.serializedTimeZone.array(), it.serializedTimeZone.position(),
-                        it.serializedTimeZone.remaining())
-                out.closeArchiveEntry()
+        fun serializedTimeZone(ringEncoding: RingEncoding): ByteBuffer = serializedTimeZones.getValue(ringEncoding)
+
+        fun metadata(ringEncoding: RingEncoding) =
+                metadata.copy(size = serializedTimeZone(ringEncoding).remaining())
+    }
+
+    /** Writes a map archive as the time zones arrive, so that every output is written in the same single pass. */
+    private interface MapArchiveWriter : Closeable {
+        /** How the points of the rings of the time zones written are stored. */
+        val ringEncoding: RingEncoding
+
+        @Throws(IOException::class)
+        fun write(timeZone: SerializedTimeZone)
+
+        /** Finish the archive once every time zone has been written, given the cell index built from them. */
+        @Throws(IOException::class)
+        fun finish(cellIndex: ByteBuffer)
+    }
+
+    /**
+     * A temporary file that the time zones of an archive are written to until the archive's header can be written,
+     * after which they're read back in the same order, so that only the header is held in memory.
+     */
+    private class Spool(directory: Path) : Closeable {
+        private val channel = FileChannel.open(Files.createTempFile(directory, "timezonemap", ".spool"),
+                StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.DELETE_ON_CLOSE)
+
+        fun append(contents: ByteBuffer) {
+            val remaining = contents.duplicate()
+            while (remaining.hasRemaining()) channel.write(remaining)
+        }
+
+        /** Start reading back from the beginning, once everything has been appended. */
+        fun rewind() {
+            channel.position(0)
+        }
+
+        /** Read back the next [size] bytes. */
+        fun read(size: Int): ByteBuffer {
+            val contents = ByteBuffer.allocate(size)
+            while (contents.hasRemaining()) {
+                if (channel.read(contents) < 0) throw EOFException("Spooled time zones ended early")
+            }
+
+            return contents.also { it.flip() }
+        }
+
+        override fun close() = channel.close()
+    }
+
+    /**
+     * Writes a map archive, which starts with an entry naming its version and then the metadata of every time zone,
+     * followed by the time zones and then their cell index. The metadata can only be written once every time zone is
+     * known, so the time zones are spooled until then.
+     */
+    private class TarMapArchiveWriter(outputPath: Path, mapArchiveVersion: String,
+            override val ringEncoding: RingEncoding, compressionProvider: (OutputStream) -> OutputStream) :
+            MapArchiveWriter {
+        private val out = TarArchiveOutputStream(compressionProvider(
+                FileOutputStream(outputPath.also { Files.createDirectories(it.parent) }.toString())))
+        private val spool = Spool(outputPath.parent)
+        private val timeZones = mutableListOf<Pair<String, EntryMetadata>>()
+
+        init {
+            out.putArchiveEntry(TarArchiveEntry(versionEntryName(mapArchiveVersion)))
+            out.closeArchiveEntry()
+        }
+
+        override fun write(timeZone: SerializedTimeZone) {
+            spool.append(timeZone.serializedTimeZone(ringEncoding))
+            timeZones.add(Pair(timeZone.filename, timeZone.metadata(ringEncoding)))
+        }
+
+        override fun finish(cellIndex: ByteBuffer) {
+            writeEntry(ENTRY_METADATA_ENTRY_NAME, serializeEntryMetadata(timeZones.map { it.second }))
+            spool.rewind()
+            timeZones.forEach { (filename, metadata) -> writeEntry(filename, spool.read(metadata.size)) }
+            writeEntry(CELL_INDEX_ENTRY_NAME, cellIndex)
+            out.finish()
+        }
+
+        private fun writeEntry(name: String, contents: ByteBuffer) {
+            val entry = TarArchiveEntry(name)
+            entry.size = contents.remaining().toLong()
+            out.putArchiveEntry(entry)
+            out.write(contents.array(), contents.position(), contents.remaining())
+            out.closeArchiveEntry()
+        }
+
+        override fun close() = spool.use { out.close() }
+    }
+
+    /**
+     * Writes a map archive that starts with a table of contents, followed by each time zone compressed on its own, so
+     * that a map of a region only needs to read and decompress the time zones within the region. The table of
+     * contents can only be written once every time zone is known, so the compressed time zones are spooled until
+     * then.
+     */
+    private class SeekableMapArchiveWriter(private val outputPath: Path, private val mapArchiveVersion: String) :
+            MapArchiveWriter {
+        override val ringEncoding get() = SEEKABLE_RING_ENCODING
+        private val spool = Spool(outputPath.also { Files.createDirectories(it.parent) }.parent)
+        private val entries = mutableListOf<TableOfContentsEntry>()
+        private var offset = 0L
+
+        override fun write(timeZone: SerializedTimeZone) {
+            val compressed = timeZone.compressedTimeZone!!
+            val metadata = timeZone.metadata(ringEncoding)
+            entries.add(TableOfContentsEntry(metadata.timeZoneId, metadata.envelope, metadata.area, offset,
+                    compressed.size, metadata.size))
+            spool.append(ByteBuffer.wrap(compressed))
+            offset += compressed.size
+        }
+
+        override fun finish(cellIndex: ByteBuffer) {
+            FileOutputStream(outputPath.toString()).use { out ->
+                val tableOfContents = serializeTableOfContents(TableOfContents(mapArchiveVersion, entries))
+                out.write(tableOfContents.array(), tableOfContents.position(), tableOfContents.remaining())
+                spool.rewind()
+                entries.forEach { out.write(spool.read(it.length).array()) }
             }
         }
+
+        override fun close() = spool.close()
     }
 
-    // Format: <inputShapeZip|versionToDownload> <outputMapVersion> <<uncompressed|zstd> <outputPath>>+
+    // Format: <inputShapeZip|versionToDownload> <outputMapVersion> <<uncompressed|zstd|seekable> <outputPath>>+
     // Example: timezones-with-oceans.geojson.zip 3.1:2018i uncompressed map.tar zstd map.tar.zstd
     @Throws(IOException::class)
     @JvmStatic
     fun main(args: Array<String>) {
-        val compressionAndOutputPathPairs: MutableList<Pair<(OutputStream) -> OutputStream, Path>> = mutableListOf()
+        val formatAndOutputPathPairs: MutableList<Pair<String, Path>> = mutableListOf()
 
         try {
             var i = 3
             while (i < args.size) {
-                val compression: (OutputStream) -> OutputStream =
-                        if (args[i - 1] == "zstd") {
-                            { ZstdCompressorOutputStream(it, 22) }
-                        } else {
-                            { it }
-                        }
-                compressionAndOutputPathPairs.add(Pair(compression, Paths.get(args[i])))
+                formatAndOutputPathPairs.add(Pair(args[i - 1], Paths.get(args[i])))
                 i += 2
             }
-            build(args[0], "Version: " + args[1], compressionAndOutputPathPairs)
+            build(args[0], args[1], formatAndOutputPathPairs)
         } catch (e: Exception) {
             System.err.println("Error encountered.\n" +
                     "Required format: <inputShapeZip|versionToDownload> <outputMapVersion> " +
-                    "<<uncompressed|zstd> <outputPath>>+\n")
+                    "<<uncompressed|zstd|seekable> <outputPath>>+\n")
             e.printStackTrace(System.err)
         }
     }
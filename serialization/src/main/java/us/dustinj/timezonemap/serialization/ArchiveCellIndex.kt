@@ -0,0 +1,82 @@
+@file:JvmName("ArchiveCellIndexes")
+
+package us.dustinj.timezonemap.serialization
+
+import java.nio.ByteBuffer
+
+/**
+ * The name of the map archive entry holding the archive's cell index, if it has one. The entry starts with this magic
+ * number and the format version, as 32 bit integers, followed by the cell index serialized by [serializeCellIndex].
+ */
+const val CELL_INDEX_ENTRY_NAME = "Cell index"
+const val CELL_INDEX_MAGIC = 0x545A4D43 // "TZMC"
+const val CELL_INDEX_FORMAT_VERSION = 1
+
+/**
+ * A quadtree over [bounds], built along with a map archive, where each leaf cell records the time zones of the archive
+ * that overlap it. Time zones are identified by their position among the archive's time zone entries, in archive
+ * order, not counting the version, entry metadata or cell index entries.
+ */
+class ArchiveCellIndex(
+        val bounds: Envelope,
+        /** The number of time zone entries in the archive the index was built for. */
+        val entryCount: Int,
+        /**
+         * The quadtree, four children at a time. A non-negative value is the position of a node's first child, with the
+         * children ordered south-west, south-east, north-west, north-east. A negative value is a leaf, the bitwise
+         * complement of an index into [leafOffsets].
+         */
+        val nodes: IntArray,
+        /** Where each leaf's time zones start in [leafEntries]. Has one extra entry marking the end. */
+        val leafOffsets: IntArray,
+        /**
+         * The time zones of every leaf, each run sorted by time zone. A time zone that covers the whole cell is stored
+         * as is, while one that only covers part of it is stored as its bitwise complement, as a candidate that
+         * lookups in the cell have to test.
+         */
+        val leafEntries: IntArray)
+
+/** Serialize the cell index, along with the magic number and format version that precede it in its entry. */
+fun serializeCellIndex(cellIndex: ArchiveCellIndex): ByteBuffer {
+    val arrays = listOf(cellIndex.nodes, cellIndex.leafOffsets, cellIndex.leafEntries)
+    val buffer = ByteBuffer.allocate(3 * Int.SIZE_BYTES + 4 * Float.SIZE_BYTES +
+            arrays.sumOf { (it.size + 1) * Int.SIZE_BYTES })
+            .putInt(CELL_INDEX_MAGIC)
+            .putInt(CELL_INDEX_FORMAT_VERSION)
+            .putFloat(cellIndex.bounds.lowerLeftCorner.latitude)
+            .putFloat(cellIndex.bounds.lowerLeftCorner.longitude)
+            .putFloat(cellIndex.bounds.upperRightCorner.latitude)
+            .putFloat(cellIndex.bounds.upperRightCorner.longitude)
+            .putInt(cellIndex.entryCount)
+    for (array in arrays) {
+        buffer.putInt(array.size)
+        buffer.asIntBuffer().put(array)
+        buffer.position(buffer.position() + array.size * Int.SIZE_BYTES)
+    }
+
+    return buffer.apply { flip() }
+}
+
+/**
+ * Read a cell index from the contents of its map archive entry.
+ *
+ * @throws IllegalArgumentException If the entry isn't a cell index in a format this version can read.
+ * @throws java.nio.BufferUnderflowException If the entry ends before the end of the cell index.
+ */
+fun deserializeCellIndex(buffer: ByteBuffer): ArchiveCellIndex {
+    require(buffer.int == CELL_INDEX_MAGIC) { "Not a cell index" }
+    val formatVersion = buffer.int
+    require(formatVersion == CELL_INDEX_FORMAT_VERSION) {
+        "Unsupported cell index format $formatVersion, required $CELL_INDEX_FORMAT_VERSION"
+    }
+    val bounds = Envelope(LatLon(buffer.float, buffer.float), LatLon(buffer.float, buffer.float))
+    val entryCount = buffer.int
+    val (nodes, leafOffsets, leafEntries) = List(3) {
+        IntArray(buffer.int).also {
+            buffer.asIntBuffer().get(it)
+            buffer.position(buffer.position() + it.size * Int.SIZE_BYTES)
+        }
+    }
+
+    return ArchiveCellIndex(bounds, entryCount, nodes, leafOffsets, leafEntries)
+}
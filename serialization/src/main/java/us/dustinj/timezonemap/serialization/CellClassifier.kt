@@ -0,0 +1,169 @@
+package us.dustinj.timezonemap.serialization
+
+import com.esri.core.geometry.Envelope2D
+import com.esri.core.geometry.Geometry
+import com.esri.core.geometry.GeometryEngine
+import com.esri.core.geometry.Operator
+import com.esri.core.geometry.OperatorClip
+import com.esri.core.geometry.Polygon
+import com.esri.core.geometry.SpatialReference
+
+/**
+ * Builds an adaptive quadtree over a region, where each leaf cell records the time zones overlapping it. This is both
+ * the cell index the builder stores in map archives and the one a map builds for itself, so that the two agree. When
+ * every time zone either covers a cell completely or doesn't touch it at all, the cell is a leaf holding the covering
+ * time zones. Cells that straddle a boundary are split in four until [maxDepth] is reached, at which point they're
+ * leaves too, either listing the time zones that only partially cover them as candidates, stored as their bitwise
+ * complement, or marked [MIXED].
+ *
+ * Cells are closed, so a location on the line between two cells can be answered by either of them.
+ *
+ * Regions are examined one at a time by [cellsOf], which only reads the classifier and so can run on several threads
+ * at once, and the cells found are then [add]ed, so that the regions needn't all be held in memory together.
+ *
+ * @param listCandidates Whether the deepest cells list their candidates rather than being marked [MIXED].
+ */
+class CellClassifier(private val maxDepth: Int, private val listCandidates: Boolean) {
+    private val nodeList = mutableListOf(0)
+    private val leaves = LinkedHashMap<List<Int>, Int>()
+    // The cells of the time zones added so far, by cell key: those some region partially covers above the maximum
+    // depth, which are split, and the time zones covering, or partially covering at the maximum depth, each cell.
+    private val splitCells = HashSet<Long>()
+    private val coveringTimeZones = HashMap<Long, MutableList<Int>>()
+    private val candidateTimeZones = HashMap<Long, MutableList<Int>>()
+
+    private class Piece(val region: Geometry) {
+        val extents = Envelope2D().also { region.queryEnvelope2D(it) }
+    }
+
+    /**
+     * The cells of the quadtree that one region covers completely, which are only the largest such cells, and the
+     * cells it partially covers, found by [cellsOf].
+     */
+    class RegionCells internal constructor(internal val covered: LongArray, internal val overlapped: LongArray)
+
+    /**
+     * The quadtree, four children at a time, as described by [ArchiveCellIndex.nodes], except that a leaf may also be
+     * [MIXED].
+     */
+    val nodes get() = nodeList.toIntArray()
+
+    /** Where each distinct leaf's time zones start in [leafTimeZones]. Has one extra entry marking the end. */
+    val leafOffsets get() = leaves.keys.runningFold(0) { offset, timeZones -> offset + timeZones.size }.toIntArray()
+
+    /** The time zones of every distinct leaf, each run sorted by time zone, with candidates complemented. */
+    val leafTimeZones get() = leaves.keys.flatten().toIntArray()
+
+    /** Classify the cells of the bounds, given the regions of the time zones, in order. */
+    fun classify(bounds: Envelope2D, regions: List<Geometry>): CellClassifier {
+        regions.forEachIndexed { timeZone, region -> add(timeZone, cellsOf(bounds, region)) }
+
+        return build()
+    }
+
+    /**
+     * Find the cells of the quadtree over the bounds that a region covers, descending only into the cells it
+     * partially covers. Each region is clipped to the cells it's tested against as it goes, so that the relational
+     * operations stay cheap deep down.
+     */
+    fun cellsOf(bounds: Envelope2D, region: Geometry): RegionCells {
+        val covered = mutableListOf<Long>()
+        val overlapped = mutableListOf<Long>()
+        cellsOf(Piece(region), bounds, 0, 0, 0, covered, overlapped)
+
+        return RegionCells(covered.toLongArray(), overlapped.toLongArray())
+    }
+
+    private fun cellsOf(piece: Piece, cell: Envelope2D, depth: Int, x: Int, y: Int, covered: MutableList<Long>,
+            overlapped: MutableList<Long>) {
+        if (!piece.extents.isIntersecting(cell)) return
+        val cellPolygon = Polygon().apply {
+            startPath(cell.xmin, cell.ymax)
+            lineTo(cell.xmax, cell.ymax)
+            lineTo(cell.xmax, cell.ymin)
+            lineTo(cell.xmin, cell.ymin)
+            lineTo(cell.xmin, cell.ymax)
+        }
+        if (GeometryEngine.disjoint(piece.region, cellPolygon, SPATIAL_REFERENCE)) return
+        if (GeometryEngine.contains(piece.region, cellPolygon, SPATIAL_REFERENCE)) {
+            covered.add(cellKey(depth, x, y))
+            return
+        }
+        overlapped.add(cellKey(depth, x, y))
+        if (depth == maxDepth) return
+
+        // Only the part of the region near the cell matters from here on down. The margin keeps the clipped edge away
+        // from the children so it can't be mistaken for a real boundary. Esri copies any acceleration over to the
+        // clipped piece even though it describes the whole region, so it has to be dropped.
+        val margin = Envelope2D().apply {
+            setCoords(cell)
+            inflate(cell.width / 64, cell.height / 64)
+        }
+        val clipped = Piece(OperatorClip.local().execute(piece.region, margin, SPATIAL_REFERENCE, null)
+                .also { Operator.deaccelerateGeometry(it) })
+        val center = cell.center
+        cellsOf(clipped, Envelope2D(cell.xmin, cell.ymin, center.x, center.y), depth + 1, x * 2, y * 2,
+                covered, overlapped)
+        cellsOf(clipped, Envelope2D(center.x, cell.ymin, cell.xmax, center.y), depth + 1, x * 2 + 1, y * 2,
+                covered, overlapped)
+        cellsOf(clipped, Envelope2D(cell.xmin, center.y, center.x, cell.ymax), depth + 1, x * 2, y * 2 + 1,
+                covered, overlapped)
+        cellsOf(clipped, Envelope2D(center.x, center.y, cell.xmax, cell.ymax), depth + 1, x * 2 + 1, y * 2 + 1,
+                covered, overlapped)
+    }
+
+    /** Record the cells found by [cellsOf] for a time zone's region, in any order. */
+    fun add(timeZone: Int, cells: RegionCells) {
+        cells.covered.forEach { coveringTimeZones.getOrPut(it) { mutableListOf() }.add(timeZone) }
+        for (cell in cells.overlapped) {
+            if (cellDepth(cell) < maxDepth) {
+                splitCells.add(cell)
+            } else {
+                candidateTimeZones.getOrPut(cell) { mutableListOf() }.add(timeZone)
+            }
+        }
+    }
+
+    /** Build the quadtree once the cells of every time zone have been added. */
+    fun build(): CellClassifier {
+        build(0, 0, 0, 0, emptyList())
+
+        return this
+    }
+
+    private fun build(node: Int, depth: Int, x: Int, y: Int, covering: List<Int>) {
+        val cell = cellKey(depth, x, y)
+        val nowCovering = covering + coveringTimeZones[cell].orEmpty()
+
+        if (cell in splitCells) {
+            val firstChild = nodeList.size
+            repeat(4) { nodeList.add(0) }
+            nodeList[node] = firstChild
+
+            build(firstChild, depth + 1, x * 2, y * 2, nowCovering)
+            build(firstChild + 1, depth + 1, x * 2 + 1, y * 2, nowCovering)
+            build(firstChild + 2, depth + 1, x * 2, y * 2 + 1, nowCovering)
+            build(firstChild + 3, depth + 1, x * 2 + 1, y * 2 + 1, nowCovering)
+        } else {
+            val candidates = candidateTimeZones[cell].orEmpty()
+            nodeList[node] = if (candidates.isEmpty() || listCandidates) {
+                val timeZones = (nowCovering + candidates.map { it.inv() }).sortedBy { if (it >= 0) it else it.inv() }
+                leaves.getOrPut(timeZones) { leaves.size }.inv()
+            } else {
+                MIXED
+            }
+        }
+    }
+
+    companion object {
+        /** Marks a leaf whose time zones aren't known without testing the regions of the time zones overlapping it. */
+        const val MIXED = Int.MIN_VALUE
+
+        private val SPATIAL_REFERENCE: SpatialReference = SpatialReference.create("WGS84_WKID")
+
+        /** Identifies a cell by its depth and its column and row among the cells at that depth. */
+        private fun cellKey(depth: Int, x: Int, y: Int) = depth.toLong() shl 48 or (x.toLong() shl 24) or y.toLong()
+
+        private fun cellDepth(cell: Long) = (cell ushr 48).toInt()
+    }
+}
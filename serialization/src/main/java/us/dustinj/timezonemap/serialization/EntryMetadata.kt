@@ -0,0 +1,73 @@
+@file:JvmName("EntryMetadatas")
+
+package us.dustinj.timezonemap.serialization
+
+import java.nio.ByteBuffer
+
+/**
+ * The name of the map archive entry holding the metadata of the archive's time zone entries, if it has one. The entry
+ * comes before the time zones, so that a map can plan what to read before reading any of them. It starts with this
+ * magic number and the format version, as 32 bit integers, followed by the metadata serialized by
+ * [serializeEntryMetadata].
+ */
+const val ENTRY_METADATA_ENTRY_NAME = "Entry metadata"
+const val ENTRY_METADATA_MAGIC = 0x545A4D45 // "TZME"
+const val ENTRY_METADATA_FORMAT_VERSION = 2
+
+/** What a map needs to know about a time zone entry of a map archive without reading its serialized time zone. */
+data class EntryMetadata(val timeZoneId: String, val envelope: Envelope,
+        /** The area of the time zone's region, in square degrees, as used to order overlapping time zones. */
+        val area: Double,
+        /** The area of the time zone's region on the earth, in square metres. */
+        val geodesicArea: Double,
+        /** The number of points in the rings of the time zone's region, not counting its generalizations. */
+        val vertexCount: Int,
+        /** The number of bytes of the serialized time zone. */
+        val size: Int)
+
+/**
+ * Serialize the metadata of every time zone entry, in archive order, along with the magic number and format version
+ * that precede it in its entry. Each time zone id is stored as its length in bytes followed by its UTF-8 bytes.
+ */
+fun serializeEntryMetadata(entries: List<EntryMetadata>): ByteBuffer {
+    val timeZoneIds = entries.map { it.timeZoneId.encodeToByteArray() }
+    val buffer = ByteBuffer.allocate(3 * Int.SIZE_BYTES + timeZoneIds.sumOf { it.size } + entries.size *
+            (3 * Int.SIZE_BYTES + 4 * Float.SIZE_BYTES + 2 * Double.SIZE_BYTES))
+            .putInt(ENTRY_METADATA_MAGIC)
+            .putInt(ENTRY_METADATA_FORMAT_VERSION)
+            .putInt(entries.size)
+    entries.forEachIndexed { i, it ->
+        buffer.putInt(timeZoneIds[i].size)
+                .put(timeZoneIds[i])
+                .putFloat(it.envelope.lowerLeftCorner.latitude)
+                .putFloat(it.envelope.lowerLeftCorner.longitude)
+                .putFloat(it.envelope.upperRightCorner.latitude)
+                .putFloat(it.envelope.upperRightCorner.longitude)
+                .putDouble(it.area)
+                .putDouble(it.geodesicArea)
+                .putInt(it.vertexCount)
+                .putInt(it.size)
+    }
+
+    return buffer.apply { flip() }
+}
+
+/**
+ * Read the metadata of every time zone entry, in archive order, from the contents of its map archive entry.
+ *
+ * @throws IllegalArgumentException If the entry isn't entry metadata in a format this version can read.
+ * @throws java.nio.BufferUnderflowException If the entry ends before the end of the metadata.
+ */
+fun deserializeEntryMetadata(buffer: ByteBuffer): List<EntryMetadata> {
+    require(buffer.int == ENTRY_METADATA_MAGIC) { "Not entry metadata" }
+    val formatVersion = buffer.int
+    require(formatVersion == ENTRY_METADATA_FORMAT_VERSION) {
+        "Unsupported entry metadata format $formatVersion, required $ENTRY_METADATA_FORMAT_VERSION"
+    }
+
+    return List(buffer.int) {
+        EntryMetadata(String(ByteArray(buffer.int).also { buffer.get(it) }, Charsets.UTF_8),
+                Envelope(LatLon(buffer.float, buffer.float), LatLon(buffer.float, buffer.float)),
+                buffer.double, buffer.double, buffer.int, buffer.int)
+    }
+}
@@ -0,0 +1,87 @@
+@file:JvmName("SeekableArchive")
+
+package us.dustinj.timezonemap.serialization
+
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.io.IOException
+import java.io.InputStream
+import java.nio.ByteBuffer
+
+/**
+ * Identifies a seekable map archive. A seekable map archive starts with this magic number, the format version and the
+ * length of the table of contents, as 32 bit integers, followed by the table of contents itself. The entries follow
+ * the table of contents, each a zstd frame of a time zone serialized by [serializeTimeZone].
+ */
+const val SEEKABLE_ARCHIVE_MAGIC = 0x545A4D53 // "TZMS"
+const val SEEKABLE_ARCHIVE_FORMAT_VERSION = 1
+
+/** A time zone's entry in the table of contents of a seekable map archive. */
+data class TableOfContentsEntry(val timeZoneId: String, val envelope: Envelope,
+        /** The area of the time zone's region, as used to order overlapping time zones. */
+        val area: Double,
+        /** Where the entry starts, counting from the end of the table of contents. */
+        val offset: Long,
+        /** The number of bytes the entry takes in the archive. */
+        val length: Int,
+        /** The number of bytes of the serialized time zone, once the entry is decompressed. */
+        val size: Int)
+
+data class TableOfContents(val mapVersion: String, val entries: List<TableOfContentsEntry>)
+
+/** Serialize the table of contents, along with everything that precedes it in a seekable map archive. */
+fun serializeTableOfContents(tableOfContents: TableOfContents): ByteBuffer {
+    val contents = ByteArrayOutputStream()
+    val out = DataOutputStream(contents)
+    out.writeUTF(tableOfContents.mapVersion)
+    out.writeInt(tableOfContents.entries.size)
+    tableOfContents.entries.forEach {
+        out.writeUTF(it.timeZoneId)
+        out.writeFloat(it.envelope.lowerLeftCorner.latitude)
+        out.writeFloat(it.envelope.lowerLeftCorner.longitude)
+        out.writeFloat(it.envelope.upperRightCorner.latitude)
+        out.writeFloat(it.envelope.upperRightCorner.longitude)
+        out.writeDouble(it.area)
+        out.writeLong(it.offset)
+        out.writeInt(it.length)
+        out.writeInt(it.size)
+    }
+
+    return ByteBuffer.allocate(3 * Int.SIZE_BYTES + contents.size())
+            .putInt(SEEKABLE_ARCHIVE_MAGIC)
+            .putInt(SEEKABLE_ARCHIVE_FORMAT_VERSION)
+            .putInt(contents.size())
+            .put(contents.toByteArray())
+            .apply { flip() }
+}
+
+/**
+ * Read the table of contents from the start of a seekable map archive, leaving the stream at the start of the first
+ * entry. No more than the table of contents, and what precedes it, is read from the stream.
+ *
+ * @throws IllegalArgumentException If the stream isn't a seekable map archive in a format this version can read.
+ * @throws IOException If the stream can't be read, or ends before the end of the table of contents.
+ */
+@Throws(IOException::class)
+fun deserializeTableOfContents(inputStream: InputStream): TableOfContents {
+    val preamble = DataInputStream(inputStream)
+    require(preamble.readInt() == SEEKABLE_ARCHIVE_MAGIC) { "Not a seekable map archive" }
+    val formatVersion = preamble.readInt()
+    require(formatVersion == SEEKABLE_ARCHIVE_FORMAT_VERSION) {
+        "Unsupported seekable map archive format $formatVersion, required $SEEKABLE_ARCHIVE_FORMAT_VERSION"
+    }
+    // Read the table of contents all at once, rather than a few bytes at a time from what may well be a file.
+    val contents = ByteArray(preamble.readInt()).also { preamble.readFully(it) }
+
+    val input = DataInputStream(ByteArrayInputStream(contents))
+    val mapVersion = input.readUTF()
+    val entries = List(input.readInt()) {
+        TableOfContentsEntry(input.readUTF(),
+                Envelope(LatLon(input.readFloat(), input.readFloat()), LatLon(input.readFloat(), input.readFloat())),
+                input.readDouble(), input.readLong(), input.readInt(), input.readInt())
+    }
+
+    return TableOfContents(mapVersion, entries)
+}
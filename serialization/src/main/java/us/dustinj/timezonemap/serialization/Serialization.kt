@@ -3,19 +3,67 @@
 package us.dustinj.timezonemap.serialization
 
 import com.google.flatbuffers.FlatBufferBuilder
+import us.dustinj.timezonemap.serialization.flatbuffer.Generalization as FlatGeneralization
 import us.dustinj.timezonemap.serialization.flatbuffer.Point
 import us.dustinj.timezonemap.serialization.flatbuffer.Polygon
 import us.dustinj.timezonemap.serialization.flatbuffer.Ring
 import java.nio.ByteBuffer
+import kotlin.math.abs
 
 data class Envelope(val lowerLeftCorner: LatLon, val upperRightCorner: LatLon)
 data class LatLon(val latitude: Float, val longitude: Float)
-data class TimeZone(val timeZoneId: String,
+data class TimeZone @JvmOverloads constructor(val timeZoneId: String,
         /**
          * A list of polygons, each with multiple rings (where the first ring is the outer boundary and subsequent rings are
          * holes in that area), and each ring is composed of multiple points.
          */
-        val regions: List<List<List<LatLon>>>)
+        val regions: List<List<List<LatLon>>>,
+        /** Coarser copies of the regions, coarsest first, that most locations can be tested against instead. */
+        val generalizations: List<Generalization> = emptyList())
+
+/**
+ * A coarser copy of a time zone's regions, with fewer points. Every point on its rings is within [maxDeviation]
+ * degrees, measured as though latitude and longitude were planar coordinates, of the regions' rings, and every point on
+ * the regions' rings is within [maxDeviation] of its rings. A location further than that from its rings is therefore in
+ * the regions exactly when it's in the generalization.
+ */
+data class Generalization(val maxDeviation: Double, val regions: List<List<List<LatLon>>>)
+
+/**
+ * Fixed point coordinates count in units of 2^-23 degrees. Every float of at least one degree in magnitude is a whole
+ * number of these units, so only coordinates within a degree of the equator or the prime meridian are rounded, by at
+ * most half a unit (about 7mm). Coordinates have to be less than 256 degrees from zero to fit in an int.
+ */
+const val FIXED_POINT_UNITS_PER_DEGREE = 1 shl 23
+private const val MAX_FIXED_POINT_DEGREES = 256f
+
+/** How [serializeTimeZone] stores the points of each ring. */
+enum class RingEncoding {
+    /** Each point as a pair of floats, which every version of the library can read. */
+    POINTS,
+
+    /**
+     * Each point's latitude and longitude in fixed point (see [FIXED_POINT_UNITS_PER_DEGREE]), less the previous
+     * point's (or zero for the first point), zig-zag encoded so that small negative differences stay small, and
+     * packed seven bits to a byte, least significant first, with the high bit set on every byte but the last.
+     * Neighbouring points are close together, so most points take two to four bytes instead of eight. Coordinates are
+     * rounded as [roundToFixedPoint] does.
+     */
+    DELTA_VARINT,
+}
+
+/**
+ * The format of the map archives this version writes. A map archive's first entry holds nothing, and is named after
+ * the archive's map version and format, as [versionEntryName] names it. Format 1, from before the format was named,
+ * only has time zone entries, storing their rings as [RingEncoding.POINTS] and no generalizations. Format 2 adds
+ * generalizations, rings stored as [RingEncoding.DELTA_VARINT], and the entry metadata and cell index entries. Naming
+ * the format after the map version keeps readers from before format 2, which expect nothing after it, from mistaking
+ * an archive for one they can read.
+ */
+const val MAP_ARCHIVE_FORMAT_VERSION = 2
+
+/** The name of the first entry of a map archive of the map version, in the format this version writes. */
+fun versionEntryName(mapVersion: String) = "Version: $mapVersion Format: $MAP_ARCHIVE_FORMAT_VERSION"
 
 fun serializeEnvelope(e: Envelope) = "${e.lowerLeftCorner.latitude},${e.lowerLeftCorner.longitude}," +
         "${e.upperRightCorner.latitude},${e.upperRightCorner.longitude}"
@@ -23,50 +71,294 @@ fun serializeEnvelope(e: Envelope) = "${e.lowerLeftCorner.latitude},${e.lowerLef
 fun deserializeEnvelope(envelope: String) = envelope.split(",")
         .let { Envelope(LatLon(it[0].toFloat(), it[1].toFloat()), LatLon(it[2].toFloat(), it[3].toFloat())) }
 
-fun serializeTimeZone(timeZone: TimeZone): ByteBuffer {
+/**
+ * The coordinate a ring encoded as [RingEncoding.DELTA_VARINT] stores in place of the given one. Rounding coordinates
+ * before doing anything else with them keeps everything worked out from them consistent with the stored rings, which
+ * then store them exactly.
+ *
+ * @throws IllegalArgumentException If the coordinate is too far from zero to be stored in fixed point.
+ */
+fun roundToFixedPoint(degrees: Float) = fromFixedPoint(toFixedPoint(degrees))
+
+private fun toFixedPoint(degrees: Float): Int {
+    require(abs(degrees) < MAX_FIXED_POINT_DEGREES) { "Coordinate $degrees is too large for fixed point" }
+
+    return Math.round(degrees.toDouble() * FIXED_POINT_UNITS_PER_DEGREE).toInt()
+}
+
+// Dividing by a power of two is exact, and so is multiplying by its inverse.
+private const val DEGREES_PER_FIXED_POINT_UNIT = 1.0 / FIXED_POINT_UNITS_PER_DEGREE
+
+private fun fromFixedPoint(units: Int) = (units * DEGREES_PER_FIXED_POINT_UNIT).toFloat()
+
+@JvmOverloads
+fun serializeTimeZone(timeZone: TimeZone, ringEncoding: RingEncoding = RingEncoding.POINTS): ByteBuffer {
     val builder = FlatBufferBuilder(timeZone.regions.asSequence()
             .map { it.size }
             .sum() * 8 + timeZone.timeZoneId.length * 2 + 256)
     val regionOffsets = timeZone.regions.asSequence()
-            .map { serializePolygon(builder, it) }
+            .map { serializePolygon(builder, it, ringEncoding) }
             .map { i: Int? -> i!! }
             .toList()
             .toIntArray()
     val regionsOffset =
             us.dustinj.timezonemap.serialization.flatbuffer.TimeZone.createRegionsVector(builder, regionOffsets)
+    val generalizationOffsets = timeZone.generalizations.map { generalization ->
+        FlatGeneralization.createGeneralization(builder, generalization.maxDeviation,
+                FlatGeneralization.createRegionsVector(builder,
+                        generalization.regions.map { serializePolygon(builder, it, ringEncoding) }.toIntArray()))
+    }
+    val generalizationsOffset = us.dustinj.timezonemap.serialization.flatbuffer.TimeZone
+            .createGeneralizationsVector(builder, generalizationOffsets.toIntArray())
     builder.finish(us.dustinj.timezonemap.serialization.flatbuffer.TimeZone.createTimeZone(builder,
-            builder.createString(timeZone.timeZoneId), regionsOffset))
+            builder.createString(timeZone.timeZoneId), regionsOffset, generalizationsOffset))
 
     return builder.dataBuffer()
 }
 
-fun deserializeTimeZone(serializedTimeZone: ByteBuffer): TimeZone {
+/**
+ * Receives the regions of a serialized time zone as [visitTimeZone] decodes them straight from the flat buffer, so that
+ * they can be built into whatever form is needed without first building a [TimeZone] with an object for every point.
+ */
+interface TimeZoneVisitor {
+    /**
+     * The regions visited so far are finished, and those of a coarser copy of them follow. Generalizations are visited
+     * after the time zone's own regions, coarsest first.
+     */
+    fun startGeneralization(maxDeviation: Double)
+
+    /** A polygon starts, whose first ring is its outer boundary and any others are holes in it. */
+    fun startPolygon(ringCount: Int)
+
+    /** A ring of the current polygon starts. */
+    fun startRing(pointCount: Int)
+
+    /** The next point of the current ring. */
+    fun point(latitude: Float, longitude: Float)
+}
+
+/**
+ * Decode a serialized time zone, passing the visitor the polygons, rings and points of its regions in order, followed
+ * by those of each of its generalizations.
+ *
+ * @return The time zone's identifier.
+ */
+fun visitTimeZone(serializedTimeZone: ByteBuffer, visitor: TimeZoneVisitor): String {
     val timeZone = us.dustinj.timezonemap.serialization.flatbuffer.TimeZone.getRootAsTimeZone(serializedTimeZone)
-    val regions = (0 until timeZone.regionsLength()).map { deserializePolygon(timeZone.regions(it)) }
+    val polygon = Polygon()
+    val ring = Ring()
+    val reader = RingReader()
+    fun visitPolygon(p: Polygon) {
+        visitor.startPolygon(p.ringsLength())
+        for (r in 0 until p.ringsLength()) {
+            reader.read(p.rings(ring, r))
+            val coordinates = reader.coordinates
+            visitor.startRing(reader.pointCount)
+            for (i in 0 until reader.pointCount) visitor.point(coordinates[i * 2], coordinates[i * 2 + 1])
+        }
+    }
+
+    for (p in 0 until timeZone.regionsLength()) visitPolygon(timeZone.regions(polygon, p))
+    // Archives built before generalizations were added simply have none.
+    val generalization = FlatGeneralization()
+    for (g in 0 until timeZone.generalizationsLength()) {
+        timeZone.generalizations(generalization, g)
+        visitor.startGeneralization(generalization.maxDeviation())
+        for (p in 0 until generalization.regionsLength()) visitPolygon(generalization.regions(polygon, p))
+    }
+
+    return timeZone.timeZoneName()
+}
+
+fun deserializeTimeZone(serializedTimeZone: ByteBuffer): TimeZone {
+    val builder = TimeZoneBuilder()
+    val timeZoneId = visitTimeZone(serializedTimeZone, builder)
+
+    return TimeZone(timeZoneId, builder.regions, builder.generalizations)
+}
 
-    return TimeZone(timeZone.timeZoneName(), regions)
+/** Builds the regions and generalizations of a [TimeZone] as they're visited. */
+private class TimeZoneBuilder : TimeZoneVisitor {
+    val regions = mutableListOf<List<List<LatLon>>>()
+    val generalizations = mutableListOf<Generalization>()
+    private var polygons = regions
+    private var rings = mutableListOf<List<LatLon>>()
+    private var points = mutableListOf<LatLon>()
+
+    override fun startGeneralization(maxDeviation: Double) {
+        polygons = mutableListOf()
+        generalizations.add(Generalization(maxDeviation, polygons))
+    }
+
+    override fun startPolygon(ringCount: Int) {
+        rings = ArrayList(ringCount)
+        polygons.add(rings)
+    }
+
+    override fun startRing(pointCount: Int) {
+        points = ArrayList(pointCount)
+        rings.add(points)
+    }
+
+    override fun point(latitude: Float, longitude: Float) {
+        points.add(LatLon(latitude, longitude))
+    }
 }
 
-private fun serializeRing(builder: FlatBufferBuilder, ring: List<LatLon>): Int {
-    Ring.startPointsVector(builder, ring.size)
-    // Reverse the list as flat buffers reverses it during serialization and we'd prefer to keep the original order.
-    ring.reversed().forEach { Point.createPoint(builder, it.latitude, it.longitude) }
+private fun serializeRing(builder: FlatBufferBuilder, ring: List<LatLon>, ringEncoding: RingEncoding): Int {
+    val encoded = ringEncoding == RingEncoding.DELTA_VARINT
+    val pointsOffset = if (encoded) {
+        Ring.createEncodedPointsVector(builder, encodePoints(ring))
+    } else {
+        Ring.startPointsVector(builder, ring.size)
+        // Reverse the list as flat buffers reverses it during serialization and we'd prefer to keep the original order.
+        ring.reversed().forEach { Point.createPoint(builder, it.latitude, it.longitude) }
+        builder.endVector()
+    }
 
-    return Ring.createRing(builder, builder.endVector())
+    Ring.startRing(builder)
+    if (encoded) Ring.addEncodedPoints(builder, pointsOffset) else Ring.addPoints(builder, pointsOffset)
+    if (ring.isNotEmpty()) {
+        // The corners bound the points as they're read back, which encoding rounds to fixed point.
+        var minLatitude = Float.POSITIVE_INFINITY
+        var minLongitude = Float.POSITIVE_INFINITY
+        var maxLatitude = Float.NEGATIVE_INFINITY
+        var maxLongitude = Float.NEGATIVE_INFINITY
+        for (point in ring) {
+            val latitude = if (encoded) roundToFixedPoint(point.latitude) else point.latitude
+            val longitude = if (encoded) roundToFixedPoint(point.longitude) else point.longitude
+            minLatitude = minOf(minLatitude, latitude)
+            minLongitude = minOf(minLongitude, longitude)
+            maxLatitude = maxOf(maxLatitude, latitude)
+            maxLongitude = maxOf(maxLongitude, longitude)
+        }
+        // Structs have to be written in line, while the table is being built.
+        Ring.addLowerLeftCorner(builder, Point.createPoint(builder, minLatitude, minLongitude))
+        Ring.addUpperRightCorner(builder, Point.createPoint(builder, maxLatitude, maxLongitude))
+    }
+
+    return Ring.endRing(builder)
 }
 
-private fun serializePolygon(builder: FlatBufferBuilder, polygon: List<List<LatLon>>): Int {
-    val regionOffsets = polygon.map { ring -> serializeRing(builder, ring) }
+private fun serializePolygon(builder: FlatBufferBuilder, polygon: List<List<LatLon>>, ringEncoding: RingEncoding): Int {
+    val regionOffsets = polygon.map { ring -> serializeRing(builder, ring, ringEncoding) }
     val regionsOffset = Polygon.createRingsVector(builder, regionOffsets.toIntArray())
 
     return Polygon.createPolygon(builder, regionsOffset)
 }
 
-private fun deserializePolygon(polygon: Polygon): List<List<LatLon>> = (0 until polygon.ringsLength()).asSequence()
-        .map { ringIndex -> polygon.rings(ringIndex) }
-        .map { ring ->
-            (0 until ring.pointsLength())
-                    .map { pointIndex -> ring.points(pointIndex) }
-                    .map { point -> LatLon(point.latitude(), point.longitude()) }
+/** Encode the points of a ring as [RingEncoding.DELTA_VARINT]. */
+private fun encodePoints(ring: List<LatLon>): ByteArray {
+    // Each of a point's two varints takes at most five bytes.
+    val encoded = ByteArray(ring.size * 10)
+    var size = 0
+    var previousLatitude = 0
+    var previousLongitude = 0
+    for (point in ring) {
+        val latitude = toFixedPoint(point.latitude)
+        val longitude = toFixedPoint(point.longitude)
+        // Differences that overflow wrap around, and wrap back around when they're added up again.
+        size = writeVarint(encoded, size, zigZag(latitude - previousLatitude))
+        size = writeVarint(encoded, size, zigZag(longitude - previousLongitude))
+        previousLatitude = latitude
+        previousLongitude = longitude
+    }
+
+    return encoded.copyOf(size)
+}
+
+private fun zigZag(value: Int) = (value shl 1) xor (value shr 31)
+
+private fun unZigZag(value: Int) = (value ushr 1) xor -(value and 1)
+
+/** @return The position just after the varint. */
+private fun writeVarint(buffer: ByteArray, position: Int, value: Int): Int {
+    var remaining = value
+    var next = position
+    while (remaining and 0x7F.inv() != 0) {
+        buffer[next++] = (remaining and 0x7F or 0x80).toByte()
+        remaining = remaining ushr 7
+    }
+    buffer[next++] = remaining.toByte()
+
+    return next
+}
+
+/**
+ * Reads the points of rings, however they're stored, straight into a primitive array of latitude and longitude pairs
+ * that's reused from one ring to the next, without creating an object for each point. Encoded points are copied out of
+ * the flat buffer once per ring, into an array that's reused as well, and counted and decoded from the copy. Copying
+ * them in one go and decoding the array is several times faster than decoding them a byte at a time from the buffer.
+ */
+class RingReader {
+    /** The points of the ring read last, as latitude and longitude pairs, followed by whatever an earlier ring left. */
+    var coordinates = FloatArray(0)
+        private set
+
+    /** The number of points in the ring read last. */
+    var pointCount = 0
+        private set
+
+    /** The encoded points of the ring read last, followed by whatever an earlier ring left. */
+    private var encodedPoints = ByteArray(0)
+    private val point = Point()
+
+    fun read(ring: Ring) {
+        val encoded = ring.encodedPointsAsByteBuffer()
+        if (encoded == null) {
+            pointCount = ring.pointsLength()
+            if (coordinates.size < pointCount * 2) coordinates = FloatArray(pointCount * 2)
+            for (i in 0 until pointCount) {
+                ring.points(point, i)
+                coordinates[i * 2] = point.latitude()
+                coordinates[i * 2 + 1] = point.longitude()
+            }
+            return
         }
-        .toList()
+
+        val length = encoded.remaining()
+        if (encodedPoints.size < length) encodedPoints = ByteArray(length)
+        encoded.get(encodedPoints, 0, length)
+        pointCount = countEncodedPoints(encodedPoints, length)
+        if (coordinates.size < pointCount * 2) coordinates = FloatArray(pointCount * 2)
+        decodePoints(encodedPoints, length, coordinates)
+    }
+}
+
+/** The points of a ring, however they're stored, as latitude and longitude pairs. */
+fun ringCoordinates(ring: Ring): FloatArray = RingReader().also { it.read(ring) }.coordinates
+
+private fun countEncodedPoints(encodedPoints: ByteArray, length: Int): Int {
+    // Every varint ends with the one byte that doesn't have its high bit set, and every point is two varints.
+    var varints = 0
+    for (i in 0 until length) {
+        varints += (encodedPoints[i].toInt() ushr 31) xor 1
+    }
+
+    return varints / 2
+}
+
+private fun decodePoints(encodedPoints: ByteArray, length: Int, coordinates: FloatArray) {
+    var position = 0
+    var coordinate = 0
+    var latitude = 0
+    var longitude = 0
+    while (position < length) {
+        var value = 0
+        var shift = 0
+        do {
+            val byte = encodedPoints[position++].toInt()
+            value = value or (byte and 0x7F shl shift)
+            shift += 7
+        } while (byte < 0)
+
+        // Latitudes and longitudes alternate, each relative to the previous one of its kind.
+        if (coordinate and 1 == 0) {
+            latitude += unZigZag(value)
+            coordinates[coordinate++] = fromFixedPoint(latitude)
+        } else {
+            longitude += unZigZag(value)
+            coordinates[coordinate++] = fromFixedPoint(longitude)
+        }
+    }
+}
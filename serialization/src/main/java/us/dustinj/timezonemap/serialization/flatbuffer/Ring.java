@@ -20,17 +20,26 @@ public final class Ring extends Table {
   public int pointsLength() { int o = __offset(4); return o != 0 ? __vector_len(o) : 0; }
   public us.dustinj.timezonemap.serialization.flatbuffer.Point.Vector pointsVector() { return pointsVector(new us.dustinj.timezonemap.serialization.flatbuffer.Point.Vector()); }
   public us.dustinj.timezonemap.serialization.flatbuffer.Point.Vector pointsVector(us.dustinj.timezonemap.serialization.flatbuffer.Point.Vector obj) { int o = __offset(4); return o != 0 ? obj.__assign(__vector(o), 8, bb) : null; }
-
-  public static int createRing(FlatBufferBuilder builder,
-      int pointsOffset) {
-    builder.startTable(1);
-    Ring.addPoints(builder, pointsOffset);
-    return Ring.endRing(builder);
-  }
-
-  public static void startRing(FlatBufferBuilder builder) { builder.startTable(1); }
+  public int encodedPoints(int j) { int o = __offset(6); return o != 0 ? bb.get(__vector(o) + j * 1) & 0xFF : 0; }
+  public int encodedPointsLength() { int o = __offset(6); return o != 0 ? __vector_len(o) : 0; }
+  public ByteVector encodedPointsVector() { return encodedPointsVector(new ByteVector()); }
+  public ByteVector encodedPointsVector(ByteVector obj) { int o = __offset(6); return o != 0 ? obj.__assign(__vector(o), bb) : null; }
+  public ByteBuffer encodedPointsAsByteBuffer() { return __vector_as_bytebuffer(6, 1); }
+  public ByteBuffer encodedPointsInByteBuffer(ByteBuffer _bb) { return __vector_in_bytebuffer(_bb, 6, 1); }
+  public us.dustinj.timezonemap.serialization.flatbuffer.Point lowerLeftCorner() { return lowerLeftCorner(new us.dustinj.timezonemap.serialization.flatbuffer.Point()); }
+  public us.dustinj.timezonemap.serialization.flatbuffer.Point lowerLeftCorner(us.dustinj.timezonemap.serialization.flatbuffer.Point obj) { int o = __offset(8); return o != 0 ? obj.__assign(o + bb_pos, bb) : null; }
+  public us.dustinj.timezonemap.serialization.flatbuffer.Point upperRightCorner() { return upperRightCorner(new us.dustinj.timezonemap.serialization.flatbuffer.Point()); }
+  public us.dustinj.timezonemap.serialization.flatbuffer.Point upperRightCorner(us.dustinj.timezonemap.serialization.flatbuffer.Point obj) { int o = __offset(10); return o != 0 ? obj.__assign(o + bb_pos, bb) : null; }
+
+  public static void startRing(FlatBufferBuilder builder) { builder.startTable(4); }
   public static void addPoints(FlatBufferBuilder builder, int pointsOffset) { builder.addOffset(0, pointsOffset, 0); }
   public static void startPointsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(8, numElems, 4); }
+  public static void addEncodedPoints(FlatBufferBuilder builder, int encodedPointsOffset) { builder.addOffset(1, encodedPointsOffset, 0); }
+  public static int createEncodedPointsVector(FlatBufferBuilder builder, byte[] data) { return builder.createByteVector(data); }
+  public static int createEncodedPointsVector(FlatBufferBuilder builder, ByteBuffer data) { return builder.createByteVector(data); }
+  public static void startEncodedPointsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(1, numElems, 1); }
+  public static void addLowerLeftCorner(FlatBufferBuilder builder, int lowerLeftCornerOffset) { builder.addStruct(2, lowerLeftCornerOffset, 0); }
+  public static void addUpperRightCorner(FlatBufferBuilder builder, int upperRightCornerOffset) { builder.addStruct(3, upperRightCornerOffset, 0); }
   public static int endRing(FlatBufferBuilder builder) {
     int o = builder.endTable();
     return o;
@@ -23,21 +23,31 @@ public final class TimeZone extends Table {
   public int regionsLength() { int o = __offset(6); return o != 0 ? __vector_len(o) : 0; }
   public us.dustinj.timezonemap.serialization.flatbuffer.Polygon.Vector regionsVector() { return regionsVector(new us.dustinj.timezonemap.serialization.flatbuffer.Polygon.Vector()); }
   public us.dustinj.timezonemap.serialization.flatbuffer.Polygon.Vector regionsVector(us.dustinj.timezonemap.serialization.flatbuffer.Polygon.Vector obj) { int o = __offset(6); return o != 0 ? obj.__assign(__vector(o), 4, bb) : null; }
+  public us.dustinj.timezonemap.serialization.flatbuffer.Generalization generalizations(int j) { return generalizations(new us.dustinj.timezonemap.serialization.flatbuffer.Generalization(), j); }
+  public us.dustinj.timezonemap.serialization.flatbuffer.Generalization generalizations(us.dustinj.timezonemap.serialization.flatbuffer.Generalization obj, int j) { int o = __offset(8); return o != 0 ? obj.__assign(__indirect(__vector(o) + j * 4), bb) : null; }
+  public int generalizationsLength() { int o = __offset(8); return o != 0 ? __vector_len(o) : 0; }
+  public us.dustinj.timezonemap.serialization.flatbuffer.Generalization.Vector generalizationsVector() { return generalizationsVector(new us.dustinj.timezonemap.serialization.flatbuffer.Generalization.Vector()); }
+  public us.dustinj.timezonemap.serialization.flatbuffer.Generalization.Vector generalizationsVector(us.dustinj.timezonemap.serialization.flatbuffer.Generalization.Vector obj) { int o = __offset(8); return o != 0 ? obj.__assign(__vector(o), 4, bb) : null; }
 
   public static int createTimeZone(FlatBufferBuilder builder,
       int timeZoneNameOffset,
-      int regionsOffset) {
-    builder.startTable(2);
+      int regionsOffset,
+      int generalizationsOffset) {
+    builder.startTable(3);
+    TimeZone.addGeneralizations(builder, generalizationsOffset);
     TimeZone.addRegions(builder, regionsOffset);
     TimeZone.addTimeZoneName(builder, timeZoneNameOffset);
     return TimeZone.endTimeZone(builder);
   }
 
-  public static void startTimeZone(FlatBufferBuilder builder) { builder.startTable(2); }
+  public static void startTimeZone(FlatBufferBuilder builder) { builder.startTable(3); }
   public static void addTimeZoneName(FlatBufferBuilder builder, int timeZoneNameOffset) { builder.addOffset(0, timeZoneNameOffset, 0); }
   public static void addRegions(FlatBufferBuilder builder, int regionsOffset) { builder.addOffset(1, regionsOffset, 0); }
   public static int createRegionsVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
   public static void startRegionsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
+  public static void addGeneralizations(FlatBufferBuilder builder, int generalizationsOffset) { builder.addOffset(2, generalizationsOffset, 0); }
+  public static int createGeneralizationsVector(FlatBufferBuilder builder, int[] data) { builder.startVector(4, data.length, 4); for (int i = data.length - 1; i >= 0; i--) builder.addOffset(data[i]); return builder.endVector(); }
+  public static void startGeneralizationsVector(FlatBufferBuilder builder, int numElems) { builder.startVector(4, numElems, 4); }
   public static int endTimeZone(FlatBufferBuilder builder) {
     int o = builder.endTable();
     return o;
@@ -0,0 +1,53 @@
+package us.dustinj.timezonemap.serialization;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ArchiveCellIndexTest {
+
+    private static final ArchiveCellIndex CELL_INDEX = new ArchiveCellIndex(
+            new Envelope(new LatLon(-90, -180), new LatLon(90, 180)), 3,
+            new int[] {1, ~0, 5, ~1, ~0, ~2, ~1, ~0, ~2},
+            new int[] {0, 0, 1, 3},
+            new int[] {2, 0, ~1, ~2});
+
+    private static byte[] serialize(ArchiveCellIndex cellIndex) {
+        ByteBuffer buffer = ArchiveCellIndexes.serializeCellIndex(cellIndex);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void roundTrip() {
+        ArchiveCellIndex cellIndex = ArchiveCellIndexes.deserializeCellIndex(ByteBuffer.wrap(serialize(CELL_INDEX)));
+
+        assertThat(cellIndex.getBounds()).isEqualTo(CELL_INDEX.getBounds());
+        assertThat(cellIndex.getEntryCount()).isEqualTo(3);
+        assertThat(cellIndex.getNodes()).containsExactly(CELL_INDEX.getNodes());
+        assertThat(cellIndex.getLeafOffsets()).containsExactly(CELL_INDEX.getLeafOffsets());
+        assertThat(cellIndex.getLeafEntries()).containsExactly(CELL_INDEX.getLeafEntries());
+    }
+
+    @Test
+    public void invalidEntries() {
+        byte[] serialized = serialize(CELL_INDEX);
+        byte[] wrongMagic = serialized.clone();
+        wrongMagic[0] = 0;
+        byte[] wrongFormat = serialized.clone();
+        wrongFormat[7] = (byte) (ArchiveCellIndexes.CELL_INDEX_FORMAT_VERSION + 1);
+
+        assertThatThrownBy(() -> ArchiveCellIndexes.deserializeCellIndex(ByteBuffer.wrap(wrongMagic)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ArchiveCellIndexes.deserializeCellIndex(ByteBuffer.wrap(wrongFormat)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> ArchiveCellIndexes.deserializeCellIndex(
+                ByteBuffer.wrap(serialized, 0, serialized.length - 1)))
+                .isInstanceOf(BufferUnderflowException.class);
+    }
+}
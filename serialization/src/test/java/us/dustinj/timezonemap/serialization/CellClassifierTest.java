@@ -0,0 +1,84 @@
+package us.dustinj.timezonemap.serialization;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.Polygon;
+
+public class CellClassifierTest {
+
+    private static final Envelope2D BOUNDS = new Envelope2D(0, 0, 4, 4);
+
+    // A triangle below the line y = x - 0.4, which touches every cell of the first split but the north-west one, even
+    // though its extents reach into that one too; a square outside the bounds; and a square covering all of them.
+    private static final List<Geometry> REGIONS = Arrays.asList(
+            polygon(0.5, 0.1, 3.9, 0.1, 3.9, 3.5),
+            polygon(10, 10, 11, 10, 11, 11, 10, 11),
+            polygon(-1, -1, 5, -1, 5, 5, -1, 5));
+
+    private static Polygon polygon(double... coordinates) {
+        Polygon polygon = new Polygon();
+        polygon.startPath(coordinates[0], coordinates[1]);
+        for (int i = 2; i < coordinates.length; i += 2) {
+            polygon.lineTo(coordinates[i], coordinates[i + 1]);
+        }
+        return polygon;
+    }
+
+    @Test
+    public void candidatesListedAtMaxDepth() {
+        CellClassifier classifier = new CellClassifier(1, true).classify(BOUNDS, REGIONS);
+
+        assertThat(classifier.getNodes()).containsExactly(1, ~0, ~0, ~1, ~0);
+        assertThat(classifier.getLeafOffsets()).containsExactly(0, 2, 3);
+        assertThat(classifier.getLeafTimeZones()).containsExactly(~0, 2, 2);
+    }
+
+    @Test
+    public void mixedAtMaxDepth() {
+        CellClassifier classifier = new CellClassifier(1, false).classify(BOUNDS, REGIONS);
+
+        assertThat(classifier.getNodes()).containsExactly(1, CellClassifier.MIXED, CellClassifier.MIXED, ~0,
+                CellClassifier.MIXED);
+        assertThat(classifier.getLeafOffsets()).containsExactly(0, 1);
+        assertThat(classifier.getLeafTimeZones()).containsExactly(2);
+    }
+
+    @Test
+    public void deeperSplitsOnlyWhereRegionsOverlap() {
+        int[] nodes = new CellClassifier(3, false).classify(BOUNDS, REGIONS).getNodes();
+
+        assertThat(nodes[3]).isEqualTo(~0);
+        assertThat(nodes.length).isGreaterThan(5);
+        assertThat(nodes.length).isLessThan(1 + 4 + 16 + 64);
+    }
+
+    @Test
+    public void regionsAddedInAnyOrder() {
+        CellClassifier classified = new CellClassifier(3, true).classify(BOUNDS, REGIONS);
+        CellClassifier added = new CellClassifier(3, true);
+        for (int timeZone = REGIONS.size() - 1; timeZone >= 0; timeZone--) {
+            added.add(timeZone, added.cellsOf(BOUNDS, REGIONS.get(timeZone)));
+        }
+        added.build();
+
+        assertThat(added.getNodes()).containsExactly(classified.getNodes());
+        assertThat(added.getLeafOffsets()).containsExactly(classified.getLeafOffsets());
+        assertThat(added.getLeafTimeZones()).containsExactly(classified.getLeafTimeZones());
+    }
+
+    @Test
+    public void noSplitWithoutOverlap() {
+        CellClassifier classifier = new CellClassifier(1, true).classify(BOUNDS, REGIONS.subList(1, 3));
+
+        assertThat(classifier.getNodes()).containsExactly(~0);
+        assertThat(classifier.getLeafOffsets()).containsExactly(0, 1);
+        assertThat(classifier.getLeafTimeZones()).containsExactly(1);
+    }
+}
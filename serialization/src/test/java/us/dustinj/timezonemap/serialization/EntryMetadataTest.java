@@ -0,0 +1,64 @@
+package us.dustinj.timezonemap.serialization;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+
+public class EntryMetadataTest {
+
+    private static final List<EntryMetadata> ENTRIES = Arrays.asList(
+            new EntryMetadata("Square", new Envelope(new LatLon(1, 1), new LatLon(3, 3)), 4, 4.9e10, 5, 120),
+            new EntryMetadata("Etc/GMT+12", new Envelope(new LatLon(-90, -180), new LatLon(90, -172.5f)), 1350,
+                    5.3e12, 4, 96));
+
+    private static byte[] serialize(List<EntryMetadata> entries) {
+        ByteBuffer buffer = EntryMetadatas.serializeEntryMetadata(entries);
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void equalsContract() {
+        // Envelopes whose hash codes differ, which isn't the case for those EqualsVerifier picks on its own
+        EqualsVerifier.forClass(EntryMetadata.class)
+                .withPrefabValues(Envelope.class,
+                        new Envelope(new LatLon(1, 2), new LatLon(3, 4)),
+                        new Envelope(new LatLon(-5, -6), new LatLon(7, 8)))
+                .verify();
+    }
+
+    @Test
+    public void roundTrip() {
+        assertThat(EntryMetadatas.deserializeEntryMetadata(ByteBuffer.wrap(serialize(ENTRIES))))
+                .isEqualTo(ENTRIES);
+        assertThat(EntryMetadatas.deserializeEntryMetadata(ByteBuffer.wrap(serialize(Collections.emptyList()))))
+                .isEmpty();
+    }
+
+    @Test
+    public void invalidEntries() {
+        byte[] serialized = serialize(ENTRIES);
+        byte[] wrongMagic = serialized.clone();
+        wrongMagic[0] = 0;
+        byte[] wrongFormat = serialized.clone();
+        wrongFormat[7] = (byte) (EntryMetadatas.ENTRY_METADATA_FORMAT_VERSION + 1);
+
+        assertThatThrownBy(() -> EntryMetadatas.deserializeEntryMetadata(ByteBuffer.wrap(wrongMagic)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EntryMetadatas.deserializeEntryMetadata(ByteBuffer.wrap(wrongFormat)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EntryMetadatas.deserializeEntryMetadata(
+                ByteBuffer.wrap(serialized, 0, serialized.length - 1)))
+                .isInstanceOf(BufferUnderflowException.class);
+    }
+}
@@ -0,0 +1,13 @@
+package us.dustinj.timezonemap.serialization;
+
+import org.junit.Test;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+
+public class GeneralizationTest {
+
+    @Test
+    public void equalsContract() {
+        EqualsVerifier.forClass(Generalization.class).verify();
+    }
+}
@@ -0,0 +1,66 @@
+package us.dustinj.timezonemap.serialization;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class SeekableArchiveTest {
+
+    private static byte[] toArray(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    @Test
+    public void tableOfContentsRoundTrip() throws IOException {
+        TableOfContents expected = new TableOfContents("4.5:2020d", Arrays.asList(
+                new TableOfContentsEntry("Europe/Paris", new Envelope(new LatLon(41.3f, -5.2f), new LatLon(51.1f, 9.6f)),
+                        55.3, 0, 1234, 5678),
+                new TableOfContentsEntry("Etc/GMT+2", new Envelope(new LatLon(-90, -37.5f), new LatLon(90, -22.5f)),
+                        5400.0, 1234, 10, 20)));
+        byte[] serialized = toArray(SeekableArchive.serializeTableOfContents(expected));
+        byte[] archive = Arrays.copyOf(serialized, serialized.length + 1);
+        archive[serialized.length] = 42;
+        ByteArrayInputStream inputStream = new ByteArrayInputStream(archive);
+
+        assertThat(SeekableArchive.deserializeTableOfContents(inputStream)).isEqualTo(expected);
+        // The stream is left at the first entry
+        assertThat(inputStream.read()).isEqualTo(42);
+    }
+
+    @Test
+    public void emptyTableOfContents() throws IOException {
+        TableOfContents expected = new TableOfContents("4.5:test", Collections.emptyList());
+
+        assertThat(SeekableArchive.deserializeTableOfContents(
+                new ByteArrayInputStream(toArray(SeekableArchive.serializeTableOfContents(expected)))))
+                .isEqualTo(expected);
+    }
+
+    @Test
+    public void invalidArchives() {
+        byte[] serialized = toArray(SeekableArchive.serializeTableOfContents(
+                new TableOfContents("4.5:test", Collections.emptyList())));
+        byte[] wrongMagic = serialized.clone();
+        wrongMagic[0] = 0;
+        byte[] wrongFormat = serialized.clone();
+        wrongFormat[7] = (byte) (SeekableArchive.SEEKABLE_ARCHIVE_FORMAT_VERSION + 1);
+
+        assertThatThrownBy(() -> SeekableArchive.deserializeTableOfContents(new ByteArrayInputStream(wrongMagic)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SeekableArchive.deserializeTableOfContents(new ByteArrayInputStream(wrongFormat)))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> SeekableArchive.deserializeTableOfContents(
+                new ByteArrayInputStream(Arrays.copyOf(serialized, serialized.length - 1))))
+                .isInstanceOf(EOFException.class);
+    }
+}
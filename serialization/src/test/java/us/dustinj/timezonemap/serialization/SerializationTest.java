@@ -1,13 +1,24 @@
 package us.dustinj.timezonemap.serialization;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.offset;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
 import org.junit.Test;
 
+import com.google.flatbuffers.FlatBufferBuilder;
+
+import us.dustinj.timezonemap.serialization.flatbuffer.Point;
+import us.dustinj.timezonemap.serialization.flatbuffer.Ring;
+
 public class SerializationTest {
 
     @Test
@@ -18,6 +29,12 @@ public class SerializationTest {
                 .isEqualTo(wholeWorld);
     }
 
+    @Test
+    public void versionEntryNameNamesFormat() {
+        assertThat(Serialization.versionEntryName("4.5:2020d"))
+                .isEqualTo("Version: 4.5:2020d Format: " + Serialization.MAP_ARCHIVE_FORMAT_VERSION);
+    }
+
     @Test
     public void timeZoneSerializationRoundTrip() {
         TimeZone expectedTimeZone = new TimeZone("TestTimeZone",
@@ -34,4 +51,164 @@ public class SerializationTest {
 
         assertThat(actualTimeZone).isEqualTo(expectedTimeZone);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void generalizationsSerializationRoundTrip() {
+        List<List<List<LatLon>>> coarse = Collections.singletonList(Collections.singletonList(Arrays.asList(
+                new LatLon(0, 0), new LatLon(0, 2), new LatLon(2, 2), new LatLon(2, 0))));
+        List<List<List<LatLon>>> fine = Collections.singletonList(Collections.singletonList(Arrays.asList(
+                new LatLon(0, 0), new LatLon(0, 1), new LatLon(0.1f, 2), new LatLon(2, 2), new LatLon(2, 0))));
+        TimeZone expectedTimeZone = new TimeZone("TestTimeZone", fine,
+                Collections.singletonList(new Generalization(0.1, coarse)));
+        TimeZone actualTimeZone = Serialization.deserializeTimeZone(Serialization.serializeTimeZone(expectedTimeZone));
+
+        assertThat(actualTimeZone).isEqualTo(expectedTimeZone);
+        assertThat(actualTimeZone.getGeneralizations().get(0).getMaxDeviation()).isEqualTo(0.1);
+    }
+
+    @Test
+    public void timeZoneWithoutGeneralizationsField() {
+        // Time zones serialized before generalizations were added don't have the field at all.
+        FlatBufferBuilder builder = new FlatBufferBuilder();
+        int name = builder.createString("TestTimeZone");
+        us.dustinj.timezonemap.serialization.flatbuffer.TimeZone.startTimeZone(builder);
+        us.dustinj.timezonemap.serialization.flatbuffer.TimeZone.addTimeZoneName(builder, name);
+        builder.finish(us.dustinj.timezonemap.serialization.flatbuffer.TimeZone.endTimeZone(builder));
+
+        TimeZone timeZone = Serialization.deserializeTimeZone(builder.dataBuffer());
+
+        assertThat(timeZone.getTimeZoneId()).isEqualTo("TestTimeZone");
+        assertThat(timeZone.getRegions()).isEmpty();
+        assertThat(timeZone.getGeneralizations()).isEmpty();
+    }
+
+    @Test
+    public void deltaVarintSerializationRoundTrip() {
+        List<List<List<LatLon>>> regions = Arrays.asList(
+                Collections.singletonList(Arrays.asList(new LatLon(-90, -180), new LatLon(-90, 180),
+                        new LatLon(90, 180), new LatLon(90, -180))),
+                Arrays.asList(
+                        Arrays.asList(new LatLon(45.123455f, 7.000123f), new LatLon(45.12346f, 7.000124f),
+                                new LatLon(44.5f, 6.75f)),
+                        Collections.emptyList()),
+                Collections.singletonList(IntStream.range(0, 500)
+                        .mapToObj(point -> new LatLon(10 + point / 1024f, 20 - point / 512f))
+                        .collect(Collectors.toList())));
+        TimeZone expectedTimeZone = new TimeZone("TestTimeZone", regions,
+                Collections.singletonList(new Generalization(0.1, regions.subList(0, 1))));
+        ByteBuffer encoded = Serialization.serializeTimeZone(expectedTimeZone, RingEncoding.DELTA_VARINT);
+        ByteBuffer points = Serialization.serializeTimeZone(expectedTimeZone, RingEncoding.POINTS);
+
+        assertThat(Serialization.deserializeTimeZone(encoded)).isEqualTo(expectedTimeZone);
+        assertThat(encoded.remaining()).isLessThan(points.remaining());
+    }
+
+    @Test
+    public void deltaVarintRoundsToFixedPoint() {
+        float unit = 1f / Serialization.FIXED_POINT_UNITS_PER_DEGREE;
+        TimeZone timeZone = new TimeZone("TestTimeZone", Collections.singletonList(Collections.singletonList(
+                Arrays.asList(new LatLon(0.1f, -0.3f * unit), new LatLon(179.99998f, 0.7f * unit)))));
+        TimeZone expectedTimeZone = new TimeZone("TestTimeZone", Collections.singletonList(Collections.singletonList(
+                Arrays.asList(new LatLon(Serialization.roundToFixedPoint(0.1f), 0), new LatLon(179.99998f, unit)))));
+
+        assertThat(Serialization.roundToFixedPoint(0.1f)).isNotEqualTo(0.1f).isCloseTo(0.1f, offset(unit));
+        assertThat(Serialization.deserializeTimeZone(Serialization.serializeTimeZone(timeZone,
+                RingEncoding.DELTA_VARINT))).isEqualTo(expectedTimeZone);
+        assertThatThrownBy(() -> Serialization.roundToFixedPoint(256))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> Serialization.roundToFixedPoint(-256))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void ringsReadIntoPrimitiveArrays() {
+        TimeZone timeZone = new TimeZone("TestTimeZone", Collections.singletonList(Arrays.asList(
+                Arrays.asList(new LatLon(1, 2), new LatLon(-3, 4), new LatLon(5, -6), new LatLon(7, 8)),
+                Arrays.asList(new LatLon(1, 2), new LatLon(-3, 4), new LatLon(5, -6)))));
+
+        for (RingEncoding ringEncoding : RingEncoding.values()) {
+            us.dustinj.timezonemap.serialization.flatbuffer.Polygon polygon =
+                    us.dustinj.timezonemap.serialization.flatbuffer.TimeZone
+                            .getRootAsTimeZone(Serialization.serializeTimeZone(timeZone, ringEncoding))
+                            .regions(0);
+            Ring ring = polygon.rings(1);
+
+            assertThat(Serialization.ringCoordinates(ring)).containsExactly(1, 2, -3, 4, 5, -6);
+            // The array read into is only replaced when a ring doesn't fit in it
+            RingReader reader = new RingReader();
+            reader.read(polygon.rings(0));
+            float[] coordinates = reader.getCoordinates();
+            assertThat(reader.getPointCount()).isEqualTo(4);
+            reader.read(ring);
+            assertThat(reader.getPointCount()).isEqualTo(3);
+            assertThat(reader.getCoordinates()).isSameAs(coordinates).containsExactly(1, 2, -3, 4, 5, -6, 7, 8);
+        }
+    }
+
+    @Test
+    public void ringCornersBoundPointsAsRead() {
+        TimeZone timeZone = new TimeZone("TestTimeZone", Collections.singletonList(Arrays.asList(
+                Arrays.asList(new LatLon(5.1f, 2), new LatLon(-3, 4.3f), new LatLon(5, -6)),
+                Collections.emptyList())));
+
+        for (RingEncoding ringEncoding : RingEncoding.values()) {
+            us.dustinj.timezonemap.serialization.flatbuffer.Polygon polygon =
+                    us.dustinj.timezonemap.serialization.flatbuffer.TimeZone
+                            .getRootAsTimeZone(Serialization.serializeTimeZone(timeZone, ringEncoding))
+                            .regions(0);
+            float[] coordinates = Serialization.ringCoordinates(polygon.rings(0));
+            Point lowerLeft = polygon.rings(0).lowerLeftCorner();
+            Point upperRight = polygon.rings(0).upperRightCorner();
+
+            assertThat(new float[] {lowerLeft.latitude(), lowerLeft.longitude()}).containsExactly(-3, -6);
+            assertThat(new float[] {upperRight.latitude(), upperRight.longitude()})
+                    .containsExactly(coordinates[0], coordinates[3]);
+            assertThat(polygon.rings(1).lowerLeftCorner()).isNull();
+            assertThat(polygon.rings(1).upperRightCorner()).isNull();
+        }
+    }
+
+    @Test
+    public void visitTimeZone() {
+        List<List<List<LatLon>>> regions = Arrays.asList(
+                Arrays.asList(Arrays.asList(new LatLon(0, 0), new LatLon(0, 2), new LatLon(2, 2)),
+                        Collections.singletonList(new LatLon(1, 1))),
+                Collections.singletonList(Arrays.asList(new LatLon(5, 5), new LatLon(5, 6))));
+        List<List<List<LatLon>>> coarse = Collections.singletonList(Collections.singletonList(Arrays.asList(
+                new LatLon(0, 0), new LatLon(2, 2))));
+        TimeZone timeZone = new TimeZone("TestTimeZone", regions,
+                Collections.singletonList(new Generalization(0.5, coarse)));
+
+        for (RingEncoding ringEncoding : RingEncoding.values()) {
+            List<String> calls = new ArrayList<>();
+            String timeZoneId = Serialization.visitTimeZone(Serialization.serializeTimeZone(timeZone, ringEncoding),
+                    new TimeZoneVisitor() {
+                        @Override
+                        public void startGeneralization(double maxDeviation) {
+                            calls.add("generalization " + maxDeviation);
+                        }
+
+                        @Override
+                        public void startPolygon(int ringCount) {
+                            calls.add("polygon " + ringCount);
+                        }
+
+                        @Override
+                        public void startRing(int pointCount) {
+                            calls.add("ring " + pointCount);
+                        }
+
+                        @Override
+                        public void point(float latitude, float longitude) {
+                            calls.add(latitude + "," + longitude);
+                        }
+                    });
+
+            assertThat(timeZoneId).isEqualTo("TestTimeZone");
+            assertThat(calls).containsExactly(
+                    "polygon 2", "ring 3", "0.0,0.0", "0.0,2.0", "2.0,2.0", "ring 1", "1.0,1.0",
+                    "polygon 1", "ring 2", "5.0,5.0", "5.0,6.0",
+                    "generalization 0.5", "polygon 1", "ring 2", "0.0,0.0", "2.0,2.0");
+        }
+    }
+}
@@ -0,0 +1,18 @@
+package us.dustinj.timezonemap.serialization;
+
+import org.junit.Test;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+
+public class TableOfContentsEntryTest {
+
+    @Test
+    public void equalsContract() {
+        // Envelopes whose hash codes differ, which isn't the case for those EqualsVerifier picks on its own
+        EqualsVerifier.forClass(TableOfContentsEntry.class)
+                .withPrefabValues(Envelope.class,
+                        new Envelope(new LatLon(1, 2), new LatLon(3, 4)),
+                        new Envelope(new LatLon(-5, -6), new LatLon(7, 8)))
+                .verify();
+    }
+}
\ No newline at end of file
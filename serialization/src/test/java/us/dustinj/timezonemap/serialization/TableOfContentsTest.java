@@ -0,0 +1,13 @@
+package us.dustinj.timezonemap.serialization;
+
+import org.junit.Test;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+
+public class TableOfContentsTest {
+
+    @Test
+    public void equalsContract() {
+        EqualsVerifier.forClass(TableOfContents.class).verify();
+    }
+}
\ No newline at end of file
@@ -0,0 +1,30 @@
+package us.dustinj.timezonemap
+
+import java.io.InputStream
+import java.nio.ByteBuffer
+
+/**
+ * Reads from the buffer's position onwards, advancing it, so the buffer's position is always where the stream is up to.
+ * Skipping only moves the position, so skipped bytes of a memory mapped buffer are never even read from the file.
+ */
+internal class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+    override fun read() = if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+    override fun read(b: ByteArray, off: Int, len: Int): Int {
+        if (len == 0) return 0
+        if (!buffer.hasRemaining()) return -1
+        val length = minOf(len, buffer.remaining())
+        buffer.get(b, off, length)
+
+        return length
+    }
+
+    override fun skip(n: Long): Long {
+        val skipped = n.coerceIn(0L, buffer.remaining().toLong())
+        buffer.position(buffer.position() + skipped.toInt())
+
+        return skipped
+    }
+
+    override fun available() = buffer.remaining()
+}
@@ -0,0 +1,135 @@
+package us.dustinj.timezonemap
+
+import com.esri.core.geometry.Envelope2D
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.floor
+
+/**
+ * A cache in front of a [TimeZoneMap], for workloads that look up locations in the same areas over and over, such as
+ * vehicles reporting from the same depots or users in the same cities. The world is divided into a grid of square cells
+ * [cellSizeDegrees] on a side, and the time zones in use in each cell looked up are remembered, so that later lookups
+ * in the cell are answered without examining any time zone regions.
+ *
+ * The answers are always the same as the underlying map's. A cell's time zones are only remembered if the same time
+ * zones are in use everywhere in the cell, so a cell that a time zone boundary passes through is remembered as needing
+ * to be looked up in the map every time. Only the most recently used [maximumSize] cells are remembered.
+ *
+ * Instances are safe to use from multiple threads.
+ */
+class CachingTimeZoneMap @JvmOverloads constructor(
+        /** The map that answers lookups that can't be answered from the cache. */
+        val map: TimeZoneMap,
+        /**
+         * The width and height of each cell, in degrees. Smaller cells mean more lookups near time zone boundaries can
+         * be answered from the cache, but fewer lookups fall into cells that have already been looked up. For
+         * reference, 0.01 degrees of latitude is about 1.1km.
+         */
+        val cellSizeDegrees: Double = DEFAULT_CELL_SIZE_DEGREES,
+        /** The maximum number of cells to remember. */
+        val maximumSize: Int = DEFAULT_MAXIMUM_SIZE) {
+
+    init {
+        require(cellSizeDegrees in MIN_CELL_SIZE_DEGREES..MAX_CELL_SIZE_DEGREES) {
+            "Cell size must be between $MIN_CELL_SIZE_DEGREES and $MAX_CELL_SIZE_DEGREES degrees"
+        }
+        require(maximumSize > 0) { "Maximum size must be positive" }
+    }
+
+    /**
+     * The cache is split into independently locked segments, each holding an even share of the cells in least recently
+     * used order, so that threads looking up different cells rarely wait on each other.
+     */
+    private class Segment(val capacity: Int) {
+        val cells = object : LinkedHashMap<Long, IntArray>(16, 0.75f, true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Long, IntArray>) = size > capacity
+        }
+    }
+
+    private val segments = minOf(SEGMENT_COUNT, maximumSize).let { count ->
+        Array(count) { Segment(maximumSize / count + if (it < maximumSize % count) 1 else 0) }
+    }
+
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+
+    /** The number of lookups answered from the cache. */
+    val hitCount: Long get() = hits.get()
+
+    /** The number of lookups that had to examine time zone regions, either to fill the cache or in its place. */
+    val missCount: Long get() = misses.get()
+
+    /** The number of cells currently remembered. */
+    val size: Int get() = segments.sumOf { synchronized(it) { it.cells.size } }
+
+    /**
+     * Equivalent to [TimeZoneMap.getOverlappingTimeZone] on [map].
+     *
+     * @throws IllegalArgumentException If the provided coordinates are outside of the area indexed by [map].
+     */
+    fun getOverlappingTimeZone(degreesLatitude: Double, degreesLongitude: Double): TimeZone? {
+        val cached = getUniformTimeZoneIndexes(degreesLatitude, degreesLongitude)
+                ?: return map.getOverlappingTimeZone(degreesLatitude, degreesLongitude)
+
+        return if (cached.isEmpty()) null else map.timeZones[cached[0]]
+    }
+
+    /**
+     * Equivalent to [TimeZoneMap.getOverlappingTimeZones] on [map].
+     *
+     * @throws IllegalArgumentException If the provided coordinates are outside of the area indexed by [map].
+     */
+    fun getOverlappingTimeZones(degreesLatitude: Double, degreesLongitude: Double): List<TimeZone> {
+        val cached = getUniformTimeZoneIndexes(degreesLatitude, degreesLongitude)
+                ?: return map.getOverlappingTimeZones(degreesLatitude, degreesLongitude)
+
+        return cached.map { map.timeZones[it] }
+    }
+
+    /** @return The time zones in use throughout the location's cell, or null if they have to be looked up in [map]. */
+    private fun getUniformTimeZoneIndexes(degreesLatitude: Double, degreesLongitude: Double): IntArray? {
+        // Checked first so that, like the map, locations outside of it (including NaN) are rejected.
+        require(map.initializedRegion.contains(degreesLongitude, degreesLatitude)) {
+            "Requested point is outside the initialized area"
+        }
+
+        val row = floor((degreesLatitude + 90) / cellSizeDegrees).toLong()
+        val column = floor((degreesLongitude + 180) / cellSizeDegrees).toLong()
+        val cell = (row shl Int.SIZE_BITS) or column
+        // Spread the cells out over the segments, since neighboring cells differ only in their low bits.
+        val segment = segments[((cell * HASH_MULTIPLIER ushr Int.SIZE_BITS).toInt() and Int.MAX_VALUE) % segments.size]
+
+        val cached = synchronized(segment) { segment.cells[cell] }
+        if (cached != null && cached !== NOT_UNIFORM) {
+            hits.incrementAndGet()
+            return cached
+        }
+
+        misses.incrementAndGet()
+        if (cached != null) return null
+
+        // Pad the cell a little, so that rounding can't leave out any location that's assigned to it.
+        val rectangle = Envelope2D(column * cellSizeDegrees - 180, row * cellSizeDegrees - 90,
+                (column + 1) * cellSizeDegrees - 180, (row + 1) * cellSizeDegrees - 90)
+                .apply { inflate(cellSizeDegrees / CELL_PADDING_DIVISOR, cellSizeDegrees / CELL_PADDING_DIVISOR) }
+        val uniform = map.getUniformTimeZoneIndexes(rectangle)
+        synchronized(segment) { segment.cells[cell] = uniform ?: NOT_UNIFORM }
+
+        return uniform
+    }
+
+    companion object {
+        const val DEFAULT_CELL_SIZE_DEGREES = 0.01
+        const val DEFAULT_MAXIMUM_SIZE = 100_000
+
+        /** Small enough for cells of about 1cm, and for the cell's row and column to each fit in 32 bits. */
+        const val MIN_CELL_SIZE_DEGREES = 1e-7
+        const val MAX_CELL_SIZE_DEGREES = 180.0
+
+        private const val SEGMENT_COUNT = 16
+        private const val CELL_PADDING_DIVISOR = 1_000_000
+        private const val HASH_MULTIPLIER = -7046029254386353131L
+
+        /** Marks a cell that a time zone boundary passes through. Compared by identity. */
+        private val NOT_UNIFORM = IntArray(0)
+    }
+}
@@ -0,0 +1,157 @@
+package us.dustinj.timezonemap
+
+import com.esri.core.geometry.Envelope2D
+import com.esri.core.geometry.Geometry
+import us.dustinj.timezonemap.serialization.ArchiveCellIndex
+import us.dustinj.timezonemap.serialization.CellClassifier
+
+/**
+ * An adaptive quadtree over the region a map was initialized for, where each leaf cell records the time zones
+ * overlapping it, as classified by [CellClassifier]. When every time zone either covers a cell completely or doesn't
+ * touch it at all, the cell is a leaf holding the covering time zones (which may be none, one, or several in disputed
+ * areas) and lookups landing in it need no containment tests. Cells that straddle a boundary are split in four until
+ * the maximum depth is reached, at which point they're marked [MIXED] and the caller has to test the candidate regions
+ * itself. A quadtree can also be read from the map archive, in which case it covers the whole world, was built by the
+ * builder, and lists the candidates of the cells it couldn't split any further rather than marking them [MIXED].
+ *
+ * Cells are closed, so a location on the line between two cells can be answered by either of them.
+ */
+internal class CellIndex private constructor(
+        /** The region the quadtree covers, which every location looked up has to be within. */
+        private val bounds: Envelope2D,
+        /**
+         * The quadtree, four children at a time. A non-negative value is the position of a node's first child, with
+         * the children ordered south-west, south-east, north-west, north-east. A negative value is a leaf, either
+         * [MIXED] or the bitwise complement of an index into [leafOffsets].
+         */
+        private val nodes: IntArray,
+        /** Where each distinct leaf's time zones start in [leafTimeZones]. Has one extra entry marking the end. */
+        private val leafOffsets: IntArray,
+        /**
+         * The time zones of every distinct leaf, each run sorted by time zone. Time zones covering the leaf are stored
+         * as they are. A quadtree read from a map archive also has leaves listing candidates instead of being [MIXED],
+         * which are time zones covering only part of the leaf, stored as their bitwise complement.
+         */
+        private val leafTimeZones: IntArray) {
+
+    private constructor(bounds: Envelope2D, classifier: CellClassifier) :
+            this(bounds, classifier.nodes, classifier.leafOffsets, classifier.leafTimeZones)
+
+    constructor(regions: List<Geometry>, bounds: Envelope2D, maxDepth: Int) :
+            this(bounds, CellClassifier(maxDepth, listCandidates = false).apply {
+                if (maxDepth > 0) classify(bounds, regions)
+            }) {
+        if (maxDepth == 0) nodes[0] = MIXED
+    }
+
+    /** The number of quadtree nodes, which is a rough measure of the index's memory footprint. */
+    val nodeCount get() = nodes.size
+
+    /**
+     * Find the leaf cell containing the location, which must be within the indexed bounds.
+     *
+     * @return The leaf, to be passed to [firstTimeZone] or [timeZones], or [MIXED] if the cell's time zones aren't
+     * known without testing the candidate regions.
+     */
+    fun leafAt(x: Double, y: Double): Int {
+        var node = 0
+        var xMin = bounds.xmin
+        var yMin = bounds.ymin
+        var xMax = bounds.xmax
+        var yMax = bounds.ymax
+
+        while (nodes[node] >= 0) {
+            val xCenter = (xMin + xMax) / 2
+            val yCenter = (yMin + yMax) / 2
+            var quadrant = 0
+            if (x > xCenter) {
+                quadrant += 1
+                xMin = xCenter
+            } else {
+                xMax = xCenter
+            }
+            if (y > yCenter) {
+                quadrant += 2
+                yMin = yCenter
+            } else {
+                yMax = yCenter
+            }
+            node = nodes[node] + quadrant
+        }
+
+        return if (nodes[node] == MIXED) MIXED else nodes[node].inv()
+    }
+
+    /**
+     * Find the smallest time zone in use at a location in the leaf.
+     *
+     * @param contains Tests whether a candidate time zone's region contains the location, which is only needed for
+     * leaves listing candidates.
+     * @return The time zone, or -1 if none is in use at the location.
+     */
+    fun firstTimeZone(leaf: Int, x: Double, y: Double, contains: PackedRTree.ItemPredicate): Int {
+        for (i in leafOffsets[leaf] until leafOffsets[leaf + 1]) {
+            val timeZone = leafTimeZones[i]
+            if (timeZone >= 0) return timeZone
+            if (contains.test(timeZone.inv(), x, y)) return timeZone.inv()
+        }
+
+        return -1
+    }
+
+    /**
+     * Find all time zones in use at a location in the leaf, as [firstTimeZone] does.
+     *
+     * @return The time zones, in ascending order.
+     */
+    fun timeZones(leaf: Int, x: Double, y: Double, contains: PackedRTree.ItemPredicate): IntArray =
+            (leafOffsets[leaf] until leafOffsets[leaf + 1])
+                    .map { leafTimeZones[it] }
+                    .filter { it >= 0 || contains.test(it.inv(), x, y) }
+                    .map { if (it >= 0) it else it.inv() }
+                    .toIntArray()
+
+    /** Write the quadtree to a snapshot, which [read] restores it from as it is. */
+    fun write(snapshot: SnapshotWriter) {
+        snapshot.writeDouble(bounds.xmin)
+        snapshot.writeDouble(bounds.ymin)
+        snapshot.writeDouble(bounds.xmax)
+        snapshot.writeDouble(bounds.ymax)
+        snapshot.writeInts(nodes)
+        snapshot.writeInts(leafOffsets)
+        snapshot.writeInts(leafTimeZones)
+    }
+
+    companion object {
+        const val MIXED = CellClassifier.MIXED
+
+        /** Restore a quadtree written by [write], without examining any regions. */
+        fun read(snapshot: SnapshotReader) = CellIndex(
+                Envelope2D(snapshot.readDouble(), snapshot.readDouble(), snapshot.readDouble(), snapshot.readDouble()),
+                snapshot.readRequiredInts(), snapshot.readRequiredInts(), snapshot.readRequiredInts())
+
+        /**
+         * Use the quadtree of a map archive's cell index, whose leaves refer to the archive's time zone entries, for a
+         * map holding some of those entries.
+         *
+         * @param bounds The cell index's bounds.
+         * @param positions The position in the map of each of the archive's time zone entries, or -1 for entries the
+         * map doesn't hold. Leaves drop the entries the map doesn't hold, which can't be in use anywhere in the map.
+         */
+        fun fromArchive(bounds: Envelope2D, cellIndex: ArchiveCellIndex, positions: IntArray): CellIndex {
+            val leafOffsets = IntArray(cellIndex.leafOffsets.size)
+            val leafTimeZones = mutableListOf<Int>()
+            for (leaf in 0 until cellIndex.leafOffsets.size - 1) {
+                (cellIndex.leafOffsets[leaf] until cellIndex.leafOffsets[leaf + 1])
+                        .map { cellIndex.leafEntries[it] }
+                        .filter { positions[if (it >= 0) it else it.inv()] >= 0 }
+                        .map { if (it >= 0) positions[it] else positions[it.inv()].inv() }
+                        .sortedBy { if (it >= 0) it else it.inv() }
+                        .let { leafTimeZones.addAll(it) }
+                leafOffsets[leaf + 1] = leafTimeZones.size
+            }
+
+            return CellIndex(bounds, cellIndex.nodes, leafOffsets, leafTimeZones.toIntArray())
+        }
+    }
+}
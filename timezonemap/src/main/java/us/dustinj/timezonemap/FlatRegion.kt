@@ -0,0 +1,496 @@
+package us.dustinj.timezonemap
+
+import com.esri.core.geometry.Envelope2D
+import com.esri.core.geometry.Point2D
+import com.esri.core.geometry.Polygon
+import java.lang.ref.SoftReference
+import kotlin.math.abs
+import kotlin.math.max
+
+/**
+ * A copy of a polygon's rings in flat primitive arrays, so that locations can be tested against it without allocating
+ * anything. The answers match [containsInclusive] for the original polygon: a location within Esri's tolerance of a
+ * ring is on the boundary and therefore contained, and any other location is contained when a ray cast from it
+ * crosses the rings an odd number of times, which is the polygon's alternate fill rule.
+ *
+ * Regions with more than [edgeBucketVertexThreshold] vertices also get their edges bucketed into latitude bands, so
+ * that a test only examines the edges that come near the location's latitude rather than every edge of the region.
+ *
+ * This is also the only copy of a time zone's region that a [TimeZone] keeps, so it's kept compact. Coordinates are
+ * stored as 32-bit floats whenever that loses nothing, which is always the case for regions straight from the map
+ * archive since that's how the archive stores them, and as doubles otherwise (such as for regions clipped by
+ * [TimeZoneMap.forRegion]). That's 8 bytes per vertex for the coordinates, and a map of the whole world takes about
+ * 16 bytes per vertex in all (106MB), compared to about 47 (305MB) when each time zone kept an Esri [Polygon] too.
+ *
+ * A region can also have generalizations from the map archive, which are coarser copies of it whose rings are within a
+ * known maximum deviation of its own. A location further than that from a generalization's rings is in the region
+ * exactly when it's in the generalization, so most locations are tested against a few dozen edges of a generalization
+ * and only those close to the boundary are tested against the region itself. Generalizations aren't clipped along with
+ * the region, which doesn't matter since they're only consulted for locations within the region's extents.
+ */
+internal class FlatRegion private constructor(region: Polygon?, edgeBucketVertexThreshold: Int,
+        snapshot: SnapshotReader?, deviation: Double, coarserRegions: List<FlatRegion>) {
+
+    /** @param generalizations Coarser copies of the region, coarsest first, created with [generalization]. */
+    @JvmOverloads
+    constructor(region: Polygon, edgeBucketVertexThreshold: Int, generalizations: List<FlatRegion> = emptyList()) :
+            this(region, edgeBucketVertexThreshold, null, 0.0, generalizations)
+
+    /**
+     * Every ring's vertices with x and y interleaved, each ring repeating its first vertex at the end, or null if they
+     * don't all fit in a float without rounding, in which case they're in [doubleCoordinates]. Read with [coordinate].
+     */
+    private val floatCoordinates: FloatArray?
+
+    /** The same as [floatCoordinates], used only when that's null, and empty otherwise. */
+    private val doubleCoordinates: DoubleArray
+
+    /** Where each ring starts among the coordinates, counted in vertices, with one extra entry marking the end. */
+    private val ringStarts: IntArray
+
+    private val xMin: Double
+    private val yMin: Double
+    private val xMax: Double
+    private val yMax: Double
+
+    /** Multiplying a latitude's distance from [yMin] by this gives its band. */
+    private val bandScale: Double
+
+    /**
+     * Where each latitude band's edges start in [bandEdges], with one extra entry marking the end, or null if the
+     * edges aren't bucketed.
+     */
+    private val bandOffsets: IntArray?
+
+    /** For each band, the positions of the edges that come within the tolerance of it. */
+    private val bandEdges: IntArray
+
+    /** How far a generalization's rings may be from those of the region it was created from, or zero for a region. */
+    private val maxDeviation: Double
+
+    /** Coarser copies of the region, coarsest first. */
+    private val generalizations: Array<FlatRegion>
+
+    init {
+        if (snapshot != null) {
+            floatCoordinates = snapshot.readFloats()
+            doubleCoordinates = snapshot.readDoubles()
+            ringStarts = snapshot.readRequiredInts()
+            xMin = snapshot.readDouble()
+            yMin = snapshot.readDouble()
+            xMax = snapshot.readDouble()
+            yMax = snapshot.readDouble()
+            bandScale = snapshot.readDouble()
+            bandOffsets = snapshot.readInts()
+            bandEdges = snapshot.readRequiredInts()
+            maxDeviation = snapshot.readDouble()
+            generalizations = Array(snapshot.readCount()) { read(snapshot) }
+        } else {
+            region!!
+            require(region.fillRule == Polygon.FillRule.enumFillRuleOddEven) { "Only alternate fill rule is supported" }
+
+            ringStarts = IntArray(region.pathCount + 1)
+            val coordinates = DoubleArray((region.pointCount + region.pathCount) * 2)
+            var vertex = 0
+            for (ring in 0 until region.pathCount) {
+                ringStarts[ring] = vertex
+                for (point in region.getPathStart(ring) until region.getPathEnd(ring)) {
+                    coordinates[vertex * 2] = region.getXY(point).x
+                    coordinates[vertex * 2 + 1] = region.getXY(point).y
+                    vertex++
+                }
+                coordinates[vertex * 2] = coordinates[ringStarts[ring] * 2]
+                coordinates[vertex * 2 + 1] = coordinates[ringStarts[ring] * 2 + 1]
+                vertex++
+            }
+            ringStarts[region.pathCount] = vertex
+            if (coordinates.all { it.toFloat().toDouble() == it }) {
+                floatCoordinates = FloatArray(coordinates.size) { coordinates[it].toFloat() }
+                doubleCoordinates = DoubleArray(0)
+            } else {
+                floatCoordinates = null
+                doubleCoordinates = coordinates
+            }
+
+            val envelope = Envelope2D().also { region.queryEnvelope2D(it) }
+            xMin = envelope.xmin
+            yMin = envelope.ymin
+            xMax = envelope.xmax
+            yMax = envelope.ymax
+            maxDeviation = deviation
+            generalizations = coarserRegions.toTypedArray()
+
+            if (region.pointCount > edgeBucketVertexThreshold) {
+                val bandCount = max(1, region.pointCount / EDGES_PER_BAND)
+                // Infinite for a region with no height, which still puts every location in the first or last band.
+                bandScale = bandCount / (yMax - yMin)
+                // Generous enough for the tolerance of any location that survives the envelope test, and for a
+                // generalization, the band around its rings that it can't answer for.
+                val padding = 2 * tolerance(xMin, yMin) + deviation + GENERALIZATION_MARGIN
+
+                // Count each band's edges, then go over them again to fill them in.
+                val counts = IntArray(bandCount + 1)
+                bucketEdges(bandCount, padding, counts, null)
+                for (band in 0 until bandCount) counts[band + 1] += counts[band]
+
+                val edges = IntArray(counts[bandCount])
+                bucketEdges(bandCount, padding, counts.copyOf(bandCount), edges)
+                bandOffsets = counts
+                bandEdges = edges
+            } else {
+                bandScale = 0.0
+                bandOffsets = null
+                bandEdges = IntArray(0)
+            }
+        }
+    }
+
+    /** Equivalent to `containsInclusive(region, Point(x, y))` for the region this was created from. */
+    fun containsInclusive(x: Double, y: Double): Boolean {
+        val tolerance = tolerance(x, y)
+        // Also rejects every location when the region is empty, since its envelope (and so the tolerance) is NaN.
+        if (!(x >= xMin - tolerance && x <= xMax + tolerance && y >= yMin - tolerance && y <= yMax + tolerance)) {
+            return false
+        }
+
+        if (envelopeContains(x, y)) {
+            for (generalization in generalizations) {
+                // Locations this close to the generalization's rings could be on either side of the region's.
+                val relation = generalization.locate(x, y,
+                        generalization.maxDeviation + tolerance + GENERALIZATION_MARGIN)
+                if (relation != BOUNDARY) return relation == 1
+            }
+        }
+
+        return locate(x, y, tolerance) != 0
+    }
+
+    /**
+     * Relate a location to the rings, without checking the envelope first.
+     *
+     * @return [BOUNDARY] if the location is within [tolerance] of the rings, otherwise 1 if it's inside them by the
+     * alternate fill rule, or 0 if it isn't.
+     */
+    private fun locate(x: Double, y: Double, tolerance: Double): Int {
+        var crossings = 0
+        if (bandOffsets == null) {
+            for (ring in 0 until ringStarts.size - 1) {
+                var i = ringStarts[ring] * 2
+                val end = (ringStarts[ring + 1] - 1) * 2
+                while (i < end) {
+                    val relation = relateEdge(i, x, y, tolerance)
+                    if (relation == BOUNDARY) return BOUNDARY
+                    crossings += relation
+                    i += 2
+                }
+            }
+        } else {
+            val band = bandOf(y, bandOffsets.size - 1)
+            for (edge in bandOffsets[band] until bandOffsets[band + 1]) {
+                val relation = relateEdge(bandEdges[edge], x, y, tolerance)
+                if (relation == BOUNDARY) return BOUNDARY
+                crossings += relation
+            }
+        }
+
+        return crossings % 2
+    }
+
+    /**
+     * Conservatively relate a rectangle to the region.
+     *
+     * @return [INSIDE] if every location in the rectangle is in the region, [OUTSIDE] if none of them are, or [CROSSES]
+     * if the region's boundary comes within the tolerance of the rectangle, so that it might be either or both.
+     */
+    fun relate(rectangle: Envelope2D): Int {
+        val tolerance = tolerance(rectangle.xmin, rectangle.ymin, rectangle.xmax, rectangle.ymax)
+        val left = rectangle.xmin - tolerance
+        val bottom = rectangle.ymin - tolerance
+        val right = rectangle.xmax + tolerance
+        val top = rectangle.ymax + tolerance
+        // Also treats an empty region as outside, since its envelope is NaN.
+        if (!(left <= xMax && right >= xMin && bottom <= yMax && top >= yMin)) return OUTSIDE
+
+        if (bandOffsets == null) {
+            for (ring in 0 until ringStarts.size - 1) {
+                for (vertex in ringStarts[ring] until ringStarts[ring + 1] - 1) {
+                    if (edgeTouches(vertex * 2, left, bottom, right, top)) return CROSSES
+                }
+            }
+        } else {
+            var band = bandOf(bottom, bandOffsets.size - 1)
+            val lastBand = bandOf(top, bandOffsets.size - 1)
+            do {
+                for (edge in bandOffsets[band] until bandOffsets[band + 1]) {
+                    if (edgeTouches(bandEdges[edge], left, bottom, right, top)) return CROSSES
+                }
+            } while (++band <= lastBand)
+        }
+
+        // With no boundary anywhere near the rectangle, any location in it stands for all of them.
+        return if (containsInclusive(rectangle.xmin, rectangle.ymin)) INSIDE else OUTSIDE
+    }
+
+    /**
+     * Only built when it's needed, since lookups don't need it, and only softly held, so that the indexes of every time
+     * zone a caller ever measured a distance in don't stay on the heap for good.
+     */
+    @Volatile
+    private var builtBoundaryIndex: SoftReference<BoundaryIndex>? = null
+    private val boundaryIndex
+        get() = builtBoundaryIndex?.get() ?: BoundaryIndex().also { builtBoundaryIndex = SoftReference(it) }
+
+    /** The region's edges in an R-tree, for finding the edge nearest to a location without checking every edge. */
+    private inner class BoundaryIndex : PackedRTree.ItemDistance {
+        /** The position of each edge, in ring order. */
+        private val edges = (0 until ringStarts.size - 1).flatMap { ring ->
+            (ringStarts[ring] until ringStarts[ring + 1] - 1).map { it * 2 }
+        }.toIntArray()
+
+        private val tree = PackedRTree(edges.map { i ->
+            Envelope2D(minOf(coordinate(i), coordinate(i + 2)), minOf(coordinate(i + 1), coordinate(i + 3)),
+                    maxOf(coordinate(i), coordinate(i + 2)), maxOf(coordinate(i + 1), coordinate(i + 3)))
+        })
+
+        /** @return The position of the nearest edge, or -1 if there is none within [maxDistance]. */
+        fun nearestEdge(x: Double, y: Double, maxDistance: Double): Int {
+            val edge = tree.nearest(x, y, maxDistance, this)
+
+            return if (edge < 0) -1 else edges[edge]
+        }
+
+        override fun distanceSquared(item: Int, x: Double, y: Double) = edgeDistanceSquared(edges[item], x, y)
+
+        val sizeBytes get() = edges.size * Int.SIZE_BYTES.toLong() + tree.sizeBytes + OBJECT_OVERHEAD_BYTES
+    }
+
+    /**
+     * Find the nearest point on any of the region's rings, measuring distances in degrees as though latitude and
+     * longitude were planar coordinates, which is how locations are tested against the region. When several points are equally near, the one on the earliest edge in ring order is chosen, as Esri's
+     * `GeometryEngine.getNearestCoordinate` does.
+     *
+     * @param maxDistance Points further away than this are ignored, which makes the search faster.
+     * @return The nearest point, or null if there is none within [maxDistance].
+     */
+    fun nearestBoundaryPoint(x: Double, y: Double, maxDistance: Double): Point2D? {
+        val i = boundaryIndex.nearestEdge(x, y, maxDistance)
+        if (i < 0) return null
+
+        val t = segmentProjection(x, y, coordinate(i), coordinate(i + 1), coordinate(i + 2), coordinate(i + 3))
+
+        return Point2D(coordinate(i) + t * (coordinate(i + 2) - coordinate(i)),
+                coordinate(i + 1) + t * (coordinate(i + 3) - coordinate(i + 1)))
+    }
+
+    /** The region's extents, which are empty if the region is. */
+    val envelope get() = Envelope2D(xMin, yMin, xMax, yMax)
+
+    /** Whether [envelope] contains the location, inclusive of its edges, without creating it. */
+    fun envelopeContains(x: Double, y: Double) = x >= xMin && x <= xMax && y >= yMin && y <= yMax
+
+    /**
+     * An estimate of the memory this takes, in bytes, counting its arrays and their headers. This grows once the
+     * boundary index is built by a distance query, for as long as it's held.
+     */
+    val sizeBytes: Long
+        get() = (floatCoordinates?.size ?: 0) * Float.SIZE_BYTES.toLong() +
+                doubleCoordinates.size * Double.SIZE_BYTES.toLong() +
+                (ringStarts.size + (bandOffsets?.size ?: 0) + bandEdges.size) * Int.SIZE_BYTES.toLong() +
+                OBJECT_OVERHEAD_BYTES + generalizations.sumOf { it.sizeBytes } +
+                (builtBoundaryIndex?.get()?.sizeBytes ?: 0L)
+
+    /** Build an Esri polygon with the same rings as the one this was created from. */
+    fun toPolygon() = Polygon().apply {
+        for (ring in 0 until ringStarts.size - 1) {
+            val start = ringStarts[ring] * 2
+            startPath(coordinate(start), coordinate(start + 1))
+            // Leave out the repeated first vertex, which the polygon closes the ring with by itself.
+            var i = start + 2
+            while (i < (ringStarts[ring + 1] - 1) * 2) {
+                lineTo(coordinate(i), coordinate(i + 1))
+                i += 2
+            }
+        }
+    }
+
+    /** Write the arrays this is made of to a snapshot, which [read] restores them from as they are. */
+    fun write(snapshot: SnapshotWriter) {
+        snapshot.writeFloats(floatCoordinates)
+        snapshot.writeDoubles(doubleCoordinates)
+        snapshot.writeInts(ringStarts)
+        snapshot.writeDouble(xMin)
+        snapshot.writeDouble(yMin)
+        snapshot.writeDouble(xMax)
+        snapshot.writeDouble(yMax)
+        snapshot.writeDouble(bandScale)
+        snapshot.writeInts(bandOffsets)
+        snapshot.writeInts(bandEdges)
+        snapshot.writeDouble(maxDeviation)
+        snapshot.writeInt(generalizations.size)
+        generalizations.forEach { it.write(snapshot) }
+    }
+
+    /**
+     * Regions are equal when their rings are, regardless of how they're stored or bucketed, or what generalizations
+     * they have.
+     */
+    override fun equals(other: Any?) = other is FlatRegion && ringStarts.contentEquals(other.ringStarts) &&
+            (0 until ringStarts.last() * 2).all { coordinate(it).toBits() == other.coordinate(it).toBits() }
+
+    override fun hashCode() = (0 until ringStarts.last() * 2).fold(ringStarts.contentHashCode()) { hash, i ->
+        hash * 31 + coordinate(i).toBits().hashCode()
+    }
+
+    /** Relate a location to the edge starting at position [i], as [relateSegment] does. */
+    private fun relateEdge(i: Int, x: Double, y: Double, tolerance: Double) =
+            relateSegment(x, y, coordinate(i), coordinate(i + 1), coordinate(i + 2), coordinate(i + 3), tolerance)
+
+    /**
+     * Visit every band each edge comes within [padding] of. Without [edges] this only counts each band's edges into the
+     * entry after it in [offsets], otherwise the edges are stored at each band's offset, which is advanced.
+     */
+    private fun bucketEdges(bandCount: Int, padding: Double, offsets: IntArray, edges: IntArray?) {
+        for (ring in 0 until ringStarts.size - 1) {
+            for (vertex in ringStarts[ring] until ringStarts[ring + 1] - 1) {
+                val i = vertex * 2
+                var band = bandOf(minOf(coordinate(i + 1), coordinate(i + 3)) - padding, bandCount)
+                val lastBand = bandOf(maxOf(coordinate(i + 1), coordinate(i + 3)) + padding, bandCount)
+                do {
+                    if (edges == null) offsets[band + 1]++ else edges[offsets[band]++] = i
+                } while (++band <= lastBand)
+            }
+        }
+    }
+
+    /** Whether the edge starting at position [i] touches the rectangle. */
+    private fun edgeTouches(i: Int, left: Double, bottom: Double, right: Double, top: Double): Boolean {
+        val x1 = coordinate(i)
+        val y1 = coordinate(i + 1)
+        val x2 = coordinate(i + 2)
+        val y2 = coordinate(i + 3)
+        if (maxOf(x1, x2) < left || minOf(x1, x2) > right || maxOf(y1, y2) < bottom || minOf(y1, y2) > top) return false
+
+        // The extents overlap, so the edge touches the rectangle unless all of the rectangle's corners are strictly on
+        // the same side of the line through the edge.
+        val dx = x2 - x1
+        val dy = y2 - y1
+        val bottomLeft = dx * (bottom - y1) - dy * (left - x1)
+        val bottomRight = dx * (bottom - y1) - dy * (right - x1)
+        val topLeft = dx * (top - y1) - dy * (left - x1)
+        val topRight = dx * (top - y1) - dy * (right - x1)
+
+        return minOf(minOf(bottomLeft, bottomRight), minOf(topLeft, topRight)) <= 0 &&
+                maxOf(maxOf(bottomLeft, bottomRight), maxOf(topLeft, topRight)) >= 0
+    }
+
+    /** The coordinate at position [i], where an edge's position is that of its first vertex's x. */
+    private fun coordinate(i: Int) =
+            if (floatCoordinates != null) floatCoordinates[i].toDouble() else doubleCoordinates[i]
+
+    private fun bandOf(y: Double, bandCount: Int) = ((y - yMin) * bandScale).toInt().coerceIn(0, bandCount - 1)
+
+    /** The [esriTolerance] for locations in the rectangle, which for a single location has no width or height. */
+    private fun tolerance(left: Double, bottom: Double, right: Double = left, top: Double = bottom) =
+            esriTolerance(minOf(xMin, left), minOf(yMin, bottom), maxOf(xMax, right), maxOf(yMax, top))
+
+    private fun edgeDistanceSquared(i: Int, x: Double, y: Double) =
+            segmentDistanceSquared(x, y, coordinate(i), coordinate(i + 1), coordinate(i + 2), coordinate(i + 3))
+
+    companion object {
+        /** Every location in the rectangle is in the region. */
+        const val INSIDE = 1
+
+        /** No location in the rectangle is in the region. */
+        const val OUTSIDE = 0
+
+        /** The region's boundary passes through, or very close to, the rectangle. */
+        const val CROSSES = -1
+
+        private val SPATIAL_REFERENCE_TOLERANCE = SPATIAL_REFERENCE.tolerance
+        private const val DOUBLE_EPSILON = 2.220446049250313E-16
+
+        /** The result of [relateSegment] for a location on the segment. */
+        const val BOUNDARY = -1
+
+        /** Aim for this many edges per latitude band, on average, before accounting for edges spanning bands. */
+        private const val EDGES_PER_BAND = 4
+
+        /** Roughly the headers of the object and its six arrays, along with its other fields. */
+        private const val OBJECT_OVERHEAD_BYTES = 144L
+
+        /**
+         * Widens the band around a generalization's rings that it can't answer for, well beyond any rounding in
+         * measuring distances and any snapping when the region was clipped.
+         */
+        const val GENERALIZATION_MARGIN = 1e-9
+
+        /** Restore a region written by [write], without examining its rings. */
+        fun read(snapshot: SnapshotReader) = FlatRegion(null, 0, snapshot, 0.0, emptyList())
+
+        /**
+         * Create a generalization of a region, to pass along with the region when creating it.
+         *
+         * @param maxDeviation How far, in degrees, any point on the generalization's rings may be from the region's
+         * rings, and any point on the region's rings may be from the generalization's.
+         */
+        fun generalization(region: Polygon, maxDeviation: Double, edgeBucketVertexThreshold: Int) =
+                FlatRegion(region, edgeBucketVertexThreshold, null, maxDeviation, emptyList())
+
+        /**
+         * The distance within which Esri's relational operators consider a location to be on the boundary. It's derived
+         * from the spatial reference, or failing that (as with [SPATIAL_REFERENCE], which has no tolerance of its own)
+         * from the magnitude of the coordinates in the envelope covering both the region and the location. For a
+         * rectangle, this is the largest tolerance of any location in it.
+         */
+        fun esriTolerance(xMin: Double, yMin: Double, xMax: Double, yMax: Double) = maxOf(SPATIAL_REFERENCE_TOLERANCE,
+                (abs(xMin) + abs(xMax) + abs(yMin) + abs(yMax) + 1) * DOUBLE_EPSILON * 100)
+
+        /**
+         * Relate a location to the segment from (x1, y1) to (x2, y2), an edge of a ring, as the alternate fill rule
+         * does.
+         *
+         * @return [BOUNDARY] if the location is within [tolerance] of the segment, otherwise 1 if a ray cast from the
+         * location towards positive x crosses the segment, or 0 if it doesn't.
+         */
+        fun relateSegment(x: Double, y: Double, x1: Double, y1: Double, x2: Double, y2: Double,
+                tolerance: Double): Int {
+            if (isNearSegment(x, y, x1, y1, x2, y2, tolerance)) return BOUNDARY
+
+            // Half-open in y so that a ray passing exactly through a vertex counts it once. Locations this close to an
+            // edge were already accepted as boundary, so rounding here can't change the answer.
+            return if ((y1 > y) != (y2 > y) && x < x1 + (y - y1) / (y2 - y1) * (x2 - x1)) 1 else 0
+        }
+
+        private fun isNearSegment(x: Double, y: Double, x1: Double, y1: Double, x2: Double, y2: Double,
+                tolerance: Double): Boolean {
+            if (x < minOf(x1, x2) - tolerance || x > maxOf(x1, x2) + tolerance ||
+                    y < minOf(y1, y2) - tolerance || y > maxOf(y1, y2) + tolerance) {
+                return false
+            }
+
+            return segmentDistanceSquared(x, y, x1, y1, x2, y2) <= tolerance * tolerance
+        }
+
+        private fun segmentDistanceSquared(x: Double, y: Double, x1: Double, y1: Double, x2: Double,
+                y2: Double): Double {
+            val t = segmentProjection(x, y, x1, y1, x2, y2)
+            val distanceX = x - (x1 + t * (x2 - x1))
+            val distanceY = y - (y1 + t * (y2 - y1))
+
+            return distanceX * distanceX + distanceY * distanceY
+        }
+
+        /**
+         * How far along the segment, from 0 at its start to 1 at its end, the point on it nearest to the location is.
+         */
+        private fun segmentProjection(x: Double, y: Double, x1: Double, y1: Double, x2: Double, y2: Double): Double {
+            val dx = x2 - x1
+            val dy = y2 - y1
+            val lengthSquared = dx * dx + dy * dy
+
+            if (lengthSquared == 0.0) return 0.0
+
+            return (((x - x1) * dx + (y - y1) * dy) / lengthSquared).coerceIn(0.0, 1.0)
+        }
+    }
+}
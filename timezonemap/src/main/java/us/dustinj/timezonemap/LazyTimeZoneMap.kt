@@ -0,0 +1,131 @@
+package us.dustinj.timezonemap
+
+import com.esri.core.geometry.Envelope2D
+import us.dustinj.timezonemap.TimeZoneMap.Companion.readArchive
+import us.dustinj.timezonemap.data.getDataInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * A map that puts off deserializing each time zone until a lookup first lands within its extents, for processes that
+ * only look up locations in a few parts of the world, or that need their first answer quickly. Initializing only
+ * reads the archive and keeps each time zone still serialized, which takes milliseconds for a small region and well
+ * under a second for the whole world, rather than the seconds [TimeZoneMap.forRegion] spends deserializing and
+ * indexing every time zone.
+ *
+ * The answers are the same as those of a [TimeZoneMap] initialized for the same region, including the clipping of
+ * time zones to that region. Lookups in a time zone that's already deserialized aren't as fast as a [TimeZoneMap]'s,
+ * as there's no cell index, and serialized time zones take about as much memory as they do in the archive.
+ *
+ * Instances are safe to use from multiple threads. Each time zone is deserialized at most once, by the first lookup
+ * to need it, while any other lookups needing it wait.
+ */
+class LazyTimeZoneMap private constructor(
+        /** See [TimeZoneMap.mapVersion]. */
+        val mapVersion: String?,
+        /** See [TimeZoneMap.initializedRegion]. */
+        val initializedRegion: Envelope2D,
+        entries: List<TimeZoneMap.ArchiveEntry>) {
+
+    /**
+     * A time zone deserialized from its entry, clipped to the initialized region, or null if none of it is within the
+     * region, along with the area used to order overlapping time zones.
+     */
+    private class Decoded(val area: Double, val timeZone: TimeZone?)
+
+    private val decodedCount = AtomicInteger()
+
+    /** Each entry's time zone, which lets go of the serialized time zone once it's been deserialized. */
+    private val timeZones = entries.map { entry ->
+        lazy {
+            val timeZone = decodeToEsri(entry.serializedTimeZone)
+            val region = TimeZoneMap.ExtentsAndRegion(timeZone.timeZoneId, timeZone.region, timeZone.generalizations)
+            decodedCount.incrementAndGet()
+            Decoded(region.area, region.clip(initializedRegion, TimeZoneMapOptions()))
+        }
+    }
+
+    private val index = PackedRTree(entries.map { it.extents })
+    private val anyEntry = PackedRTree.ItemPredicate { _, _, _ -> true }
+
+    /** The number of time zones in the map, deserialized or not. */
+    val timeZoneCount: Int get() = timeZones.size
+
+    /** The number of time zones that have been deserialized so far. */
+    val deserializedCount: Int get() = decodedCount.get()
+
+    /**
+     * Equivalent to [TimeZoneMap.getOverlappingTimeZone].
+     *
+     * @throws IllegalArgumentException If the provided coordinates are outside of the area this map was initialized
+     * for.
+     */
+    fun getOverlappingTimeZone(degreesLatitude: Double, degreesLongitude: Double): TimeZone? =
+            getOverlappingTimeZones(degreesLatitude, degreesLongitude).firstOrNull()
+
+    /**
+     * Equivalent to [TimeZoneMap.getOverlappingTimeZones].
+     *
+     * @throws IllegalArgumentException If the provided coordinates are outside of the area this map was initialized
+     * for.
+     */
+    fun getOverlappingTimeZones(degreesLatitude: Double, degreesLongitude: Double): List<TimeZone> {
+        require(initializedRegion.contains(degreesLongitude, degreesLatitude)) {
+            "Requested point is outside the initialized area"
+        }
+
+        // Entries are in archive order, so ordering by area alone breaks ties the same way as TimeZoneMap does.
+        return index.allContaining(degreesLongitude, degreesLatitude, anyEntry)
+                .map { timeZones[it].value }
+                .sortedBy { it.area }
+                .mapNotNull { decoded ->
+                    decoded.timeZone?.takeIf { it.flatRegion.containsInclusive(degreesLongitude, degreesLatitude) }
+                }
+    }
+
+    companion object {
+        /** Equivalent to [TimeZoneMap.forEverywhere], but deserializing time zones only when they're needed. */
+        @JvmStatic
+        fun forEverywhere() = forRegion(-90.0, -180.0, 90.0, 180.0)
+
+        /**
+         * Equivalent to [TimeZoneMap.forRegion] using the default map data, but deserializing time zones only when
+         * they're needed.
+         *
+         * @throws IllegalArgumentException If minimum values aren't less than maximum values.
+         */
+        @JvmStatic
+        fun forRegion(minDegreesLatitude: Double, minDegreesLongitude: Double,
+                maxDegreesLatitude: Double, maxDegreesLongitude: Double): LazyTimeZoneMap {
+            try {
+                getDataInputStream().use { inputStream ->
+                    return forRegion(inputStream, minDegreesLatitude, minDegreesLongitude,
+                            maxDegreesLatitude, maxDegreesLongitude)
+                }
+            } catch (e: IOException) {
+                throw IllegalStateException("Unable to read time zone data resource file", e)
+            }
+        }
+
+        /**
+         * Equivalent to [TimeZoneMap.forRegion] reading from the provided tar archive, but deserializing time zones
+         * only when they're needed.
+         *
+         * @throws IllegalArgumentException If minimum values aren't less than maximum values.
+         */
+        @JvmStatic
+        fun forRegion(tarInputStream: InputStream?,
+                minDegreesLatitude: Double, minDegreesLongitude: Double,
+                maxDegreesLatitude: Double, maxDegreesLongitude: Double): LazyTimeZoneMap {
+            require(minDegreesLatitude < maxDegreesLatitude) { "Minimum latitude must be less than maximum latitude" }
+            require(minDegreesLongitude < maxDegreesLongitude) { "Minimum longitude must be less than maximum longitude" }
+
+            val indexAreaEnvelope =
+                    Envelope2D(minDegreesLongitude, minDegreesLatitude, maxDegreesLongitude, maxDegreesLatitude)
+            val (mapVersion, entries) = readArchive(tarInputStream, indexAreaEnvelope) { it.toList() }
+
+            return LazyTimeZoneMap(mapVersion, indexAreaEnvelope, entries)
+        }
+    }
+}
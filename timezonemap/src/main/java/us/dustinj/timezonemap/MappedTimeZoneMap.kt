@@ -0,0 +1,320 @@
+package us.dustinj.timezonemap
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import us.dustinj.timezonemap.FlatRegion.Companion.BOUNDARY
+import us.dustinj.timezonemap.FlatRegion.Companion.GENERALIZATION_MARGIN
+import us.dustinj.timezonemap.FlatRegion.Companion.esriTolerance
+import us.dustinj.timezonemap.FlatRegion.Companion.relateSegment
+import us.dustinj.timezonemap.TimeZoneMap.ArchiveEntry
+import us.dustinj.timezonemap.TimeZoneMap.Companion.archiveVersion
+import us.dustinj.timezonemap.TimeZoneMap.Companion.entryExtents
+import us.dustinj.timezonemap.TimeZoneMap.Companion.entryMetadata
+import us.dustinj.timezonemap.TimeZoneMap.Companion.envelopeExtents
+import us.dustinj.timezonemap.TimeZoneMap.Companion.requireEntryCount
+import us.dustinj.timezonemap.serialization.CELL_INDEX_ENTRY_NAME
+import us.dustinj.timezonemap.serialization.ENTRY_METADATA_ENTRY_NAME
+import us.dustinj.timezonemap.serialization.EntryMetadata
+import us.dustinj.timezonemap.serialization.RingReader
+import us.dustinj.timezonemap.serialization.deserializeEntryMetadata
+import us.dustinj.timezonemap.serialization.flatbuffer.Generalization
+import us.dustinj.timezonemap.serialization.flatbuffer.Point
+import us.dustinj.timezonemap.serialization.flatbuffer.Polygon
+import us.dustinj.timezonemap.serialization.flatbuffer.Ring
+import us.dustinj.timezonemap.serialization.flatbuffer.TimeZone as SerializedTimeZone
+import java.io.IOException
+import java.nio.ByteOrder
+import java.nio.channels.FileChannel
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption
+
+/**
+ * Looks up time zones directly in an uncompressed map archive file, such as the `uncompressed` output of the builder,
+ * or the bundled archive once decompressed with `Files.copy(getDataInputStream(), path)`. The file is memory mapped
+ * and each time zone's region is read in place from its serialized form whenever a lookup needs it, so nothing but the
+ * names, extents and, if the archive has entry metadata, areas of the time zones is ever on the heap. Opening a map
+ * only reads the archive's entry headers and entry metadata, which makes it nearly instant, and every process mapping
+ * the same file shares a single copy of it in the operating system's page cache.
+ *
+ * The answers are the same as those of a [TimeZoneMap] from [TimeZoneMap.forEverywhere] with the same archive, but
+ * only identifiers are returned, since returning a [TimeZone] would mean deserializing its region. The price is lookup
+ * speed: a lookup first tries the generalizations of each time zone whose extents contain the location, and otherwise
+ * examines the edges of every ring whose extents, stored in archives of format 2 on, are near the location, reusing
+ * the same flat buffer accessors on each thread. It's still far slower than the microsecond or so of a [TimeZoneMap].
+ *
+ * Instances are safe to use from multiple threads.
+ */
+class MappedTimeZoneMap private constructor(
+        /** See [TimeZoneMap.mapVersion]. */
+        val mapVersion: String,
+        /** Each time zone's entry in the archive, with its serialized time zone in place in the mapping. */
+        private val zones: List<ArchiveEntry>) {
+
+    private val index = PackedRTree(zones.map { it.extents })
+    private val threadAccessors = ThreadLocal.withInitial { Accessors() }
+    private val regionContains = PackedRTree.ItemPredicate { i, x, y -> containsInclusive(zones[i], x, y) }
+
+    /**
+     * Equivalent to [TimeZoneMap.getOverlappingTimeZone], but only identifying the time zone.
+     *
+     * @throws IllegalArgumentException If the provided coordinates aren't a valid location.
+     */
+    fun getOverlappingTimeZoneId(degreesLatitude: Double, degreesLongitude: Double): String? =
+            getOverlappingZones(degreesLatitude, degreesLongitude).firstOrNull()?.let { zones[it].zoneId }
+
+    /**
+     * Equivalent to [TimeZoneMap.getOverlappingTimeZones], but only identifying the time zones.
+     *
+     * @throws IllegalArgumentException If the provided coordinates aren't a valid location.
+     */
+    fun getOverlappingTimeZoneIds(degreesLatitude: Double, degreesLongitude: Double): List<String> =
+            getOverlappingZones(degreesLatitude, degreesLongitude).map { zones[it].zoneId }
+
+    /** @return The zones containing the location, in the order of [TimeZoneMap.timeZones]. */
+    private fun getOverlappingZones(degreesLatitude: Double, degreesLongitude: Double): List<Int> {
+        require(degreesLatitude in -90.0..90.0 && degreesLongitude in -180.0..180.0) {
+            "Requested point is outside the initialized area"
+        }
+
+        val matches = index.allContaining(degreesLongitude, degreesLatitude, regionContains)
+        // Only overlapping time zones, which are rare, need their areas to be put in order. Archives with entry
+        // metadata know them up front.
+        if (matches.size < 2) return matches.asList()
+
+        return matches.map { it to (zones[it].area ?: area(zones[it])) }.sortedBy { it.second }.map { it.first }
+    }
+
+    /**
+     * Equivalent to [FlatRegion.containsInclusive] for the zone's region, with the same tolerance. As there, the
+     * archive's generalizations of the region, coarsest first, answer for locations far enough from their rings, and
+     * only the other locations are tested against the region itself.
+     */
+    private fun containsInclusive(zone: ArchiveEntry, x: Double, y: Double): Boolean {
+        val tolerance = esriTolerance(minOf(zone.extents.xmin, x), minOf(zone.extents.ymin, y),
+                maxOf(zone.extents.xmax, x), maxOf(zone.extents.ymax, y))
+        val accessors = threadAccessors.get()
+        val timeZone = SerializedTimeZone.getRootAsTimeZone(zone.serializedTimeZone, accessors.timeZone)
+
+        // The index only offers zones whose extents contain the location, which is where generalizations answer.
+        for (g in 0 until timeZone.generalizationsLength()) {
+            val generalization = timeZone.generalizations(accessors.generalization, g)
+            val relation = accessors.locate(generalization, x, y,
+                    generalization.maxDeviation() + tolerance + GENERALIZATION_MARGIN)
+            if (relation != BOUNDARY) return relation == 1
+        }
+
+        return accessors.locate(null, x, y, tolerance) != 0
+    }
+
+    /** The zone's area, with the same sign convention as Esri's `calculateArea2D`, for which holes are negative. */
+    private fun area(zone: ArchiveEntry): Double {
+        val accessors = threadAccessors.get()
+        SerializedTimeZone.getRootAsTimeZone(zone.serializedTimeZone, accessors.timeZone)
+        var doubleArea = 0.0
+        accessors.forEachEdge(null) { x1, y1, x2, y2 ->
+            doubleArea += x2 * y1 - x1 * y2
+            true
+        }
+
+        return doubleArea / 2
+    }
+
+    private fun interface EdgeVisitor {
+        /** @return Whether to go on to the next edge. */
+        fun visit(x1: Double, y1: Double, x2: Double, y2: Double): Boolean
+
+        /** @return Whether to visit the edges of the ring, which are otherwise skipped. */
+        fun visitsRing(ring: Ring) = true
+    }
+
+    /**
+     * The flat buffer accessors and ring reader a thread reads zones with, which are reused from one lookup to the
+     * next rather than created for every zone tested.
+     */
+    private class Accessors : EdgeVisitor {
+        /** The zone being read, which the methods below read the rings of. */
+        val timeZone = SerializedTimeZone()
+        val generalization = Generalization()
+        private val polygon = Polygon()
+        private val ring = Ring()
+        private val points = Point.Vector()
+        private val point = Point()
+        private val lowerLeftCorner = Point()
+        private val upperRightCorner = Point()
+        private val reader = RingReader()
+        private val pointVertices = object : RingVertices {
+            override fun x(i: Int) = points.get(point, i).longitude().toDouble()
+            override fun y(i: Int) = points.get(point, i).latitude().toDouble()
+        }
+        private val decodedVertices = object : RingVertices {
+            override fun x(i: Int) = reader.coordinates[i * 2 + 1].toDouble()
+            override fun y(i: Int) = reader.coordinates[i * 2].toDouble()
+        }
+
+        // The location being related to the rings by locate, which is the edge visitor it uses.
+        private var x = 0.0
+        private var y = 0.0
+        private var tolerance = 0.0
+        private var crossings = 0
+
+        /**
+         * Relate a location to the rings of a generalization of [timeZone], or of its region if [generalization] is
+         * null, as [FlatRegion] does.
+         *
+         * @return [BOUNDARY] if the location is within [tolerance] of the rings, otherwise 1 if it's inside them by
+         * the alternate fill rule, or 0 if it isn't.
+         */
+        fun locate(generalization: Generalization?, x: Double, y: Double, tolerance: Double): Int {
+            this.x = x
+            this.y = y
+            this.tolerance = tolerance
+            crossings = 0
+
+            return if (forEachEdge(generalization, this)) crossings % 2 else BOUNDARY
+        }
+
+        override fun visit(x1: Double, y1: Double, x2: Double, y2: Double): Boolean {
+            val relation = relateSegment(x, y, x1, y1, x2, y2, tolerance)
+            crossings += relation
+
+            return relation != BOUNDARY
+        }
+
+        /**
+         * A location further than the tolerance from a ring's extents is nowhere near its edges, and a ray cast from
+         * it crosses the ring an even number of times, so only rings whose extents are near the location matter.
+         */
+        override fun visitsRing(ring: Ring): Boolean {
+            // Rings from archives of format 1 don't have their extents stored, and later ones store both corners.
+            val lowerLeft = ring.lowerLeftCorner(lowerLeftCorner) ?: return true
+            val upperRight = ring.upperRightCorner(upperRightCorner)
+
+            return x >= lowerLeft.longitude() - tolerance && x <= upperRight.longitude() + tolerance &&
+                    y >= lowerLeft.latitude() - tolerance && y <= upperRight.latitude() + tolerance
+        }
+
+        /**
+         * Visit every edge of every ring of a generalization of [timeZone], or of its region if [generalization] is
+         * null, apart from the rings the visitor skips, including the edge closing each ring. The vertices are read in
+         * place without copying them. Rings whose points are encoded rather than stored as floats can't be read in
+         * place, so they're decoded into an array first.
+         *
+         * @return False if the visitor stopped early, otherwise true.
+         */
+        fun forEachEdge(generalization: Generalization?, visitor: EdgeVisitor): Boolean {
+            val polygons = generalization?.regionsLength() ?: timeZone.regionsLength()
+            for (p in 0 until polygons) {
+                if (generalization != null) generalization.regions(polygon, p) else timeZone.regions(polygon, p)
+                for (r in 0 until polygon.ringsLength()) {
+                    polygon.rings(ring, r)
+                    if (!visitor.visitsRing(ring)) continue
+                    val finished = if (ring.encodedPointsLength() > 0) {
+                        reader.read(ring)
+                        forEachRingEdge(reader.pointCount, decodedVertices, visitor)
+                    } else {
+                        ring.pointsVector(points)
+                        forEachRingEdge(points.length(), pointVertices, visitor)
+                    }
+                    if (!finished) return false
+                }
+            }
+
+            return true
+        }
+    }
+
+    /** The vertices of the ring being visited, however its points are stored. */
+    private interface RingVertices {
+        fun x(i: Int): Double
+        fun y(i: Int): Double
+    }
+
+    companion object {
+        /**
+         * Map an uncompressed map archive file and read its table of contents. The file must not change while the map
+         * is in use.
+         *
+         * @throws IllegalArgumentException If the archive wasn't built for this version of the library, or its entry
+         * metadata doesn't match its time zone entries.
+         * @throws IOException If the file can't be read.
+         */
+        @JvmStatic
+        @Throws(IOException::class)
+        fun open(archive: Path): MappedTimeZoneMap = mapArchive(archive).let { (mapVersion, zones) ->
+            MappedTimeZoneMap(mapVersion ?: throw IllegalArgumentException("Empty map archive"), zones)
+        }
+
+        /**
+         * Map an uncompressed map archive file, leaving each time zone's serialized time zone in place in the mapping.
+         *
+         * @return The archive's map version, or null if the archive is empty, along with its non-empty entries in
+         * archive order.
+         * @throws IllegalArgumentException If the archive wasn't built for this version of the library, or its entry
+         * metadata doesn't match its time zone entries.
+         * @throws IOException If the file can't be read.
+         */
+        internal fun mapArchive(archive: Path): Pair<String?, List<ArchiveEntry>> {
+            // The mapping stays valid after the channel is closed.
+            val mapping = FileChannel.open(archive, StandardOpenOption.READ).use {
+                it.map(FileChannel.MapMode.READ_ONLY, 0, it.size())
+            }
+            val reader = mapping.duplicate()
+            val tar = TarArchiveInputStream(ByteBufferInputStream(reader))
+            val version = archiveVersion(tar.nextTarEntry ?: return Pair(null, emptyList()))
+            // The reader is left just after an entry's header, which is where its contents start.
+            val contents = { entry: TarArchiveEntry ->
+                mapping.duplicate()
+                        .apply {
+                            position(reader.position())
+                            limit(reader.position() + entry.size.toInt())
+                        }
+                        .slice()
+            }
+            var metadata: List<EntryMetadata>? = null
+            val entries = generateSequence { tar.nextTarEntry }
+                    .filter { it.size > 0 }
+                    .filter { entry ->
+                        when {
+                            !version.hasIndexEntries -> true
+                            entry.name == CELL_INDEX_ENTRY_NAME -> false
+                            entry.name == ENTRY_METADATA_ENTRY_NAME -> {
+                                metadata = deserializeEntryMetadata(contents(entry))
+                                false
+                            }
+                            else -> true
+                        }
+                    }
+                    .mapIndexed { number, entry ->
+                        val zoneId = entry.name.substringBeforeLast("/")
+                        val entryMetadata = entryMetadata(metadata, number, zoneId)
+                        val extents = if (entryMetadata != null) {
+                            envelopeExtents(entryMetadata.envelope)
+                        } else {
+                            entryExtents(entry)
+                        }
+                        // Already in the byte order flat buffers read, so that reading a zone never changes it.
+                        ArchiveEntry(zoneId, extents, contents(entry).order(ByteOrder.LITTLE_ENDIAN), number,
+                                entryMetadata?.area)
+                    }
+                    .toList()
+            requireEntryCount(metadata, entries.size)
+
+            return Pair(version.mapVersion, entries)
+        }
+
+        private fun forEachRingEdge(pointCount: Int, vertices: RingVertices, visitor: EdgeVisitor): Boolean {
+            // Start from the last vertex, so that the first edge is the one closing the ring.
+            var x1 = vertices.x(pointCount - 1)
+            var y1 = vertices.y(pointCount - 1)
+            for (i in 0 until pointCount) {
+                val x2 = vertices.x(i)
+                val y2 = vertices.y(i)
+                if (!visitor.visit(x1, y1, x2, y2)) return false
+                x1 = x2
+                y1 = y2
+            }
+
+            return true
+        }
+    }
+}
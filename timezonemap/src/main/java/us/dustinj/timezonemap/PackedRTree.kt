@@ -0,0 +1,303 @@
+package us.dustinj.timezonemap
+
+import com.esri.core.geometry.Envelope2D
+
+/**
+ * A static R-tree over a fixed list of envelopes, bulk loaded by sorting the envelopes along a Hilbert curve and then
+ * packing consecutive runs into nodes. Items are identified by their position in the list the tree was built from.
+ * Every node tracks the smallest item beneath it so that a search for the smallest matching item can skip branches
+ * that can't improve on the best match found so far.
+ *
+ * Nodes are stored level by level in flat primitive arrays. The first [size] entries are the leaves (one per item, in
+ * Hilbert order), followed by each level of parent nodes, with the root last.
+ */
+internal class PackedRTree(envelopes: List<Envelope2D>, nodeCapacity: Int = DEFAULT_NODE_CAPACITY) {
+    /** Decides whether an item whose envelope contains the searched location is an actual match. */
+    fun interface ItemPredicate {
+        fun test(item: Int, x: Double, y: Double): Boolean
+    }
+
+    /** Measures how far a location is from an item, which can be no closer than the item's envelope. */
+    fun interface ItemDistance {
+        fun distanceSquared(item: Int, x: Double, y: Double): Double
+    }
+
+    val size = envelopes.size
+
+    /** An estimate of the memory this takes, in bytes, counting its arrays. */
+    val sizeBytes get() = xMin.size * (4L * Double.SIZE_BYTES + 3L * Int.SIZE_BYTES)
+
+    private val xMin: DoubleArray
+    private val yMin: DoubleArray
+    private val xMax: DoubleArray
+    private val yMax: DoubleArray
+
+    /** For leaves, the item index. For parents, the position of the first child. */
+    private val firstChild: IntArray
+
+    /** For parents, one past the position of the last child. Unused for leaves. */
+    private val endChild: IntArray
+
+    /** The smallest item index anywhere beneath a node. */
+    private val minItem: IntArray
+
+    init {
+        require(nodeCapacity >= 2) { "Node capacity must be at least 2" }
+
+        var nodeCount = size
+        var levelSize = size
+        while (levelSize > 1) {
+            levelSize = (levelSize + nodeCapacity - 1) / nodeCapacity
+            nodeCount += levelSize
+        }
+
+        xMin = DoubleArray(nodeCount)
+        yMin = DoubleArray(nodeCount)
+        xMax = DoubleArray(nodeCount)
+        yMax = DoubleArray(nodeCount)
+        firstChild = IntArray(nodeCount)
+        endChild = IntArray(nodeCount)
+        minItem = IntArray(nodeCount)
+
+        hilbertOrder(envelopes).forEachIndexed { node, item ->
+            val envelope = envelopes[item]
+            xMin[node] = envelope.xmin
+            yMin[node] = envelope.ymin
+            xMax[node] = envelope.xmax
+            yMax[node] = envelope.ymax
+            firstChild[node] = item
+            minItem[node] = item
+        }
+
+        var levelStart = 0
+        var levelEnd = size
+        while (levelEnd - levelStart > 1) {
+            var parent = levelEnd
+            var childStart = levelStart
+            while (childStart < levelEnd) {
+                initializeParent(parent++, childStart, minOf(childStart + nodeCapacity, levelEnd))
+                childStart += nodeCapacity
+            }
+            levelStart = levelEnd
+            levelEnd = parent
+        }
+    }
+
+    private val root = xMin.size - 1
+
+    /**
+     * Find the smallest item whose envelope contains the location and that is accepted by the predicate.
+     *
+     * @return The item index, or -1 if there is no such item.
+     */
+    fun firstContaining(x: Double, y: Double, predicate: ItemPredicate): Int {
+        if (size == 0) return -1
+        val first = firstContaining(root, x, y, predicate, Int.MAX_VALUE)
+
+        return if (first == Int.MAX_VALUE) -1 else first
+    }
+
+    /**
+     * Find all items whose envelopes contain the location and that are accepted by the predicate.
+     *
+     * @return The matching item indexes in ascending order.
+     */
+    fun allContaining(x: Double, y: Double, predicate: ItemPredicate): IntArray {
+        val matches = mutableListOf<Int>()
+        if (size > 0) allContaining(root, x, y, predicate, matches)
+
+        return matches.toIntArray().apply { sort() }
+    }
+
+    /**
+     * Find all items whose envelopes intersect the envelope, inclusive of their edges.
+     *
+     * @return The matching item indexes in ascending order.
+     */
+    fun allIntersecting(envelope: Envelope2D): IntArray {
+        val matches = mutableListOf<Int>()
+        if (size > 0) allIntersecting(root, envelope, matches)
+
+        return matches.toIntArray().apply { sort() }
+    }
+
+    /**
+     * Find the item nearest to the location, searching branches nearest first and skipping any branch whose envelope is
+     * further away than the best item found so far. Ties go to the smallest item.
+     *
+     * @param maxDistance Items further away than this are ignored.
+     * @return The item index, or -1 if there is no item within [maxDistance].
+     */
+    fun nearest(x: Double, y: Double, maxDistance: Double, distance: ItemDistance): Int {
+        if (size == 0) return -1
+        val search = NearestSearch(x, y, maxDistance * maxDistance, distance)
+        search.visit(root)
+
+        return if (search.bestItem == Int.MAX_VALUE) -1 else search.bestItem
+    }
+
+    private inner class NearestSearch(private val x: Double, private val y: Double,
+            private var bestDistanceSquared: Double, private val distance: ItemDistance) {
+        var bestItem = Int.MAX_VALUE
+            private set
+
+        fun visit(node: Int) {
+            if (node < size) {
+                val item = firstChild[node]
+                val itemDistanceSquared = distance.distanceSquared(item, x, y)
+                if (isBetter(itemDistanceSquared, item)) {
+                    bestDistanceSquared = itemDistanceSquared
+                    bestItem = item
+                }
+                return
+            }
+
+            // Sort the children nearest first, so that the best item tends to be found early and prunes the rest.
+            val childCount = endChild[node] - firstChild[node]
+            val children = IntArray(childCount) { firstChild[node] + it }
+            val childDistances = DoubleArray(childCount) { boxDistanceSquared(firstChild[node] + it) }
+            var sorted = 1
+            while (sorted < childCount) {
+                val child = children[sorted]
+                val childDistance = childDistances[sorted]
+                var j = sorted++
+                while (j > 0 && childDistances[j - 1] > childDistance) {
+                    children[j] = children[j - 1]
+                    childDistances[j] = childDistances[j - 1]
+                    j--
+                }
+                children[j] = child
+                childDistances[j] = childDistance
+            }
+
+            children.forEachIndexed { i, child ->
+                if (isBetter(childDistances[i], minItem[child])) visit(child)
+            }
+        }
+
+        private fun isBetter(distanceSquared: Double, item: Int) = distanceSquared < bestDistanceSquared ||
+                distanceSquared == bestDistanceSquared && item < bestItem
+
+        /** Also never better than anything for an empty (NaN) node envelope. */
+        private fun boxDistanceSquared(node: Int): Double {
+            val dx = maxOf(xMin[node] - x, x - xMax[node], 0.0)
+            val dy = maxOf(yMin[node] - y, y - yMax[node], 0.0)
+
+            return dx * dx + dy * dy
+        }
+    }
+
+    private fun firstContaining(node: Int, x: Double, y: Double, predicate: ItemPredicate, bestSoFar: Int): Int {
+        if (minItem[node] >= bestSoFar || !contains(node, x, y)) return bestSoFar
+        if (node < size) return if (predicate.test(firstChild[node], x, y)) firstChild[node] else bestSoFar
+
+        var best = bestSoFar
+        for (child in firstChild[node] until endChild[node]) {
+            best = firstContaining(child, x, y, predicate, best)
+        }
+
+        return best
+    }
+
+    private fun allContaining(node: Int, x: Double, y: Double, predicate: ItemPredicate, matches: MutableList<Int>) {
+        if (!contains(node, x, y)) return
+        if (node < size) {
+            if (predicate.test(firstChild[node], x, y)) matches.add(firstChild[node])
+            return
+        }
+
+        for (child in firstChild[node] until endChild[node]) {
+            allContaining(child, x, y, predicate, matches)
+        }
+    }
+
+    private fun allIntersecting(node: Int, envelope: Envelope2D, matches: MutableList<Int>) {
+        // Written so that an empty (NaN) node envelope never intersects.
+        if (!(envelope.xmin <= xMax[node] && envelope.xmax >= xMin[node] &&
+                        envelope.ymin <= yMax[node] && envelope.ymax >= yMin[node])) {
+            return
+        }
+        if (node < size) {
+            matches.add(firstChild[node])
+            return
+        }
+
+        for (child in firstChild[node] until endChild[node]) {
+            allIntersecting(child, envelope, matches)
+        }
+    }
+
+    private fun contains(node: Int, x: Double, y: Double) =
+            x >= xMin[node] && x <= xMax[node] && y >= yMin[node] && y <= yMax[node]
+
+    private fun initializeParent(parent: Int, childStart: Int, childEnd: Int) {
+        firstChild[parent] = childStart
+        endChild[parent] = childEnd
+        xMin[parent] = Double.POSITIVE_INFINITY
+        yMin[parent] = Double.POSITIVE_INFINITY
+        xMax[parent] = Double.NEGATIVE_INFINITY
+        yMax[parent] = Double.NEGATIVE_INFINITY
+        minItem[parent] = Int.MAX_VALUE
+
+        for (child in childStart until childEnd) {
+            // Written so that an empty (NaN) child envelope doesn't poison its parent's bounds.
+            if (xMin[child] < xMin[parent]) xMin[parent] = xMin[child]
+            if (yMin[child] < yMin[parent]) yMin[parent] = yMin[child]
+            if (xMax[child] > xMax[parent]) xMax[parent] = xMax[child]
+            if (yMax[child] > yMax[parent]) yMax[parent] = yMax[child]
+            minItem[parent] = minOf(minItem[parent], minItem[child])
+        }
+    }
+
+    companion object {
+        const val DEFAULT_NODE_CAPACITY = 16
+
+        private const val HILBERT_ORDER = 16
+        const val HILBERT_MAX = (1 shl HILBERT_ORDER) - 1
+
+        private fun hilbertOrder(envelopes: List<Envelope2D>): List<Int> {
+            val bounds = Envelope2D().apply { setEmpty() }
+            envelopes.filterNot { it.isEmpty }.forEach { bounds.merge(it) }
+            val width = bounds.width.takeIf { it > 0 } ?: 1.0
+            val height = bounds.height.takeIf { it > 0 } ?: 1.0
+
+            return envelopes.indices.sortedBy { item ->
+                val envelope = envelopes[item]
+                if (envelope.isEmpty) {
+                    Long.MAX_VALUE
+                } else {
+                    hilbertIndex(((envelope.centerX - bounds.xmin) / width * HILBERT_MAX).toInt(),
+                            ((envelope.centerY - bounds.ymin) / height * HILBERT_MAX).toInt())
+                }
+            }
+        }
+
+        /**
+         * Position of the cell along a Hilbert curve filling a square grid with sides of [HILBERT_MAX] + 1 cells, such
+         * that cells close along the curve are close in space.
+         */
+        fun hilbertIndex(cellX: Int, cellY: Int): Long {
+            var x = cellX
+            var y = cellY
+            var index = 0L
+            var s = 1 shl (HILBERT_ORDER - 1)
+            while (s > 0) {
+                val rx = if (x and s > 0) 1 else 0
+                val ry = if (y and s > 0) 1 else 0
+                index += s.toLong() * s * ((3 * rx) xor ry)
+                if (ry == 0) {
+                    if (rx == 1) {
+                        x = HILBERT_MAX - x
+                        y = HILBERT_MAX - y
+                    }
+                    val t = x
+                    x = y
+                    y = t
+                }
+                s = s shr 1
+            }
+
+            return index
+        }
+    }
+}
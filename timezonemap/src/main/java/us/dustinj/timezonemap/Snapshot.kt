@@ -0,0 +1,207 @@
+package us.dustinj.timezonemap
+
+import java.io.IOException
+import java.nio.BufferUnderflowException
+import java.nio.ByteBuffer
+import java.nio.channels.WritableByteChannel
+import java.util.zip.CRC32
+
+/**
+ * Writes the values a map snapshot is made of to a channel, through a buffer. Arrays are copied into the buffer in
+ * bulk rather than one value at a time, and are preceded by their size, which is -1 for a missing array. The values
+ * are followed by a trailer holding their length in bytes, as a 64 bit integer, and their CRC32 checksum, so that a
+ * damaged snapshot is noticed before any of it is read.
+ */
+internal class SnapshotWriter(private val channel: WritableByteChannel) {
+    private val buffer = ByteBuffer.allocateDirect(BUFFER_BYTES)
+    private val checksum = CRC32()
+    private var length = 0L
+
+    @Throws(IOException::class)
+    fun writeInt(value: Int) {
+        ensureRemaining(Int.SIZE_BYTES)
+        buffer.putInt(value)
+    }
+
+    @Throws(IOException::class)
+    fun writeDouble(value: Double) {
+        ensureRemaining(Double.SIZE_BYTES)
+        buffer.putDouble(value)
+    }
+
+    /** Write a string, or null, as UTF-8. */
+    @Throws(IOException::class)
+    fun writeString(value: String?) {
+        val bytes = value?.toByteArray(Charsets.UTF_8)
+        writeInt(bytes?.size ?: -1)
+        if (bytes == null) return
+
+        var i = 0
+        while (i < bytes.size) {
+            ensureRemaining(1)
+            val count = minOf(buffer.remaining(), bytes.size - i)
+            buffer.put(bytes, i, count)
+            i += count
+        }
+    }
+
+    @Throws(IOException::class)
+    fun writeInts(values: IntArray?) {
+        writeInt(values?.size ?: -1)
+        if (values == null) return
+
+        var i = 0
+        while (i < values.size) {
+            ensureRemaining(Int.SIZE_BYTES)
+            val count = minOf(buffer.remaining() / Int.SIZE_BYTES, values.size - i)
+            buffer.asIntBuffer().put(values, i, count)
+            buffer.position(buffer.position() + count * Int.SIZE_BYTES)
+            i += count
+        }
+    }
+
+    @Throws(IOException::class)
+    fun writeFloats(values: FloatArray?) {
+        writeInt(values?.size ?: -1)
+        if (values == null) return
+
+        var i = 0
+        while (i < values.size) {
+            ensureRemaining(Float.SIZE_BYTES)
+            val count = minOf(buffer.remaining() / Float.SIZE_BYTES, values.size - i)
+            buffer.asFloatBuffer().put(values, i, count)
+            buffer.position(buffer.position() + count * Float.SIZE_BYTES)
+            i += count
+        }
+    }
+
+    @Throws(IOException::class)
+    fun writeDoubles(values: DoubleArray) {
+        writeInt(values.size)
+
+        var i = 0
+        while (i < values.size) {
+            ensureRemaining(Double.SIZE_BYTES)
+            val count = minOf(buffer.remaining() / Double.SIZE_BYTES, values.size - i)
+            buffer.asDoubleBuffer().put(values, i, count)
+            buffer.position(buffer.position() + count * Double.SIZE_BYTES)
+            i += count
+        }
+    }
+
+    /**
+     * Write out whatever is left in the buffer, followed by the trailer, which must be done once everything has been
+     * written.
+     */
+    @Throws(IOException::class)
+    fun finish() {
+        flush()
+        buffer.putLong(length)
+        buffer.putInt(checksum.value.toInt())
+        buffer.flip()
+        drain()
+    }
+
+    @Throws(IOException::class)
+    private fun flush() {
+        buffer.flip()
+        length += buffer.remaining()
+        checksum.update(buffer.duplicate())
+        drain()
+    }
+
+    /** Write the flipped buffer out to the channel and clear it. */
+    @Throws(IOException::class)
+    private fun drain() {
+        while (buffer.hasRemaining()) channel.write(buffer)
+        buffer.clear()
+    }
+
+    @Throws(IOException::class)
+    private fun ensureRemaining(bytes: Int) {
+        if (buffer.remaining() < bytes) flush()
+    }
+
+    companion object {
+        private const val BUFFER_BYTES = 1 shl 16
+        internal const val TRAILER_BYTES = Long.SIZE_BYTES + Int.SIZE_BYTES
+    }
+}
+
+/**
+ * Reads the values written by a [SnapshotWriter] from a buffer, such as a memory mapped snapshot file, copying arrays
+ * out in bulk.
+ *
+ * @throws BufferUnderflowException From any read if the snapshot ends before the value does.
+ * @throws IllegalArgumentException From reads of required values that were written as null.
+ */
+internal class SnapshotReader(private val buffer: ByteBuffer) {
+    fun readInt() = buffer.int
+
+    fun readDouble() = buffer.double
+
+    fun readString(): String? {
+        val size = readInt()
+        if (size < 0) return null
+
+        return String(ByteArray(checkSize(size, 1)).also { buffer.get(it) }, Charsets.UTF_8)
+    }
+
+    fun readInts(): IntArray? {
+        val size = readInt()
+        if (size < 0) return null
+
+        return IntArray(checkSize(size, Int.SIZE_BYTES)).also {
+            buffer.asIntBuffer().get(it)
+            buffer.position(buffer.position() + size * Int.SIZE_BYTES)
+        }
+    }
+
+    fun readFloats(): FloatArray? {
+        val size = readInt()
+        if (size < 0) return null
+
+        return FloatArray(checkSize(size, Float.SIZE_BYTES)).also {
+            buffer.asFloatBuffer().get(it)
+            buffer.position(buffer.position() + size * Float.SIZE_BYTES)
+        }
+    }
+
+    /** Read an array that was written as an array rather than null. */
+    fun readRequiredInts(): IntArray = requireNotNull(readInts()) { "Snapshot holds null where an array is required" }
+
+    fun readDoubles(): DoubleArray = DoubleArray(checkSize(readInt(), Double.SIZE_BYTES)).also {
+        buffer.asDoubleBuffer().get(it)
+        buffer.position(buffer.position() + it.size * Double.SIZE_BYTES)
+    }
+
+    /** Read the number of values that follow, each of which takes at least a byte. */
+    fun readCount() = checkSize(readInt(), 1)
+
+    /** Make sure the snapshot holds the values before allocating an array for them. */
+    private fun checkSize(size: Int, bytesPerValue: Int): Int {
+        if (size < 0 || size.toLong() * bytesPerValue > buffer.remaining()) throw BufferUnderflowException()
+
+        return size
+    }
+
+    companion object {
+        /**
+         * Start reading a snapshot once its trailer shows that it's all there, as it was written.
+         *
+         * @return The reader, which stops at the trailer, or null if the snapshot is damaged.
+         */
+        fun verify(snapshot: ByteBuffer): SnapshotReader? {
+            if (snapshot.remaining() < SnapshotWriter.TRAILER_BYTES) return null
+
+            val contents = snapshot.slice()
+            contents.limit(contents.limit() - SnapshotWriter.TRAILER_BYTES)
+            val trailer = snapshot.slice()
+            trailer.position(contents.limit())
+            val checksum = CRC32().also { it.update(contents.duplicate()) }
+            if (trailer.long != contents.remaining().toLong() || trailer.int != checksum.value.toInt()) return null
+
+            return SnapshotReader(contents)
+        }
+    }
+}
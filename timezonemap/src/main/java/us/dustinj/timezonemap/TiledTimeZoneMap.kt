@@ -0,0 +1,229 @@
+package us.dustinj.timezonemap
+
+import com.esri.core.geometry.Envelope2D
+import us.dustinj.timezonemap.TimeZoneMap.ArchiveEntry
+import us.dustinj.timezonemap.TimeZoneMap.Companion.clipTimeZones
+import us.dustinj.timezonemap.data.getDataInputStream
+import java.io.IOException
+import java.io.InputStream
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.atomic.AtomicLong
+import kotlin.math.ceil
+import kotlin.math.floor
+
+/**
+ * A map of the whole world that only keeps the parts of it in use, for processes that can't afford the memory of
+ * [TimeZoneMap.forEverywhere]. The world is divided into square tiles [tileSizeDegrees] on a side, and the first lookup
+ * in a tile builds a [TimeZoneMap] initialized for just that tile, from the time zones whose extents intersect it. Only
+ * the most recently used tiles are kept, up to [maximumTiles] of them and, as far as possible, no more than
+ * [maximumBytes] of time zone regions between them. The most recently used tile is always kept, even if it's larger
+ * than [maximumBytes] on its own. With the default 10 degree tiles, building a tile takes about 40ms and it keeps
+ * about 300KB of time zone regions, on average, so lookups that keep to a few areas are cheap while those spread
+ * evenly over the world spend most of their time building tiles.
+ *
+ * The answers are the same as those of a [TimeZoneMap] initialized for the location's tile, so the time zones returned
+ * are clipped to the tile. Their identifiers, and their order, are the same as for [TimeZoneMap.forEverywhere].
+ *
+ * The serialized time zones the tiles are built from stay in place in a memory mapped archive file, leaving only the
+ * tiles themselves on the heap. [forEverywhere] and [forArchive] first copy the uncompressed archive to a temporary
+ * file, which is deleted once it's mapped wherever the operating system allows, or otherwise when the JVM exits.
+ *
+ * Instances are safe to use from multiple threads. A tile is only ever built by one lookup at a time, while any other
+ * lookups needing it wait, and lookups in tiles that are already built don't wait on builds.
+ */
+class TiledTimeZoneMap private constructor(
+        /** See [TimeZoneMap.mapVersion]. */
+        val mapVersion: String?,
+        private val entries: List<ArchiveEntry>,
+        /** The width and height of each tile, in degrees. The tiles along the antimeridian and poles may be smaller. */
+        val tileSizeDegrees: Double,
+        /** The maximum number of tiles to keep. */
+        val maximumTiles: Int,
+        /** The number of bytes of time zone regions to try to keep the tiles within. */
+        val maximumBytes: Long,
+        /** The options each tile is built with. */
+        val options: TimeZoneMapOptions) {
+
+    init {
+        require(tileSizeDegrees in MIN_TILE_SIZE_DEGREES..MAX_TILE_SIZE_DEGREES) {
+            "Tile size must be between $MIN_TILE_SIZE_DEGREES and $MAX_TILE_SIZE_DEGREES degrees"
+        }
+        require(maximumTiles > 0) { "Maximum tiles must be positive" }
+        require(maximumBytes > 0) { "Maximum bytes must be positive" }
+    }
+
+    /** A tile in the cache, which is built by the first lookup to need it. */
+    private inner class Tile(private val envelope: Envelope2D) {
+        val map = lazy {
+            val candidates = entryIndex.allIntersecting(envelope).asSequence().map { entries[it] }
+            TimeZoneMap(mapVersion, clipTimeZones(candidates, envelope, options), envelope, options)
+                    .also { loads.incrementAndGet() }
+        }
+
+        /** The bytes counted in [residentBytes] for this tile, which is zero until it's built. Guarded by [tiles]. */
+        var bytes = 0L
+    }
+
+    private val entryIndex = PackedRTree(entries.map { it.extents })
+    private val rows = ceil(180 / tileSizeDegrees).toInt()
+    private val columns = ceil(360 / tileSizeDegrees).toInt()
+
+    /** The tiles in least recently used order. */
+    private val tiles = LinkedHashMap<Int, Tile>(16, 0.75f, true)
+
+    private val loads = AtomicLong()
+    private val evictions = AtomicLong()
+
+    @Volatile
+    private var totalBytes = 0L
+
+    /** The number of tiles that have been built, including any that were built again after being evicted. */
+    val tileLoadCount: Long get() = loads.get()
+
+    /** The number of tiles that have been evicted to stay within [maximumTiles] and [maximumBytes]. */
+    val evictionCount: Long get() = evictions.get()
+
+    /** An estimate of the memory, in bytes, used by the time zone regions of the tiles currently kept. */
+    val residentBytes: Long get() = totalBytes
+
+    /** The number of tiles currently kept, including any being built. */
+    val residentTileCount: Int get() = synchronized(tiles) { tiles.size }
+
+    /**
+     * Equivalent to [TimeZoneMap.getOverlappingTimeZone] on a map initialized for the location's tile.
+     *
+     * @throws IllegalArgumentException If the provided coordinates aren't a valid location.
+     */
+    fun getOverlappingTimeZone(degreesLatitude: Double, degreesLongitude: Double): TimeZone? =
+            getTile(degreesLatitude, degreesLongitude).getOverlappingTimeZone(degreesLatitude, degreesLongitude)
+
+    /**
+     * Equivalent to [TimeZoneMap.getOverlappingTimeZones] on a map initialized for the location's tile.
+     *
+     * @throws IllegalArgumentException If the provided coordinates aren't a valid location.
+     */
+    fun getOverlappingTimeZones(degreesLatitude: Double, degreesLongitude: Double): List<TimeZone> =
+            getTile(degreesLatitude, degreesLongitude).getOverlappingTimeZones(degreesLatitude, degreesLongitude)
+
+    private fun getTile(degreesLatitude: Double, degreesLongitude: Double): TimeZoneMap {
+        require(degreesLatitude in -90.0..90.0 && degreesLongitude in -180.0..180.0) {
+            "Requested point is outside the initialized area"
+        }
+
+        // The last row and column also take the locations on the far edge of the world.
+        val row = minOf(floor((degreesLatitude + 90) / tileSizeDegrees).toInt(), rows - 1)
+        val column = minOf(floor((degreesLongitude + 180) / tileSizeDegrees).toInt(), columns - 1)
+        val key = row * columns + column
+        val tile = synchronized(tiles) {
+            tiles.getOrPut(key) {
+                // Pad the tile a little, so that rounding can't leave out any location that's assigned to it.
+                val padding = tileSizeDegrees / TILE_PADDING_DIVISOR
+                Tile(Envelope2D(maxOf(column * tileSizeDegrees - 180 - padding, -180.0),
+                        maxOf(row * tileSizeDegrees - 90 - padding, -90.0),
+                        minOf((column + 1) * tileSizeDegrees - 180 + padding, 180.0),
+                        minOf((row + 1) * tileSizeDegrees - 90 + padding, 90.0)))
+            }.also { evict() }
+        }
+
+        // Built outside of the lock, so that only lookups needing this tile wait for it.
+        val map = tile.map.value
+        synchronized(tiles) {
+            // Only count tiles that haven't been evicted in the meantime, and only once.
+            if (tile.bytes == 0L && tiles[key] === tile) {
+                tile.bytes = map.regionBytes
+                totalBytes += tile.bytes
+                evict()
+            }
+        }
+
+        return map
+    }
+
+    /** Evict the least recently used tiles, other than the most recently used one, until within budget. */
+    private fun evict() {
+        val iterator = tiles.values.iterator()
+        while (tiles.size > 1 && (tiles.size > maximumTiles || totalBytes > maximumBytes)) {
+            val eldest = iterator.next()
+            iterator.remove()
+            totalBytes -= eldest.bytes
+            evictions.incrementAndGet()
+        }
+    }
+
+    companion object {
+        const val DEFAULT_TILE_SIZE_DEGREES = 10.0
+        const val DEFAULT_MAXIMUM_TILES = 64
+
+        /** Small enough for tiles of about 100m, while keeping the number of tiles well within an [Int]. */
+        const val MIN_TILE_SIZE_DEGREES = 0.001
+        const val MAX_TILE_SIZE_DEGREES = 180.0
+
+        private const val TILE_PADDING_DIVISOR = 1_000_000
+
+        /**
+         * Create a tiled map of the default map data.
+         *
+         * @throws IllegalArgumentException If the tile size or either maximum is out of range.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forEverywhere(tileSizeDegrees: Double = DEFAULT_TILE_SIZE_DEGREES,
+                maximumTiles: Int = DEFAULT_MAXIMUM_TILES, maximumBytes: Long = Long.MAX_VALUE,
+                options: TimeZoneMapOptions = TimeZoneMapOptions()): TiledTimeZoneMap {
+            try {
+                getDataInputStream().use { inputStream ->
+                    return forArchive(inputStream, tileSizeDegrees, maximumTiles, maximumBytes, options)
+                }
+            } catch (e: IOException) {
+                throw IllegalStateException("Unable to read time zone data resource file", e)
+            }
+        }
+
+        /**
+         * Create a tiled map of the provided tar archive. See [TimeZoneMap.forRegion] for the archive's format.
+         *
+         * @throws IllegalArgumentException If the archive wasn't built for this version of the library, or the tile
+         * size or either maximum is out of range.
+         * @throws IllegalStateException If the archive can't be read, or copied to a temporary file.
+         */
+        @JvmStatic
+        @JvmOverloads
+        fun forArchive(tarInputStream: InputStream?, tileSizeDegrees: Double = DEFAULT_TILE_SIZE_DEGREES,
+                maximumTiles: Int = DEFAULT_MAXIMUM_TILES, maximumBytes: Long = Long.MAX_VALUE,
+                options: TimeZoneMapOptions = TimeZoneMapOptions()): TiledTimeZoneMap {
+            val archive = Files.createTempFile("timezonemap", ".tar").toFile()
+            try {
+                Files.copy(tarInputStream, archive.toPath(), StandardCopyOption.REPLACE_EXISTING)
+                return open(archive.toPath(), tileSizeDegrees, maximumTiles, maximumBytes, options)
+            } catch (e: IOException) {
+                throw IllegalStateException("Unable to read time zone data resource file", e)
+            } finally {
+                // The mapping outlives the file on systems that let a mapped file be deleted, and on the others it's
+                // left until the JVM exits.
+                archive.deleteOnExit()
+                archive.delete()
+            }
+        }
+
+        /**
+         * Create a tiled map of an uncompressed map archive file, which is memory mapped, as by
+         * [MappedTimeZoneMap.open]. The file must not change while the map is in use.
+         *
+         * @throws IllegalArgumentException If the archive wasn't built for this version of the library, or the tile
+         * size or either maximum is out of range.
+         * @throws IOException If the file can't be read.
+         */
+        @JvmStatic
+        @JvmOverloads
+        @Throws(IOException::class)
+        fun open(archive: Path, tileSizeDegrees: Double = DEFAULT_TILE_SIZE_DEGREES,
+                maximumTiles: Int = DEFAULT_MAXIMUM_TILES, maximumBytes: Long = Long.MAX_VALUE,
+                options: TimeZoneMapOptions = TimeZoneMapOptions()): TiledTimeZoneMap {
+            val (mapVersion, entries) = MappedTimeZoneMap.mapArchive(archive)
+
+            return TiledTimeZoneMap(mapVersion, entries, tileSizeDegrees, maximumTiles, maximumBytes, options)
+        }
+    }
+}
@@ -3,23 +3,61 @@ package us.dustinj.timezonemap
 import com.esri.core.geometry.GeometryEngine
 import com.esri.core.geometry.Point
 import com.esri.core.geometry.Polygon
+import java.lang.ref.SoftReference
+import java.util.Objects
+import kotlin.math.abs
+import kotlin.math.cos
+import kotlin.math.hypot
 
 /**
  * The time zone identifier (e.g. `America/Los_Angeles`, `Europe/Berlin`, `Etc/GMT+5`, `Asia/Shanghai`) and the region
  * on Earth that the time zone covers.
+ *
+ * Only a compact copy of the region is kept, which is what lookups and distance calculations work on, and [region] is
+ * rebuilt from it when asked for. Time zones are equal when their identifiers and regions are.
  */
-data class TimeZone(
+class TimeZone internal constructor(
         /**
          * The identifier of the time zone that can be used, in modern java versions, to initialize the
          * `java.util.TimeZone` object and interact with the time zone programmatically. Examples:
          * `America/Los_Angeles`, `Europe/Berlin`, `Etc/GMT+5`, `Asia/Shanghai`.
          */
         val zoneId: String,
-        /**
-         * The region of the Earth this time zone covers. Note, if the [TimeZoneMap] was initialized with
-         * [TimeZoneMap.forRegion], then this region will be clipped to the region supplied at initialization.
-         */
-        val region: Polygon) {
+        /** The region's rings in a compact form that's queried directly, shared with any map holding this time zone. */
+        internal val flatRegion: FlatRegion) {
+
+    /** @param generalizations Coarser copies of the region, coarsest first, to test most locations against. */
+    internal constructor(zoneId: String, region: Polygon, options: TimeZoneMapOptions,
+            generalizations: List<FlatRegion> = emptyList()) :
+            this(zoneId, FlatRegion(region, options.edgeBucketVertexThreshold, generalizations))
+
+    constructor(zoneId: String, region: Polygon) : this(zoneId, region, TimeZoneMapOptions())
+
+    /** The last region rebuilt, which the garbage collector may reclaim whenever memory runs low. */
+    @Volatile
+    private var rebuiltRegion: SoftReference<Polygon>? = null
+
+    /**
+     * The region of the Earth this time zone covers. Note, if the [TimeZoneMap] was initialized with
+     * [TimeZoneMap.forRegion], then this region will be clipped to the region supplied at initialization.
+     *
+     * The polygon is rebuilt from the compact copy when first read, and again whenever the garbage collector has
+     * reclaimed it since, so it's cheap to read repeatedly while memory allows.
+     */
+    val region: Polygon
+        get() = rebuiltRegion?.get() ?: flatRegion.toPolygon().also { rebuiltRegion = SoftReference(it) }
+
+    operator fun component1() = zoneId
+
+    operator fun component2() = region
+
+    fun copy(zoneId: String = this.zoneId, region: Polygon = this.region) = TimeZone(zoneId, region)
+
+    override fun equals(other: Any?) = other is TimeZone && zoneId == other.zoneId && flatRegion == other.flatRegion
+
+    override fun hashCode() = Objects.hash(zoneId, flatRegion)
+
+    override fun toString() = "TimeZone(zoneId=$zoneId, region=$region)"
 
     /**
      * Calculate the minimum distance (in meters) that would need to be traveled from the provided location to no longer
@@ -38,11 +76,58 @@ data class TimeZone(
      *
      * @throws IllegalArgumentException If the provided location is not within this time zone, inclusive of the edge.
      */
-    fun getDistanceFromBoundary(degreesLatitude: Double, degreesLongitude: Double): Double {
-        val location = Point(degreesLongitude, degreesLatitude)
-        require(containsInclusive(region, location)) { "Location must be inside the time zone" }
+    fun getDistanceFromBoundary(degreesLatitude: Double, degreesLongitude: Double): Double =
+            boundaryDistance(degreesLatitude, degreesLongitude, Double.POSITIVE_INFINITY)
+
+    /**
+     * Check whether [getDistanceFromBoundary] would be more than the provided distance, which is faster than computing
+     * the distance since boundaries that are obviously further away are never examined.
+     *
+     * @param degreesLatitude See [getDistanceFromBoundary].
+     * @param degreesLongitude See [getDistanceFromBoundary].
+     * @param meters The distance to compare against.
+     * @return Whether [getDistanceFromBoundary] would be more than [meters].
+     * @throws IllegalArgumentException If the provided location is not within this time zone, inclusive of the edge.
+     */
+    fun isFartherFromBoundaryThan(degreesLatitude: Double, degreesLongitude: Double, meters: Double): Boolean =
+            boundaryDistance(degreesLatitude, degreesLongitude, maxDegreesDistance(degreesLatitude, meters)) > meters
+
+    /**
+     * Find the geodesic distance to the boundary point nearest to the location, where nearest is measured in degrees as
+     * though latitude and longitude were planar coordinates.
+     *
+     * @return The distance in meters, or positive infinity if no boundary point is within [maxDegrees].
+     */
+    private fun boundaryDistance(degreesLatitude: Double, degreesLongitude: Double, maxDegrees: Double): Double {
+        require(flatRegion.containsInclusive(degreesLongitude, degreesLatitude)) {
+            "Location must be inside the time zone"
+        }
+        val nearest = flatRegion.nearestBoundaryPoint(degreesLongitude, degreesLatitude, maxDegrees)
+                ?: return Double.POSITIVE_INFINITY
+
+        return GeometryEngine.geodesicDistanceOnWGS84(Point(degreesLongitude, degreesLatitude),
+                Point(nearest.x, nearest.y))
+    }
+
+    internal companion object {
+        /** The length of a degree of latitude at the equator, where it's shortest, rounded down. */
+        private const val MIN_METERS_PER_DEGREE_LATITUDE = 110_574.0
+
+        /** The length of a degree of longitude at the equator, where it's longest, rounded down. */
+        private const val METERS_PER_DEGREE_LONGITUDE_AT_EQUATOR = 111_319.0
+
+        /**
+         * A distance in degrees, as though latitude and longitude were planar coordinates, that any location within
+         * [meters] of the provided latitude is within. Degrees of longitude are shorter away from the equator, so they're
+         * measured at the furthest latitude from it that's within reach.
+         */
+        fun maxDegreesDistance(degreesLatitude: Double, meters: Double): Double {
+            val latitudeDegrees = meters / MIN_METERS_PER_DEGREE_LATITUDE
+            val furthestLatitude = abs(degreesLatitude) + latitudeDegrees
+            if (furthestLatitude >= 90) return Double.POSITIVE_INFINITY
 
-        return GeometryEngine.geodesicDistanceOnWGS84(location,
-                GeometryEngine.getNearestCoordinate(region, location, false).coordinate)
+            return hypot(latitudeDegrees,
+                    meters / (METERS_PER_DEGREE_LONGITUDE_AT_EQUATOR * cos(Math.toRadians(furthestLatitude))))
+        }
     }
-}
\ No newline at end of file
+}
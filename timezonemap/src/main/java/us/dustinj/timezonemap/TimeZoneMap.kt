@@ -1,21 +1,44 @@
 package us.dustinj.timezonemap
 
 import com.esri.core.geometry.Envelope2D
-import com.esri.core.geometry.OperatorIntersection
-import com.esri.core.geometry.Point
+import com.esri.core.geometry.OperatorClip
 import com.esri.core.geometry.Polygon
-import com.esri.core.geometry.SimpleGeometryCursor
+import com.github.luben.zstd.Zstd
 import org.apache.commons.compress.archivers.tar.TarArchiveEntry
 import org.apache.commons.compress.archivers.tar.TarArchiveInputStream
+import us.dustinj.timezonemap.PackedRTree.Companion.HILBERT_MAX
+import us.dustinj.timezonemap.PackedRTree.Companion.hilbertIndex
 import us.dustinj.timezonemap.TimeZoneMap.Companion.forRegion
 import us.dustinj.timezonemap.data.getDataInputStream
+import us.dustinj.timezonemap.data.mapVersion as defaultMapVersion
+import us.dustinj.timezonemap.serialization.ArchiveCellIndex
+import us.dustinj.timezonemap.serialization.CELL_INDEX_ENTRY_NAME
+import us.dustinj.timezonemap.serialization.ENTRY_METADATA_ENTRY_NAME
+import us.dustinj.timezonemap.serialization.EntryMetadata
+import us.dustinj.timezonemap.serialization.Envelope
+import us.dustinj.timezonemap.serialization.MAP_ARCHIVE_FORMAT_VERSION
+import us.dustinj.timezonemap.serialization.TableOfContentsEntry
+import us.dustinj.timezonemap.serialization.deserializeCellIndex
+import us.dustinj.timezonemap.serialization.deserializeEntryMetadata
 import us.dustinj.timezonemap.serialization.deserializeEnvelope
-import us.dustinj.timezonemap.serialization.deserializeTimeZone
+import us.dustinj.timezonemap.serialization.deserializeTableOfContents
+import java.io.EOFException
 import java.io.IOException
 import java.io.InputStream
+import java.nio.BufferUnderflowException
 import java.nio.ByteBuffer
+import java.nio.channels.Channels
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ForkJoinPool
+import java.util.concurrent.FutureTask
+import java.util.concurrent.RecursiveAction
 
-class TimeZoneMap private constructor(
+class TimeZoneMap internal constructor(
         /**
          * The version consists of two parts separated by a colon. The first part is the version of this map library,
          * and the second part is the version of the map shapes. Example: 3.1:2018i
@@ -36,7 +59,39 @@ class TimeZoneMap private constructor(
          * The region (inclusive of the boundary) for which this map was initialized. Only locations with in this region
          * may be queried using this map instance.
          */
-        val initializedRegion: Envelope2D) {
+        val initializedRegion: Envelope2D,
+        options: TimeZoneMapOptions,
+        /**
+         * The cell index restored from a snapshot or read from the map archive, or null to build it from the time
+         * zones.
+         */
+        cellIndex: CellIndex?) {
+
+    internal constructor(mapVersion: String?, timeZones: List<TimeZone>, initializedRegion: Envelope2D,
+            options: TimeZoneMapOptions) : this(mapVersion, timeZones, initializedRegion, options, null)
+
+    /**
+     * An estimate of the memory, in bytes, used by the compact copies of the time zone regions, including any boundary
+     * indexes built so far.
+     */
+    internal val regionBytes get() = timeZones.sumOf { it.flatRegion.sizeBytes }
+
+    // Only time zones whose extents contain a location need to be checked against the actual region.
+    private val flatRegions = timeZones.map { it.flatRegion }.toTypedArray()
+    private val index = PackedRTree(flatRegions.map { it.envelope })
+    private val regionContains = PackedRTree.ItemPredicate { i, x, y -> flatRegions[i].containsInclusive(x, y) }
+    // Candidates listed by the cell index are tested the way the R-tree tests them, so a lookup has the same result
+    // whichever of them answers it.
+    private val candidateContains = PackedRTree.ItemPredicate { i, x, y ->
+        flatRegions[i].envelopeContains(x, y) && flatRegions[i].containsInclusive(x, y)
+    }
+    // Built from polygons of its own rather than the time zones' cached regions, which then needn't outlive it.
+    private val cellIndex =
+            cellIndex ?: CellIndex(flatRegions.map { it.toPolygon() }, initializedRegion, options.cellIndexDepth)
+
+    /** The options that a snapshot of this map has to have been initialized with to be restored for them. */
+    private val cellIndexDepth = options.cellIndexDepth
+    private val edgeBucketVertexThreshold = options.edgeBucketVertexThreshold
 
     /**
      * Retrieve the time zone in use at the provided coordinates. The identifier contained in this time zone can be
@@ -53,8 +108,12 @@ class TimeZoneMap private constructor(
      * @throws IllegalArgumentException If the provided coordinates are outside of the area indexed by this instance of
      * the time zone index.
      */
-    fun getOverlappingTimeZone(degreesLatitude: Double, degreesLongitude: Double): TimeZone? =
-            getOverlappingTimeZoneSequence(degreesLatitude, degreesLongitude).first()
+    fun getOverlappingTimeZone(degreesLatitude: Double, degreesLongitude: Double): TimeZone? {
+        requireInitializedRegion(degreesLatitude, degreesLongitude)
+        val first = firstTimeZoneIndex(degreesLatitude, degreesLongitude)
+
+        return if (first < 0) null else timeZones[first]
+    }
 
     /**
      * Retrieve all time zones in use at the provided coordinates. Multiple time zones can overlap the provided location
@@ -74,19 +133,326 @@ class TimeZoneMap private constructor(
      * @throws IllegalArgumentException If the provided coordinates are outside of the area indexed by this instance of
      * the time zone index.
      */
-    fun getOverlappingTimeZones(degreesLatitude: Double, degreesLongitude: Double) =
-            getOverlappingTimeZoneSequence(degreesLatitude, degreesLongitude).toList()
+    fun getOverlappingTimeZones(degreesLatitude: Double, degreesLongitude: Double): List<TimeZone> {
+        requireInitializedRegion(degreesLatitude, degreesLongitude)
+        val leaf = cellIndex.leafAt(degreesLongitude, degreesLatitude)
+        val all = if (leaf != CellIndex.MIXED) {
+            cellIndex.timeZones(leaf, degreesLongitude, degreesLatitude, candidateContains)
+        } else {
+            index.allContaining(degreesLongitude, degreesLatitude, regionContains)
+        }
+
+        return all.map { timeZones[it] }
+    }
+
+    /**
+     * Retrieve the time zones in use at many locations at once, as positions in [timeZones]. This is equivalent to
+     * calling [getOverlappingTimeZone] for each location, but avoids the per-call overhead, doesn't create any objects
+     * per location, and reports locations it can't look up in the results rather than by throwing.
+     *
+     * @param degreesLatitudes The latitude of each location. See [getOverlappingTimeZone].
+     * @param degreesLongitudes The longitude of each location, in the same order as the latitudes.
+     * @param results Where to store each location's result, at the same position as its coordinates. Must be at least
+     * as long as the coordinate arrays. By default a new array is created.
+     * @param pool If provided, large batches are split into parts that are looked up in parallel on this pool. By
+     * default all locations are looked up on the calling thread.
+     * @param sortByLocation Whether to look the locations up in order along a space filling curve, so that locations
+     * near each other are looked up one after another and can share the work of finding which time zones might be in
+     * use around them. This costs some time and memory to sort the batch, but pays off for large batches where many
+     * locations are clustered together.
+     * @return [results], where each entry is the position in [timeZones] of the time zone that [getOverlappingTimeZone]
+     * would return for the location, [NO_TIME_ZONE] if no time zone is in use there, or [OUTSIDE_INITIALIZED_REGION] if
+     * the location isn't within [initializedRegion] (including coordinates that are NaN).
+     * @throws IllegalArgumentException If the arrays are too short to hold all the coordinates or results.
+     */
+    @JvmOverloads
+    fun getOverlappingTimeZoneIndexes(degreesLatitudes: DoubleArray, degreesLongitudes: DoubleArray,
+            results: IntArray = IntArray(degreesLatitudes.size), pool: ForkJoinPool? = null,
+            sortByLocation: Boolean = false): IntArray {
+        require(degreesLongitudes.size == degreesLatitudes.size) { "Latitudes and longitudes must be the same length" }
+        require(results.size >= degreesLatitudes.size) { "Results must be at least as long as the coordinates" }
+
+        val order = if (sortByLocation) locationOrder(degreesLatitudes, degreesLongitudes) else null
+        val batch = Batch(degreesLatitudes, degreesLongitudes, results, order)
+        if (pool == null) {
+            BatchLookup(batch, 0, degreesLatitudes.size, false).compute()
+        } else {
+            pool.invoke(BatchLookup(batch, 0, degreesLatitudes.size, true))
+        }
+
+        return results
+    }
+
+    /** The positions of the locations, ordered along a Hilbert curve covering [initializedRegion]. */
+    private fun locationOrder(degreesLatitudes: DoubleArray, degreesLongitudes: DoubleArray): IntArray {
+        // Each key holds the location's position along the curve above its position in the batch, so sorting the keys
+        // sorts the batch without boxing.
+        val keys = LongArray(degreesLatitudes.size) { i ->
+            val curvePosition = hilbertIndex(gridColumn(degreesLongitudes[i], HILBERT_MAX + 1),
+                    gridRow(degreesLatitudes[i], HILBERT_MAX + 1))
+            (curvePosition shl Int.SIZE_BITS - 1) or i.toLong()
+        }
+        keys.sort()
+
+        return IntArray(keys.size) { (keys[it] and Int.MAX_VALUE.toLong()).toInt() }
+    }
+
+    /**
+     * Which column of a grid with the given number of columns covering [initializedRegion] the longitude is in.
+     * Longitudes outside of the region are clamped to its edges, or to the first column when NaN.
+     */
+    private fun gridColumn(degreesLongitude: Double, columns: Int) =
+            ((degreesLongitude - initializedRegion.xmin) / initializedRegion.width * columns).toInt()
+                    .coerceIn(0, columns - 1)
+
+    /** The equivalent of [gridColumn] for latitudes. */
+    private fun gridRow(degreesLatitude: Double, rows: Int) =
+            ((degreesLatitude - initializedRegion.ymin) / initializedRegion.height * rows).toInt()
+                    .coerceIn(0, rows - 1)
+
+    /**
+     * Finds the time zones in use at locations one after another, remembering which time zones might be in use in the
+     * area around the last location. While following locations stay in that area, only those time zones need to be
+     * considered.
+     */
+    private inner class NeighborhoodLookup {
+        private var cell = -1
+        private var candidates = IntArray(0)
+
+        fun firstTimeZoneIndex(degreesLatitude: Double, degreesLongitude: Double): Int {
+            val leaf = cellIndex.leafAt(degreesLongitude, degreesLatitude)
+            if (leaf != CellIndex.MIXED) {
+                return cellIndex.firstTimeZone(leaf, degreesLongitude, degreesLatitude, candidateContains)
+            }
+
+            val column = gridColumn(degreesLongitude, NEIGHBORHOOD_GRID_SIZE)
+            val row = gridRow(degreesLatitude, NEIGHBORHOOD_GRID_SIZE)
+            if (column * NEIGHBORHOOD_GRID_SIZE + row != cell) {
+                cell = column * NEIGHBORHOOD_GRID_SIZE + row
+                candidates = index.allIntersecting(neighborhood(column, row))
+            }
+
+            for (candidate in candidates) {
+                if (flatRegions[candidate].containsInclusive(degreesLongitude, degreesLatitude)) return candidate
+            }
+
+            return NO_TIME_ZONE
+        }
+
+        /** The extents of a grid cell, padded so that rounding can't leave out a location assigned to it. */
+        private fun neighborhood(column: Int, row: Int): Envelope2D {
+            val width = initializedRegion.width / NEIGHBORHOOD_GRID_SIZE
+            val height = initializedRegion.height / NEIGHBORHOOD_GRID_SIZE
+
+            return Envelope2D(initializedRegion.xmin + column * width, initializedRegion.ymin + row * height,
+                    initializedRegion.xmin + (column + 1) * width, initializedRegion.ymin + (row + 1) * height)
+                    .apply { inflate(width / NEIGHBORHOOD_GRID_SIZE, height / NEIGHBORHOOD_GRID_SIZE) }
+        }
+    }
+
+    /**
+     * A batch of locations to look up.
+     *
+     * @property order The positions of the locations in the order they should be looked up, or null to look them up
+     * in the order given.
+     */
+    private class Batch(val degreesLatitudes: DoubleArray, val degreesLongitudes: DoubleArray, val results: IntArray,
+            val order: IntArray?)
+
+    /** Looks up a range of a batch, splitting it in half to run in parallel if allowed and it's large. */
+    private inner class BatchLookup(private val batch: Batch, private val start: Int, private val end: Int,
+            private val parallel: Boolean) : RecursiveAction() {
+
+        public override fun compute() {
+            if (parallel && end - start > PARALLEL_BATCH_SIZE) {
+                val middle = (start + end) ushr 1
+                invokeAll(BatchLookup(batch, start, middle, true), BatchLookup(batch, middle, end, true))
+                return
+            }
+
+            val neighborhood = NeighborhoodLookup()
+            for (position in start until end) {
+                val i = if (batch.order == null) position else batch.order[position]
+                val latitude = batch.degreesLatitudes[i]
+                val longitude = batch.degreesLongitudes[i]
+                batch.results[i] = when {
+                    !initializedRegion.contains(longitude, latitude) -> OUTSIDE_INITIALIZED_REGION
+                    batch.order == null -> firstTimeZoneIndex(latitude, longitude)
+                    else -> neighborhood.firstTimeZoneIndex(latitude, longitude)
+                }
+            }
+        }
+    }
+
+    private fun firstTimeZoneIndex(degreesLatitude: Double, degreesLongitude: Double): Int {
+        val leaf = cellIndex.leafAt(degreesLongitude, degreesLatitude)
+
+        return if (leaf != CellIndex.MIXED) {
+            cellIndex.firstTimeZone(leaf, degreesLongitude, degreesLatitude, candidateContains)
+        } else {
+            index.firstContaining(degreesLongitude, degreesLatitude, regionContains)
+        }
+    }
+
+    /**
+     * Find the time zones in use throughout a rectangle, provided the same time zones are in use everywhere in it.
+     *
+     * @return The positions in [timeZones] of the time zones in use throughout the rectangle, in ascending order, or
+     * null if the rectangle isn't entirely within [initializedRegion] or a time zone boundary comes close to it.
+     */
+    internal fun getUniformTimeZoneIndexes(rectangle: Envelope2D): IntArray? {
+        if (!initializedRegion.contains(rectangle)) return null
+
+        val inUse = mutableListOf<Int>()
+        for (candidate in index.allIntersecting(rectangle)) {
+            when (flatRegions[candidate].relate(rectangle)) {
+                FlatRegion.CROSSES -> return null
+                FlatRegion.INSIDE -> inUse.add(candidate)
+            }
+        }
+
+        return inUse.toIntArray()
+    }
+
+    /**
+     * Find how far, in degrees as though latitude and longitude were planar coordinates, locations can be from the
+     * provided location while still being in the same time zones. The location must be within [initializedRegion].
+     *
+     * Squares around the location are tried from [MAX_STABLE_RADIUS_METERS] down, halving each time, with each square
+     * reaching as far as [TimeZone.maxDegreesDistance] says a location that many meters away could be. That way the
+     * radius covers at least that distance on the ground at any latitude, and only the bands of edges near each square
+     * are examined, without building any time zone's boundary index.
+     *
+     * @return The radius, which is zero if the location is on, or very close to, a time zone boundary.
+     */
+    internal fun getStableRadius(degreesLatitude: Double, degreesLongitude: Double): Double {
+        var meters = MAX_STABLE_RADIUS_METERS
+        while (meters >= MIN_STABLE_RADIUS_METERS) {
+            val radius = TimeZone.maxDegreesDistance(degreesLatitude, meters)
+            val square = Envelope2D(degreesLongitude - radius, degreesLatitude - radius,
+                    degreesLongitude + radius, degreesLatitude + radius)
+            if (getUniformTimeZoneIndexes(square) != null) return radius
+            meters /= 2
+        }
+
+        return 0.0
+    }
+
+    /**
+     * Write a snapshot of this map to a file, replacing any file already there, which [forRegionWithSnapshot] restores
+     * it from. The snapshot holds everything initializing the map worked out, in the form the map keeps it, so that
+     * restoring it only has to read arrays back in, which is several times faster than initializing the map again.
+     * The snapshot is written to a temporary file next to the provided one and then moved into place, so a snapshot
+     * is never seen half written.
+     *
+     * @throws IOException If the file can't be written.
+     */
+    @Throws(IOException::class)
+    fun writeSnapshot(snapshot: Path) {
+        val temporary = Files.createTempFile(snapshot.toAbsolutePath().parent, snapshot.fileName.toString(), ".tmp")
+        try {
+            FileChannel.open(temporary, StandardOpenOption.WRITE).use { channel ->
+                val writer = SnapshotWriter(channel)
+                writer.writeInt(SNAPSHOT_MAGIC)
+                writer.writeInt(SNAPSHOT_FORMAT_VERSION)
+                writer.writeString(BuildInformation.VERSION)
+                writer.writeString(mapVersion)
+                writer.writeDouble(initializedRegion.xmin)
+                writer.writeDouble(initializedRegion.ymin)
+                writer.writeDouble(initializedRegion.xmax)
+                writer.writeDouble(initializedRegion.ymax)
+                writer.writeInt(cellIndexDepth)
+                writer.writeInt(edgeBucketVertexThreshold)
+                writer.writeInt(timeZones.size)
+                timeZones.forEach {
+                    writer.writeString(it.zoneId)
+                    it.flatRegion.write(writer)
+                }
+                cellIndex.write(writer)
+                writer.finish()
+            }
+            Files.move(temporary, snapshot, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+        } finally {
+            Files.deleteIfExists(temporary)
+        }
+    }
+
+    private fun requireInitializedRegion(degreesLatitude: Double, degreesLongitude: Double) =
+            require(initializedRegion.contains(degreesLongitude, degreesLatitude)) {
+                "Requested point is outside the initialized area"
+            }
 
-    private fun getOverlappingTimeZoneSequence(degreesLatitude: Double, degreesLongitude: Double): Sequence<TimeZone> {
-        val point = Point(degreesLongitude, degreesLatitude)
-        require(initializedRegion.contains(point.xy)) { "Requested point is outside the initialized area" }
+    /**
+     * A time zone's entry in a map archive, with its extents, before its region is deserialized. The area is only
+     * known up front for entries of a seekable map archive, or of a map archive with entry metadata.
+     *
+     * @property number The entry's position among the archive's time zone entries, which is how the archive's cell
+     * index refers to it.
+     */
+    internal class ArchiveEntry(val zoneId: String, val extents: Envelope2D, val serializedTimeZone: ByteBuffer,
+            val number: Int, val area: Double?)
 
-        return timeZones.asSequence().filter { containsInclusive(it.region, point) }
+    /**
+     * What a map archive's first entry names: the archive's map version, and the format of the entries that follow.
+     * See [MAP_ARCHIVE_FORMAT_VERSION].
+     */
+    internal class ArchiveVersion(val mapVersion: String, private val format: Int) {
+        /** Whether the archive may have entry metadata and a cell index, which earlier formats don't. */
+        val hasIndexEntries get() = format >= 2
     }
 
-    private class ExtentsAndTimeZone(val extents: Envelope2D, val timeZone: TimeZone)
+    /** @property generalizations The generalizations of the region from the map archive, if it has any. */
+    internal class ExtentsAndRegion(private val zoneId: String, private val region: Polygon,
+            private val generalizations: List<EsriGeneralization>) {
+        val extents = Envelope2D().also { region.queryEnvelope2D(it) }
+        val area = region.calculateArea2D()
+
+        /**
+         * Clip the region to the envelope so we don't have to keep large time zones that may only slightly intersect
+         * with the region we're indexing.
+         *
+         * @return The clipped time zone, or null if none of the region is within the envelope.
+         */
+        fun clip(envelope: Envelope2D, options: TimeZoneMapOptions): TimeZone? {
+            if (envelope.contains(extents)) return TimeZone(zoneId, region, options, flatGeneralizations(options))
+
+            // Clipping to a rectangle leaves the same locations inside as intersecting with it, but takes a single
+            // pass over the region rather than a full overlay, which is an order of magnitude faster for large regions.
+            val clipped = OperatorClip.local().execute(region, envelope, SPATIAL_REFERENCE, null) as Polygon
+
+            return if (clipped.pointCount > 0) {
+                TimeZone(zoneId, clipped, options, flatGeneralizations(options))
+            } else {
+                null
+            }
+        }
+
+        private fun flatGeneralizations(options: TimeZoneMapOptions) = generalizations.map {
+            FlatRegion.generalization(it.region, it.maxDeviation, options.edgeBucketVertexThreshold)
+        }
+    }
 
     companion object {
+        /** The result of [getOverlappingTimeZoneIndexes] for a location where no time zone is in use. */
+        const val NO_TIME_ZONE = -1
+
+        /** The result of [getOverlappingTimeZoneIndexes] for a location that this map can't look up. */
+        const val OUTSIDE_INITIALIZED_REGION = -2
+
+        /** Batches larger than this are split in half when looking them up on a pool. */
+        private const val PARALLEL_BATCH_SIZE = 4096
+
+        /** The number of rows and columns in the grid of neighborhoods a sorted batch is looked up in. */
+        private const val NEIGHBORHOOD_GRID_SIZE = 256
+
+        /** The distances [getStableRadius] tries, from the largest down to the smallest. */
+        private const val MAX_STABLE_RADIUS_METERS = 100_000.0
+        private const val MIN_STABLE_RADIUS_METERS = 1.0
+
+        /** Identifies a snapshot written by [writeSnapshot], along with the version of its format. */
+        private const val SNAPSHOT_MAGIC = 0x545A4D50 // "TZMP"
+        private const val SNAPSHOT_FORMAT_VERSION = 3
+
         /**
          * Creates a new instance of [TimeZoneMap] and initializes it to be valid for the entire world. This is a
          * blocking long running operation that takes about 1-2 seconds on desktop hardware. If performance is a
@@ -95,7 +461,16 @@ class TimeZoneMap private constructor(
          * @return A map instance that can be used for querying locations anywhere in the world.
          */
         @JvmStatic
-        fun forEverywhere() = forRegion(-90.0, -180.0, 90.0, 180.0)
+        fun forEverywhere() = forEverywhere(TimeZoneMapOptions())
+
+        /**
+         * Equivalent to [forEverywhere], but initialized according to the provided options.
+         *
+         * @param options Settings that tune initialization, such as building additional indexes to speed up lookups.
+         * @return A map instance that can be used for querying locations anywhere in the world.
+         */
+        @JvmStatic
+        fun forEverywhere(options: TimeZoneMapOptions) = forRegion(-90.0, -180.0, 90.0, 180.0, options)
 
         /**
          * Creates a new instance of [TimeZoneMap] using the default map data and initializes it to be valid for
@@ -120,11 +495,24 @@ class TimeZoneMap private constructor(
          */
         @JvmStatic
         fun forRegion(minDegreesLatitude: Double, minDegreesLongitude: Double,
-                maxDegreesLatitude: Double, maxDegreesLongitude: Double): TimeZoneMap {
+                maxDegreesLatitude: Double, maxDegreesLongitude: Double) =
+                forRegion(minDegreesLatitude, minDegreesLongitude, maxDegreesLatitude, maxDegreesLongitude,
+                        TimeZoneMapOptions())
+
+        /**
+         * Equivalent to [forRegion] using the default map data, but initialized according to the provided options.
+         *
+         * @param options Settings that tune initialization, such as building additional indexes to speed up lookups.
+         * @return A map instance that can be used for querying locations withing the provided coordinates, inclusive.
+         * @throws IllegalArgumentException If minimum values aren't less than maximum values.
+         */
+        @JvmStatic
+        fun forRegion(minDegreesLatitude: Double, minDegreesLongitude: Double,
+                maxDegreesLatitude: Double, maxDegreesLongitude: Double, options: TimeZoneMapOptions): TimeZoneMap {
             try {
                 getDataInputStream().use { inputStream ->
                     return forRegion(inputStream, minDegreesLatitude, minDegreesLongitude,
-                            maxDegreesLatitude, maxDegreesLongitude)
+                            maxDegreesLatitude, maxDegreesLongitude, options)
                 }
             } catch (e: IOException) {
                 throw IllegalStateException("Unable to read time zone data resource file", e)
@@ -156,92 +544,387 @@ class TimeZoneMap private constructor(
         @JvmStatic
         fun forRegion(tarInputStream: InputStream? = null,
                 minDegreesLatitude: Double, minDegreesLongitude: Double,
-                maxDegreesLatitude: Double, maxDegreesLongitude: Double): TimeZoneMap {
+                maxDegreesLatitude: Double, maxDegreesLongitude: Double) =
+                forRegion(tarInputStream, minDegreesLatitude, minDegreesLongitude,
+                        maxDegreesLatitude, maxDegreesLongitude, TimeZoneMapOptions())
+
+        /**
+         * Equivalent to [forRegion] reading from the provided tar archive, but initialized according to the provided
+         * options.
+         *
+         * @param options Settings that tune initialization, such as building additional indexes to speed up lookups.
+         * @return A map instance that can be used for querying locations withing the provided coordinates, inclusive.
+         * @throws IllegalArgumentException If minimum values aren't less than maximum values.
+         */
+        @JvmStatic
+        fun forRegion(tarInputStream: InputStream?,
+                minDegreesLatitude: Double, minDegreesLongitude: Double,
+                maxDegreesLatitude: Double, maxDegreesLongitude: Double, options: TimeZoneMapOptions): TimeZoneMap {
             require(minDegreesLatitude < maxDegreesLatitude) { "Minimum latitude must be less than maximum latitude" }
             require(minDegreesLongitude < maxDegreesLongitude) { "Minimum longitude must be less than maximum longitude" }
 
             val indexAreaEnvelope =
                     Envelope2D(minDegreesLongitude, minDegreesLatitude, maxDegreesLongitude, maxDegreesLatitude)
-            val indexAreaPolygon = envelopeToPolygon(indexAreaEnvelope)
+            val (mapVersion, timeZones, archiveCellIndex) =
+                    readArchive(tarInputStream, indexAreaEnvelope) { entries ->
+                        clipNumberedTimeZones(entries, indexAreaEnvelope, options)
+                    }
+
+            return TimeZoneMap(mapVersion, timeZones.map { it.second }, indexAreaEnvelope, options,
+                    archiveCellIndex?.let { useArchiveCellIndex(it, timeZones, indexAreaEnvelope, options) })
+        }
+
+        /**
+         * Use the cell index of the map archive for a map initialized for the envelope, rather than building one,
+         * unless the options ask for a cell index to be built or the archive's cell index doesn't cover the envelope.
+         *
+         * @param timeZones The map's time zones, in order, along with the number of each one's archive entry.
+         * @return The cell index, or null if it's not to be used.
+         */
+        private fun useArchiveCellIndex(cellIndex: ArchiveCellIndex, timeZones: List<Pair<Int, TimeZone>>,
+                envelope: Envelope2D, options: TimeZoneMapOptions): CellIndex? {
+            val bounds = envelopeExtents(cellIndex.bounds)
+            if (options.cellIndexDepth > 0 || !bounds.contains(envelope)) return null
+
+            val positions = IntArray(cellIndex.entryCount) { -1 }
+            timeZones.forEachIndexed { position, (number, _) -> positions[number] = position }
+
+            return CellIndex.fromArchive(bounds, cellIndex, positions)
+        }
+
+        /**
+         * Equivalent to [forEverywhere], but restored from a snapshot if there's a suitable one, as described by
+         * [forRegionWithSnapshot].
+         *
+         * @throws IOException If a new snapshot can't be written.
+         */
+        @JvmStatic
+        @JvmOverloads
+        @Throws(IOException::class)
+        fun forEverywhereWithSnapshot(snapshot: Path, options: TimeZoneMapOptions = TimeZoneMapOptions()) =
+                forRegionWithSnapshot(snapshot, -90.0, -180.0, 90.0, 180.0, options)
+
+        /**
+         * Equivalent to [forRegion] using the default map data, but restored from a snapshot written by
+         * [writeSnapshot] if there's one that matches, which saves processes that restart often from initializing
+         * the same map again each time. A snapshot matches if it was written by this version of the library, from
+         * the default map data of this version, for the same coordinates and with the same
+         * [TimeZoneMapOptions.cellIndexDepth] and [TimeZoneMapOptions.edgeBucketVertexThreshold]. Otherwise, including
+         * when there's no snapshot, it can't be read or its checksum shows it's damaged, the map is initialized as
+         * usual and a new snapshot is written in place of the old one.
+         *
+         * @param snapshot Where the snapshot is kept.
+         * @return A map instance that can be used for querying locations withing the provided coordinates, inclusive.
+         * @throws IllegalArgumentException If minimum values aren't less than maximum values.
+         * @throws IOException If a new snapshot can't be written.
+         */
+        @JvmStatic
+        @JvmOverloads
+        @Throws(IOException::class)
+        fun forRegionWithSnapshot(snapshot: Path,
+                minDegreesLatitude: Double, minDegreesLongitude: Double,
+                maxDegreesLatitude: Double, maxDegreesLongitude: Double,
+                options: TimeZoneMapOptions = TimeZoneMapOptions()): TimeZoneMap {
+            require(minDegreesLatitude < maxDegreesLatitude) { "Minimum latitude must be less than maximum latitude" }
+            require(minDegreesLongitude < maxDegreesLongitude) { "Minimum longitude must be less than maximum longitude" }
 
+            val indexAreaEnvelope =
+                    Envelope2D(minDegreesLongitude, minDegreesLatitude, maxDegreesLongitude, maxDegreesLatitude)
+
+            return readSnapshot(snapshot, defaultMapVersion, indexAreaEnvelope, options)
+                    ?: forRegion(minDegreesLatitude, minDegreesLongitude, maxDegreesLatitude, maxDegreesLongitude,
+                            options).also { it.writeSnapshot(snapshot) }
+        }
+
+        /**
+         * Restore a map from a snapshot, as long as it matches.
+         *
+         * @return The map, or null if there's no snapshot, it can't be read, it's damaged or it doesn't match.
+         */
+        internal fun readSnapshot(snapshot: Path, mapVersion: String?, initializedRegion: Envelope2D,
+                options: TimeZoneMapOptions): TimeZoneMap? {
             try {
-                TarArchiveInputStream(tarInputStream).use { archiveInputStream ->
-                    var mapVersion: String? = null
-                    val timeZones = getTarEntrySequence(archiveInputStream)
-                            .onEach { entry: TarArchiveEntry ->
-                                if (mapVersion == null) {
-                                    val splitVersion = entry.name.split(" ").toTypedArray()
-                                    val version = if (splitVersion.size == 2) splitVersion[1] else entry.name
-                                    require(version.split(":")[0] == BuildInformation.VERSION) {
-                                        "Incompatible map archive. Detected version is '$version' required version " +
-                                                "'${BuildInformation.VERSION}:*'"
-                                    }
+                // The mapping stays valid after the channel is closed, and is only needed until the arrays are read.
+                val reader = FileChannel.open(snapshot, StandardOpenOption.READ).use {
+                    SnapshotReader.verify(it.map(FileChannel.MapMode.READ_ONLY, 0, it.size()))
+                } ?: return null
+                val matches = reader.readInt() == SNAPSHOT_MAGIC &&
+                        reader.readInt() == SNAPSHOT_FORMAT_VERSION &&
+                        reader.readString() == BuildInformation.VERSION &&
+                        reader.readString() == mapVersion &&
+                        Envelope2D(reader.readDouble(), reader.readDouble(), reader.readDouble(),
+                                reader.readDouble()) == initializedRegion &&
+                        reader.readInt() == options.cellIndexDepth &&
+                        reader.readInt() == options.edgeBucketVertexThreshold
+                if (!matches) return null
 
-                                    mapVersion = version
-                                }
+                val timeZones = List(reader.readCount()) {
+                    TimeZone(reader.readString() ?: return null, FlatRegion.read(reader))
+                }
+
+                return TimeZoneMap(mapVersion, timeZones, initializedRegion, options, CellIndex.read(reader))
+            } catch (e: IOException) {
+                return null
+            } catch (e: BufferUnderflowException) {
+                // Even a snapshot that passes the checksum may not hold what this version expects, in which case the
+                // map is initialized instead.
+                return null
+            } catch (e: IllegalArgumentException) {
+                return null
+            }
+        }
+
+        /**
+         * Equivalent to [forRegion], but reading a seekable map archive, such as the `seekable` output of the builder.
+         * The archive starts with a table of contents and each time zone is compressed on its own, so only the time
+         * zones whose extents overlap the provided coordinates are read and decompressed, rather than the whole
+         * archive. This makes initializing the map for a small region take milliseconds, however large the archive.
+         *
+         * @param archive The seekable map archive file, which must not change while it's being read.
+         * @param options Settings that tune initialization, such as building additional indexes to speed up lookups.
+         * @return A map instance that can be used for querying locations withing the provided coordinates, inclusive.
+         * @throws IllegalArgumentException If minimum values aren't less than maximum values, or the archive isn't a
+         * seekable map archive built for this version of the library.
+         * @throws IOException If the file can't be read.
+         */
+        @JvmStatic
+        @JvmOverloads
+        @Throws(IOException::class)
+        fun forSeekableArchive(archive: Path,
+                minDegreesLatitude: Double, minDegreesLongitude: Double,
+                maxDegreesLatitude: Double, maxDegreesLongitude: Double,
+                options: TimeZoneMapOptions = TimeZoneMapOptions()): TimeZoneMap {
+            require(minDegreesLatitude < maxDegreesLatitude) { "Minimum latitude must be less than maximum latitude" }
+            require(minDegreesLongitude < maxDegreesLongitude) { "Minimum longitude must be less than maximum longitude" }
+
+            val indexAreaEnvelope =
+                    Envelope2D(minDegreesLongitude, minDegreesLatitude, maxDegreesLongitude, maxDegreesLatitude)
+            FileChannel.open(archive, StandardOpenOption.READ).use { channel ->
+                val tableOfContents = deserializeTableOfContents(Channels.newInputStream(channel))
+                val mapVersion = requireCompatibleVersion(tableOfContents.mapVersion)
+                val entriesStart = channel.position()
+                // Entries are in the order they're stored, so they're read from the file front to back.
+                val entries = tableOfContents.entries.asSequence()
+                        .mapIndexed { number, entry -> Triple(entry, envelopeExtents(entry.envelope), number) }
+                        .filter { (_, extents) -> indexAreaEnvelope.isIntersecting(extents) }
+                        .map { (entry, extents, number) ->
+                            ArchiveEntry(entry.timeZoneId, extents, readSeekableEntry(channel, entriesStart, entry),
+                                    number, entry.area)
+                        }
+
+                return TimeZoneMap(mapVersion, clipTimeZones(entries, indexAreaEnvelope, options), indexAreaEnvelope,
+                        options)
+            }
+        }
+
+        /**
+         * Read and decompress an entry of a seekable map archive.
+         *
+         * @throws IOException If the entry can't be read.
+         */
+        private fun readSeekableEntry(channel: FileChannel, entriesStart: Long,
+                entry: TableOfContentsEntry): ByteBuffer {
+            val compressed = ByteBuffer.allocate(entry.length)
+            while (compressed.hasRemaining()) {
+                if (channel.read(compressed, entriesStart + entry.offset + compressed.position()) < 0) {
+                    throw EOFException("Map archive ends in the middle of ${entry.timeZoneId}")
+                }
+            }
+
+            return ByteBuffer.wrap(Zstd.decompress(compressed.array(), entry.size))
+        }
+
+        /**
+         * Deserialize the time zones in the entries and clip them to the envelope, in the order of [timeZones] for a
+         * map initialized for the envelope. This happens on [TimeZoneMapOptions.initializationExecutor], if there is
+         * one, while the entries are read on the calling thread.
+         */
+        internal fun clipTimeZones(entries: Sequence<ArchiveEntry>, envelope: Envelope2D,
+                options: TimeZoneMapOptions): List<TimeZone> =
+                clipNumberedTimeZones(entries, envelope, options).map { it.second }
+
+        /** Equivalent to [clipTimeZones], but along with the number of each time zone's archive entry. */
+        private fun clipNumberedTimeZones(entries: Sequence<ArchiveEntry>, envelope: Envelope2D,
+                options: TimeZoneMapOptions): List<Pair<Int, TimeZone>> {
+            val executor = options.initializationExecutor
+            val clipped = if (executor == null) {
+                entries.map { it.number to clipTimeZone(it, envelope, options) }.toList()
+            } else {
+                entries.map { entry ->
+                    entry.number to FutureTask { clipTimeZone(entry, envelope, options) }.also(executor::execute)
+                }
+                        .toList()
+                        .map { (number, task) ->
+                            try {
+                                number to task.get()
+                            } catch (e: ExecutionException) {
+                                throw e.cause ?: e
                             }
+                        }
+            }
+
+            // Sort smallest area first so we have a deterministic ordering of there is an overlap. The sort is stable,
+            // so time zones with the same area stay in archive order, however the work was split up.
+            return clipped.mapNotNull { (number, clippedTimeZone) ->
+                clippedTimeZone?.let { (area, timeZone) -> Triple(area, number, timeZone) }
+            }
+                    .sortedBy { it.first }
+                    .map { Pair(it.second, it.third) }
+        }
+
+        /**
+         * Decode the time zone in the entry and clip it to the envelope.
+         *
+         * @return The area of the whole time zone, along with the clipped time zone, or null if none of it is within
+         * the envelope.
+         */
+        private fun clipTimeZone(entry: ArchiveEntry, envelope: Envelope2D,
+                options: TimeZoneMapOptions): Pair<Double, TimeZone>? {
+            val timeZone = decodeToEsri(entry.serializedTimeZone)
+            val region = ExtentsAndRegion(timeZone.timeZoneId, timeZone.region, timeZone.generalizations)
+            // Throw out anything that doesn't at least partially overlap with the index area.
+            if (!envelope.isIntersecting(region.extents)) return null
+
+            return region.clip(envelope, options)?.let { Pair(entry.area ?: region.area, it) }
+        }
+
+        /**
+         * Read a map archive, passing [read] the entries whose time zones' extents intersect the envelope as they're
+         * read. The name of each entry is the extents of its time zone, which allows us to immediately filter out any
+         * time zones that don't overlap the envelope without having to deserialize the region, which is a fairly
+         * expensive operation. If the archive has entry metadata, the extents and areas are taken from it instead.
+         * [read] has to read every entry.
+         *
+         * @return The archive's map version, or null if the archive is empty, along with what [read] returned and
+         * the archive's cell index, or null if it doesn't have one.
+         * @throws IllegalArgumentException If the archive wasn't built for this version of the library, or its entry
+         * metadata doesn't match its time zone entries.
+         */
+        internal fun <T> readArchive(tarInputStream: InputStream?, envelope: Envelope2D,
+                read: (Sequence<ArchiveEntry>) -> T): Triple<String?, T, ArchiveCellIndex?> {
+            try {
+                TarArchiveInputStream(tarInputStream).use { archiveInputStream ->
+                    val entries = getTarEntrySequence(archiveInputStream).iterator()
+                    val version = if (entries.hasNext()) archiveVersion(entries.next()) else null
+                    val hasIndexEntries = version?.hasIndexEntries == true
+                    var cellIndex: ArchiveCellIndex? = null
+                    var metadata: List<EntryMetadata>? = null
+                    var entryCount = 0
+                    val result = read(entries.asSequence()
                             .filter { it.size > 0 }
-                            // The name of each file is an envelope that is the outside boundary of the time zone. This
-                            // allows us to immediately filter out any time zones that don't overlap the initialization
-                            // region without having to deserialize the region, which is a fairly expensive operation.
                             .filter { entry: TarArchiveEntry ->
-                                val fragmentedName = entry.name.split("/").toTypedArray()
-                                val serializedEnvelope = fragmentedName[fragmentedName.size - 1]
-                                val envelope = deserializeEnvelope(serializedEnvelope)
-                                indexAreaEnvelope.isIntersecting(
-                                        envelope.lowerLeftCorner.longitude.toDouble(),
-                                        envelope.lowerLeftCorner.latitude.toDouble(),
-                                        envelope.upperRightCorner.longitude.toDouble(),
-                                        envelope.upperRightCorner.latitude.toDouble())
-                            }
-                            .map { entry: TarArchiveEntry ->
-                                ByteBuffer.wrap(ByteArray(entry.size.toInt())).apply {
-                                    var readLength: Int
-                                    while (archiveInputStream.read(array(), position(),
-                                                    remaining()).also { readLength = it } > 0) {
-                                        position(position() + readLength)
+                                when {
+                                    !hasIndexEntries -> true
+                                    entry.name == CELL_INDEX_ENTRY_NAME -> {
+                                        cellIndex = deserializeCellIndex(readEntry(archiveInputStream, entry))
+                                        false
                                     }
-                                    position(0)
+                                    entry.name == ENTRY_METADATA_ENTRY_NAME -> {
+                                        metadata = deserializeEntryMetadata(readEntry(archiveInputStream, entry))
+                                        false
+                                    }
+                                    else -> true
                                 }
                             }
-                            .map { deserializeTimeZone(it) }
-                            .map { convertToEsriBackedTimeZone(it) }
-                            .map { timeZone: TimeZone ->
-                                val extents = Envelope2D()
-                                timeZone.region.queryEnvelope2D(extents)
-                                ExtentsAndTimeZone(extents, timeZone)
-                            }
-                            // Throw out anything that doesn't at least partially overlap with the index area.
-                            .filter { indexAreaEnvelope.isIntersecting(it.extents) }
-                            // Sort smallest area first so we have a deterministic ordering of there is an overlap.
-                            .sortedBy { it.timeZone.region.calculateArea2D() }
-                            // Clip the shape to our indexArea so we don't have to keep large time zones that may
-                            // only slightly intersect with the region we're indexing.
-                            .flatMap { t: ExtentsAndTimeZone ->
-                                if (indexAreaEnvelope.contains(t.extents)) return@flatMap sequenceOf(t.timeZone)
-
-                                val intersectedGeometries =
-                                        OperatorIntersection.local().execute(
-                                                SimpleGeometryCursor(t.timeZone.region),
-                                                SimpleGeometryCursor(indexAreaPolygon),
-                                                SPATIAL_REFERENCE,
-                                                null, -1)
-
-                                // Since we're intersecting polygons, the only thing we can get back must be 2 dimensional,
-                                // so it's safe to cast everything we get back as a polygon.
-                                generateSequence { intersectedGeometries.next() as? Polygon }
-                                        .filter { it.pointCount > 0 }
-                                        .map { TimeZone(t.timeZone.zoneId, it) }
-                            }
-                            .toList()
+                            .mapIndexedNotNull { number, entry: TarArchiveEntry ->
+                                entryCount = number + 1
+                                val zoneId = entry.name.substringBeforeLast("/")
+                                val entryMetadata = entryMetadata(metadata, number, zoneId)
+                                val extents = if (entryMetadata != null) {
+                                    envelopeExtents(entryMetadata.envelope)
+                                } else {
+                                    entryExtents(entry)
+                                }
+                                if (envelope.isIntersecting(extents)) {
+                                    ArchiveEntry(zoneId, extents, readEntry(archiveInputStream, entry), number,
+                                            entryMetadata?.area)
+                                } else {
+                                    null
+                                }
+                            })
+                    requireEntryCount(metadata, entryCount)
 
-                    return TimeZoneMap(mapVersion, timeZones, indexAreaEnvelope)
+                    return Triple(version?.mapVersion, result, cellIndex)
                 }
             } catch (e: IOException) {
                 throw IllegalStateException("Unable to read time zone data resource file", e)
             }
         }
 
+        /**
+         * The metadata of a map archive's time zone entry, if the archive has entry metadata.
+         *
+         * @throws IllegalArgumentException If the entry metadata doesn't describe the entry.
+         */
+        internal fun entryMetadata(metadata: List<EntryMetadata>?, number: Int, zoneId: String): EntryMetadata? {
+            if (metadata == null) return null
+            require(number < metadata.size && metadata[number].timeZoneId == zoneId) {
+                "Entry metadata doesn't match time zone entry $number, $zoneId"
+            }
+
+            return metadata[number]
+        }
+
+        /** @throws IllegalArgumentException If the archive has entry metadata for more time zones than it holds. */
+        internal fun requireEntryCount(metadata: List<EntryMetadata>?, entryCount: Int) {
+            if (metadata != null) {
+                require(metadata.size == entryCount) {
+                    "Entry metadata for ${metadata.size} time zones, but the archive holds $entryCount"
+                }
+            }
+        }
+
+        /** Read the contents of the entry the archive is at. */
+        private fun readEntry(archiveInputStream: TarArchiveInputStream, entry: TarArchiveEntry) =
+                ByteBuffer.wrap(ByteArray(entry.size.toInt())).apply {
+                    var readLength: Int
+                    while (archiveInputStream.read(array(), position(), remaining()).also { readLength = it } > 0) {
+                        position(position() + readLength)
+                    }
+                    position(0)
+                }
+
+        /** The extents of a time zone in a map archive, which are the last part of its entry's name. */
+        internal fun entryExtents(entry: TarArchiveEntry) =
+                envelopeExtents(deserializeEnvelope(entry.name.substringAfterLast("/")))
+
+        internal fun envelopeExtents(envelope: Envelope) = Envelope2D(
+                envelope.lowerLeftCorner.longitude.toDouble(), envelope.lowerLeftCorner.latitude.toDouble(),
+                envelope.upperRightCorner.longitude.toDouble(), envelope.upperRightCorner.latitude.toDouble())
+
+        /**
+         * Get the map version and format from the first entry of a map archive, which names them as
+         * `Version: <map version> Format: <format>`, or only names the map version in archives of format 1.
+         *
+         * @throws IllegalArgumentException If the archive wasn't built for this version of the library, or is in a
+         * format it can't read.
+         */
+        internal fun archiveVersion(firstEntry: TarArchiveEntry): ArchiveVersion {
+            val fields = firstEntry.name.split(" ")
+            val mapVersion = requireCompatibleVersion(if (fields.size >= 2) fields[1] else firstEntry.name)
+            val format = if (fields.size > 2) fields.last().toIntOrNull() else 1
+            require(format != null && format in 1..MAP_ARCHIVE_FORMAT_VERSION) {
+                "Unsupported map archive format '${fields.last()}', required at most $MAP_ARCHIVE_FORMAT_VERSION"
+            }
+
+            return ArchiveVersion(mapVersion, format)
+        }
+
+        /**
+         * Check that a map archive's map version is one this version of the library can read. What the archive holds
+         * is told apart by its format instead. See [archiveVersion].
+         *
+         * @throws IllegalArgumentException If the archive wasn't built for this version of the library.
+         */
+        private fun requireCompatibleVersion(version: String): String {
+            require(version.split(":")[0] == BuildInformation.VERSION) {
+                "Incompatible map archive. Detected version is '$version' required version " +
+                        "'${BuildInformation.VERSION}:*'"
+            }
+
+            return version
+        }
+
         @JvmStatic
         fun envelopeToPolygon(envelope: Envelope2D) = Polygon().apply {
             startPath(envelope.xmin, envelope.ymax) // Upper left
@@ -0,0 +1,105 @@
+package us.dustinj.timezonemap
+
+import java.io.InputStream
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Future
+import java.util.concurrent.TimeUnit
+
+/**
+ * Holds the [TimeZoneMap] in use, and replaces it when new time zone data is released, without pausing lookups. The
+ * replacement is built completely before it's published, so lookups keep using the active map in the meantime, and
+ * lookups that have already started finish with the map they started with.
+ *
+ * Reading the active map never takes a lock, so instances are safe and cheap to share between threads. Replacements
+ * are published one at a time.
+ */
+class TimeZoneMapHolder @JvmOverloads constructor(
+        initialMap: TimeZoneMap,
+        /** The options replacement maps are built with. */
+        val options: TimeZoneMapOptions = TimeZoneMapOptions()) {
+
+    @Volatile
+    private var active = initialMap
+
+    /**
+     * The map currently in use. Look locations up in the map returned here, rather than calling this for each step, so
+     * that every step uses the same map even if it's replaced meanwhile.
+     */
+    val map: TimeZoneMap get() = active
+
+    /** The version of the map currently in use. See [TimeZoneMap.mapVersion]. */
+    val mapVersion: String? get() = active.mapVersion
+
+    /** The number of times the map has been replaced. */
+    @Volatile
+    var replacementCount = 0
+        private set
+
+    /** How long the most recent replacement map took to build, in milliseconds, or -1 if none has been built yet. */
+    @Volatile
+    var lastBuildMillis = -1L
+        private set
+
+    /** Equivalent to [TimeZoneMap.getOverlappingTimeZone] on the map currently in use. */
+    fun getOverlappingTimeZone(degreesLatitude: Double, degreesLongitude: Double) =
+            active.getOverlappingTimeZone(degreesLatitude, degreesLongitude)
+
+    /** Equivalent to [TimeZoneMap.getOverlappingTimeZones] on the map currently in use. */
+    fun getOverlappingTimeZones(degreesLatitude: Double, degreesLongitude: Double) =
+            active.getOverlappingTimeZones(degreesLatitude, degreesLongitude)
+
+    /**
+     * Publish a replacement map, which lookups start using immediately.
+     *
+     * @throws IllegalArgumentException If the replacement isn't compatible with the map in use: it must be versioned
+     * for this version of the library, and cover at least the region the map in use was initialized for, so that no
+     * location that could be looked up before fails afterwards.
+     */
+    fun replace(replacement: TimeZoneMap) = replace(replacement, null)
+
+    /** Publish a replacement map, along with how long it took to build if it was built here. */
+    private fun replace(replacement: TimeZoneMap, buildMillis: Long?) = synchronized(this) {
+        val version = replacement.mapVersion
+        require(version != null && version.substringBefore(':') == BuildInformation.VERSION) {
+            "Incompatible map. Detected version is '$version' required version '${BuildInformation.VERSION}:*'"
+        }
+        require(replacement.initializedRegion.contains(active.initializedRegion)) {
+            "Replacement map must cover the region the map in use was initialized for"
+        }
+
+        active = replacement
+        if (buildMillis != null) lastBuildMillis = buildMillis
+        replacementCount++
+    }
+
+    /**
+     * Build a replacement map from a new map archive, on the calling thread, and publish it. The replacement is
+     * initialized for the same region as the map in use. See [TimeZoneMap.forRegion] for the archive's format.
+     *
+     * @return The replacement, which is now in use.
+     * @throws IllegalArgumentException If the archive isn't compatible with this version of the library, or the
+     * replacement isn't compatible with the map in use. See [replace].
+     * @throws IllegalStateException If the archive can't be read.
+     */
+    fun rebuild(tarInputStream: InputStream): TimeZoneMap {
+        val region = active.initializedRegion
+        val start = System.nanoTime()
+        val replacement = TimeZoneMap.forRegion(tarInputStream, region.ymin, region.xmin, region.ymax, region.xmax,
+                options)
+        val buildMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)
+
+        replace(replacement, buildMillis)
+
+        return replacement
+    }
+
+    /**
+     * Equivalent to [rebuild], but run on the provided executor so the calling thread doesn't wait for the build.
+     *
+     * @param tarInputStream Opens the archive, on the executor. The stream is closed once it's been read.
+     * @return The replacement, once it's in use, or the reason it couldn't be built or published.
+     */
+    fun rebuildInBackground(executor: ExecutorService, tarInputStream: Callable<InputStream>): Future<TimeZoneMap> =
+            executor.submit(Callable { rebuild(tarInputStream.call()) })
+}
@@ -0,0 +1,63 @@
+package us.dustinj.timezonemap
+
+import java.util.concurrent.Executor
+
+/**
+ * Settings that tune how a [TimeZoneMap] is initialized, generally trading initialization time and memory for faster
+ * lookups. The defaults match the behavior of a map created without options. Instances are immutable, and each `with`
+ * method returns an updated copy, so options can be built up fluently from Java as well as Kotlin.
+ */
+data class TimeZoneMapOptions(
+        /**
+         * How many times the initialized region may be subdivided when building the cell index, or zero (the default)
+         * to not build a cell index at all. The cell index is a quadtree that remembers which time zones completely
+         * cover each cell, so that lookups in cells away from time zone boundaries don't need to examine any time zone
+         * regions. Cells that straddle a boundary are split in four until this depth is reached. Each additional level
+         * roughly doubles the memory and initialization time spent on the index, and increases the fraction of
+         * lookups that it can answer on its own. When no cell index is built, a map read from a map archive that comes
+         * with a cell index of its own, as the builder writes them, uses that one instead, which costs nothing to
+         * build.
+         */
+        val cellIndexDepth: Int = 0,
+        /**
+         * Time zone regions with more vertices than this have their edges bucketed into latitude bands, so that
+         * checking whether a location is inside them only examines edges near the location's latitude. This makes
+         * lookups in huge regions, such as the oceans and Russia, much faster at the cost of a few bytes of memory per
+         * vertex. Use [Int.MAX_VALUE] to never bucket edges.
+         */
+        val edgeBucketVertexThreshold: Int = DEFAULT_EDGE_BUCKET_VERTEX_THRESHOLD,
+        /**
+         * Where to deserialize and clip time zones while initializing a map, or null (the default) to do everything on
+         * the calling thread. With an executor, the calling thread only reads the archive, handing each time zone to
+         * the executor as soon as it's read, so that initialization takes about as long as the largest time zones on
+         * an executor with enough threads. The map is the same either way. The calling thread waits for the executor,
+         * so it mustn't be one of the executor's own threads unless the executor can always start another.
+         */
+        val initializationExecutor: Executor? = null) {
+
+    init {
+        require(cellIndexDepth in 0..MAX_CELL_INDEX_DEPTH) {
+            "Cell index depth must be between 0 and $MAX_CELL_INDEX_DEPTH"
+        }
+        require(edgeBucketVertexThreshold >= 0) { "Edge bucket vertex threshold must not be negative" }
+    }
+
+    /** @see cellIndexDepth */
+    fun withCellIndexDepth(cellIndexDepth: Int) = copy(cellIndexDepth = cellIndexDepth)
+
+    /** @see edgeBucketVertexThreshold */
+    fun withEdgeBucketVertexThreshold(edgeBucketVertexThreshold: Int) =
+            copy(edgeBucketVertexThreshold = edgeBucketVertexThreshold)
+
+    /** @see initializationExecutor */
+    fun withInitializationExecutor(initializationExecutor: Executor?) =
+            copy(initializationExecutor = initializationExecutor)
+
+    companion object {
+        /** The deepest supported cell index. At this depth, cells of a map for the whole world are about 40m wide. */
+        const val MAX_CELL_INDEX_DEPTH = 20
+
+        /** Below this many vertices, testing every edge is about as fast as finding the right ones. */
+        const val DEFAULT_EDGE_BUCKET_VERTEX_THRESHOLD = 256
+    }
+}
@@ -0,0 +1,84 @@
+package us.dustinj.timezonemap
+
+import java.util.function.ToDoubleFunction
+import java.util.stream.Stream
+
+/**
+ * Looks up the time zones along a track of locations, such as the fixes from a GPS receiver, where each location is
+ * usually close to the one before it. After a location is looked up in the [map], the resolver remembers a distance
+ * around it that no time zone boundary comes within. Following locations that are closer than that are answered with the
+ * remembered time zone after a cheap distance check, and only locations beyond it are looked up in the map again.
+ *
+ * The answers are always the same as the map's. Distances are compared in degrees as though latitude and longitude
+ * were planar coordinates, which is how the map itself tests locations against time zone regions. The remembered
+ * distance is a number of meters on the ground, converted to degrees conservatively for the location's latitude.
+ *
+ * Instances remember the last location, so each one must only be used by one thread at a time, for one track.
+ */
+class TimeZoneTrackResolver(
+        /** The map that locations beyond the remembered distance are looked up in. */
+        val map: TimeZoneMap) {
+
+    private var anchorLatitude = Double.NaN
+    private var anchorLongitude = Double.NaN
+    private var stableRadius = 0.0
+    private var timeZone: TimeZone? = null
+
+    /** The number of locations that were looked up in [map]. */
+    var lookupCount = 0L
+        private set
+
+    /** The number of locations that were answered with the time zone of an earlier location. */
+    var reuseCount = 0L
+        private set
+
+    /**
+     * Equivalent to [TimeZoneMap.getOverlappingTimeZone] on [map].
+     *
+     * @throws IllegalArgumentException If the provided coordinates are outside of the area indexed by [map].
+     */
+    fun getOverlappingTimeZone(degreesLatitude: Double, degreesLongitude: Double): TimeZone? {
+        val latitudeOffset = degreesLatitude - anchorLatitude
+        val longitudeOffset = degreesLongitude - anchorLongitude
+        // Never true for NaN coordinates, or before the first lookup, since the offsets are then NaN.
+        if (latitudeOffset * latitudeOffset + longitudeOffset * longitudeOffset < stableRadius * stableRadius) {
+            reuseCount++
+            return timeZone
+        }
+
+        timeZone = map.getOverlappingTimeZone(degreesLatitude, degreesLongitude)
+        lookupCount++
+        anchorLatitude = degreesLatitude
+        anchorLongitude = degreesLongitude
+        stableRadius = map.getStableRadius(degreesLatitude, degreesLongitude)
+
+        return timeZone
+    }
+
+    /**
+     * Look up the time zone of each location in a track, lazily, as the returned iterator is advanced.
+     *
+     * @param locations The locations, in the order they were visited.
+     * @param degreesLatitude Gets a location's latitude. See [TimeZoneMap.getOverlappingTimeZone].
+     * @param degreesLongitude Gets a location's longitude. See [TimeZoneMap.getOverlappingTimeZone].
+     * @return The time zone in use at each location, in the same order as the locations, or null where no time zone is
+     * in use. Advancing it throws [IllegalArgumentException] at any location outside of the area indexed by [map].
+     */
+    fun <T> resolve(locations: Iterator<T>, degreesLatitude: ToDoubleFunction<in T>,
+            degreesLongitude: ToDoubleFunction<in T>): Iterator<TimeZone?> = object : Iterator<TimeZone?> {
+        override fun hasNext() = locations.hasNext()
+
+        override fun next() = locations.next().let {
+            getOverlappingTimeZone(degreesLatitude.applyAsDouble(it), degreesLongitude.applyAsDouble(it))
+        }
+    }
+
+    /**
+     * The equivalent of resolving an iterator, for a stream. The stream is made sequential, since locations have to be
+     * looked up in order.
+     */
+    fun <T> resolve(locations: Stream<T>, degreesLatitude: ToDoubleFunction<in T>,
+            degreesLongitude: ToDoubleFunction<in T>): Stream<TimeZone?> = locations.sequential().map {
+        getOverlappingTimeZone(degreesLatitude.applyAsDouble(it), degreesLongitude.applyAsDouble(it))
+    }
+}
@@ -6,20 +6,78 @@ import com.esri.core.geometry.Geometry
 import com.esri.core.geometry.GeometryEngine
 import com.esri.core.geometry.Polygon
 import com.esri.core.geometry.SpatialReference
+import us.dustinj.timezonemap.serialization.LatLon
+import us.dustinj.timezonemap.serialization.TimeZoneVisitor
+import us.dustinj.timezonemap.serialization.visitTimeZone
+import java.nio.ByteBuffer
 
 val SPATIAL_REFERENCE = SpatialReference.create("WGS84_WKID")!!
 
 fun containsInclusive(outer: Geometry, inner: Geometry) = GeometryEngine.contains(outer, inner, SPATIAL_REFERENCE) ||
         GeometryEngine.touches(outer, inner, SPATIAL_REFERENCE)
 
-fun convertToEsriBackedTimeZone(timeZone: us.dustinj.timezonemap.serialization.TimeZone): TimeZone {
+fun convertToEsriBackedTimeZone(timeZone: us.dustinj.timezonemap.serialization.TimeZone) =
+        TimeZone(timeZone.timeZoneId, convertToEsriPolygon(timeZone))
+
+internal fun convertToEsriPolygon(timeZone: us.dustinj.timezonemap.serialization.TimeZone) =
+        convertToEsriPolygon(timeZone.regions)
+
+internal fun convertToEsriPolygon(regions: List<List<List<LatLon>>>): Polygon {
     val newPolygon = Polygon()
 
-    for (region in timeZone.regions.flatten()) {
+    for (region in regions.flatten()) {
         newPolygon.startPath(region[0].longitude.toDouble(), region[0].latitude.toDouble())
         region.subList(1, region.size)
                 .forEach { newPolygon.lineTo(it.longitude.toDouble(), it.latitude.toDouble()) }
     }
 
-    return TimeZone(timeZone.timeZoneId, newPolygon)
+    return newPolygon
+}
+
+/**
+ * A coarser copy of a time zone's region as an Esri polygon. See
+ * [us.dustinj.timezonemap.serialization.Generalization].
+ */
+internal class EsriGeneralization(val maxDeviation: Double, val region: Polygon)
+
+/** A serialized time zone, decoded into Esri polygons by [decodeToEsri]. */
+internal class EsriTimeZone(val timeZoneId: String, val region: Polygon, val generalizations: List<EsriGeneralization>)
+
+/**
+ * Decode a serialized time zone straight into Esri polygons, which is what a map needs of it, without deserializing it
+ * into a [us.dustinj.timezonemap.serialization.TimeZone] with an object for every point along the way.
+ */
+internal fun decodeToEsri(serializedTimeZone: ByteBuffer): EsriTimeZone {
+    val builder = EsriPolygonBuilder()
+    val timeZoneId = visitTimeZone(serializedTimeZone, builder)
+
+    return EsriTimeZone(timeZoneId, builder.region, builder.generalizations)
+}
+
+/** Builds a time zone's region, and a polygon for each of its generalizations, as they're visited. */
+private class EsriPolygonBuilder : TimeZoneVisitor {
+    val region = Polygon()
+    val generalizations = mutableListOf<EsriGeneralization>()
+    private var polygon = region
+    private var ringStarted = false
+
+    override fun startGeneralization(maxDeviation: Double) {
+        polygon = Polygon()
+        generalizations.add(EsriGeneralization(maxDeviation, polygon))
+    }
+
+    override fun startPolygon(ringCount: Int) = Unit
+
+    override fun startRing(pointCount: Int) {
+        ringStarted = false
+    }
+
+    override fun point(latitude: Float, longitude: Float) {
+        if (ringStarted) {
+            polygon.lineTo(longitude.toDouble(), latitude.toDouble())
+        } else {
+            polygon.startPath(longitude.toDouble(), latitude.toDouble())
+            ringStarted = true
+        }
+    }
 }
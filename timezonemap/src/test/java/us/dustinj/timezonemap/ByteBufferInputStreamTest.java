@@ -0,0 +1,36 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class ByteBufferInputStreamTest {
+
+    @Test
+    public void readsAndSkipsThroughTheBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap(new byte[] { 1, (byte) 0xFF, 3, 4, 5, 6 });
+        ByteBufferInputStream stream = new ByteBufferInputStream(buffer);
+        byte[] read = new byte[4];
+
+        assertThat(stream.available()).isEqualTo(6);
+        assertThat(stream.read()).isEqualTo(1);
+        assertThat(stream.read()).isEqualTo(0xFF);
+        assertThat(stream.read(read, 0, 0)).isZero();
+        assertThat(stream.read(read, 1, 2)).isEqualTo(2);
+        assertThat(read).containsExactly(0, 3, 4, 0);
+        assertThat(buffer.position()).isEqualTo(4);
+
+        assertThat(stream.skip(-1)).isZero();
+        assertThat(stream.skip(1)).isEqualTo(1);
+        assertThat(buffer.position()).isEqualTo(5);
+        assertThat(stream.read(read, 0, 4)).isEqualTo(1);
+        assertThat(read[0]).isEqualTo((byte) 6);
+
+        assertThat(stream.skip(10)).isZero();
+        assertThat(stream.read()).isEqualTo(-1);
+        assertThat(stream.read(read, 0, 4)).isEqualTo(-1);
+        assertThat(stream.available()).isZero();
+    }
+}
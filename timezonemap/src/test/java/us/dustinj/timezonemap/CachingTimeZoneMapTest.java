@@ -0,0 +1,148 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static us.dustinj.timezonemap.TimeZoneMapTest.createMapArchive;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+public class CachingTimeZoneMapTest {
+    private static final String ZONE_ID = UtilTest.getSquareWithIsland().getTimeZoneId();
+
+    private static CachingTimeZoneMap createSquareMap() throws IOException {
+        return new CachingTimeZoneMap(
+                TimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), 0, 0, 3, 3), 0.1, 100);
+    }
+
+    private static void assertMatchesMap(CachingTimeZoneMap cache, double latitude, double longitude) {
+        assertThat(cache.getOverlappingTimeZone(latitude, longitude))
+                .as("(%s, %s)", latitude, longitude)
+                .isEqualTo(cache.getMap().getOverlappingTimeZone(latitude, longitude));
+        assertThat(cache.getOverlappingTimeZones(latitude, longitude))
+                .as("(%s, %s)", latitude, longitude)
+                .isEqualTo(cache.getMap().getOverlappingTimeZones(latitude, longitude));
+    }
+
+    @Test
+    public void uniformCell() throws IOException {
+        CachingTimeZoneMap cache = createSquareMap();
+
+        assertThat(cache.getOverlappingTimeZone(1.25, 1.25).getZoneId()).isEqualTo(ZONE_ID);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isZero();
+
+        // Elsewhere in the same cell
+        assertThat(cache.getOverlappingTimeZone(1.21, 1.29).getZoneId()).isEqualTo(ZONE_ID);
+        assertThat(cache.getOverlappingTimeZones(1.29, 1.21)).extracting(TimeZone::getZoneId).containsExactly(ZONE_ID);
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(2);
+        assertThat(cache.getSize()).isEqualTo(1);
+    }
+
+    @Test
+    public void cellWithoutTimeZone() throws IOException {
+        CachingTimeZoneMap cache = createSquareMap();
+
+        assertThat(cache.getOverlappingTimeZone(0.55, 0.55)).isNull();
+        assertThat(cache.getOverlappingTimeZones(0.55, 0.55)).isEmpty();
+        assertThat(cache.getMissCount()).isEqualTo(1);
+        assertThat(cache.getHitCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void cellOnBoundary() throws IOException {
+        CachingTimeZoneMap cache = createSquareMap();
+
+        // On the square's edge, and either side of it
+        for (int i = 0; i < 2; i++) {
+            assertThat(cache.getOverlappingTimeZone(1.55, 1.0).getZoneId()).isEqualTo(ZONE_ID);
+            assertThat(cache.getOverlappingTimeZone(1.55, 1.01).getZoneId()).isEqualTo(ZONE_ID);
+            assertThat(cache.getOverlappingTimeZone(1.55, 0.99)).isNull();
+        }
+        assertThat(cache.getHitCount()).isZero();
+        assertThat(cache.getMissCount()).isEqualTo(6);
+        assertThat(cache.getSize()).isEqualTo(2);
+    }
+
+    @Test
+    public void matchesMap() throws IOException {
+        CachingTimeZoneMap cache = createSquareMap();
+        Random random = new Random(42);
+
+        for (int i = 0; i < 10_000; i++) {
+            assertMatchesMap(cache, random.nextDouble() * 3, random.nextDouble() * 3);
+        }
+        assertThat(cache.getHitCount()).isPositive();
+        assertThat(cache.getSize()).isEqualTo(100);
+    }
+
+    @Test
+    public void matchesMap_realTimeZones() throws Exception {
+        // Idaho, where the boundary between Pacific and Mountain time is irregular
+        CachingTimeZoneMap cache = new CachingTimeZoneMap(TimeZoneMap.forRegion(45.0, -117.5, 46.5, -115.5));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            List<Future<?>> results = new ArrayList<>();
+            for (int thread = 0; thread < 4; thread++) {
+                Random random = new Random(thread);
+                results.add(executor.submit(() -> {
+                    for (int i = 0; i < 5_000; i++) {
+                        // A coarse grid of locations, so that they share cells
+                        assertMatchesMap(cache, 45.0 + random.nextInt(300) * 0.005, -117.5 + random.nextInt(400) * 0.005);
+                    }
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(cache.getHitCount()).isPositive();
+        assertThat(cache.getHitCount() + cache.getMissCount()).isEqualTo(4 * 5_000 * 2);
+    }
+
+    @Test
+    public void invalidInput() throws IOException {
+        TimeZoneMap map = createSquareMap().getMap();
+        CachingTimeZoneMap cache = new CachingTimeZoneMap(map);
+
+        assertThat(cache.getCellSizeDegrees()).isEqualTo(CachingTimeZoneMap.DEFAULT_CELL_SIZE_DEGREES);
+        assertThat(cache.getMaximumSize()).isEqualTo(CachingTimeZoneMap.DEFAULT_MAXIMUM_SIZE);
+        assertThatThrownBy(() -> new CachingTimeZoneMap(map, 0.0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CachingTimeZoneMap(map, Double.NaN))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CachingTimeZoneMap(map, 181.0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new CachingTimeZoneMap(map, 0.1, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThatThrownBy(() -> cache.getOverlappingTimeZone(3.5, 1.0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> cache.getOverlappingTimeZones(Double.NaN, 1.0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThat(cache.getMissCount()).isZero();
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsed() throws IOException {
+        CachingTimeZoneMap cache = new CachingTimeZoneMap(createSquareMap().getMap(), 0.1, 1);
+
+        cache.getOverlappingTimeZone(1.25, 1.25);
+        cache.getOverlappingTimeZone(0.55, 0.55);
+        cache.getOverlappingTimeZone(1.25, 1.25);
+        assertThat(cache.getSize()).isEqualTo(1);
+        assertThat(cache.getMissCount()).isEqualTo(3);
+    }
+}
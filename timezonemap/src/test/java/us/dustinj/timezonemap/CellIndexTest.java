@@ -0,0 +1,125 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.Geometry;
+import com.esri.core.geometry.Point;
+import com.google.common.collect.ImmutableList;
+
+import us.dustinj.timezonemap.serialization.ArchiveCellIndex;
+import us.dustinj.timezonemap.serialization.Envelope;
+import us.dustinj.timezonemap.serialization.LatLon;
+
+public class CellIndexTest {
+    private static final Envelope2D BOUNDS = new Envelope2D(0, 0, 3, 3);
+
+    // The square with an island, and a second square overlapping its upper right corner.
+    private static final List<Geometry> REGIONS = ImmutableList.of(
+            UtilTest.getSquareWithIslandTimeZone().getRegion(),
+            TimeZoneMap.envelopeToPolygon(new Envelope2D(1.5, 1.5, 2.5, 2.5)));
+
+    private static final PackedRTree.ItemPredicate CONTAINS =
+            (i, x, y) -> Util.containsInclusive(REGIONS.get(i), new Point(x, y));
+
+    private static int[] bruteForce(double x, double y) {
+        return IntStream.range(0, REGIONS.size())
+                .filter(i -> CONTAINS.test(i, x, y))
+                .toArray();
+    }
+
+    private static int[] timeZonesAt(CellIndex cellIndex, double x, double y) {
+        return cellIndex.timeZones(cellIndex.leafAt(x, y), x, y, CONTAINS);
+    }
+
+    private static int firstTimeZoneAt(CellIndex cellIndex, double x, double y) {
+        return cellIndex.firstTimeZone(cellIndex.leafAt(x, y), x, y, CONTAINS);
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        CellIndex cellIndex = new CellIndex(REGIONS, BOUNDS, 6);
+        int pureCount = 0;
+        int total = 0;
+
+        for (double x = 0; x <= 3; x += 0.02) {
+            for (double y = 0; y <= 3; y += 0.02) {
+                int leaf = cellIndex.leafAt(x, y);
+                total++;
+                if (leaf == CellIndex.MIXED) {
+                    continue;
+                }
+
+                int[] expected = bruteForce(x, y);
+                assertThat(cellIndex.timeZones(leaf, x, y, CONTAINS)).as("(%s, %s)", x, y).containsExactly(expected);
+                assertThat(cellIndex.firstTimeZone(leaf, x, y, CONTAINS))
+                        .as("(%s, %s)", x, y)
+                        .isEqualTo(expected.length == 0 ? -1 : expected[0]);
+                pureCount++;
+            }
+        }
+
+        assertThat(pureCount).isGreaterThan(total * 9 / 10);
+    }
+
+    @Test
+    public void pureCells() {
+        CellIndex cellIndex = new CellIndex(REGIONS, BOUNDS, 6);
+
+        assertThat(timeZonesAt(cellIndex, 0.5, 0.5)).isEmpty(); // Outside everything
+        assertThat(firstTimeZoneAt(cellIndex, 0.5, 0.5)).isEqualTo(-1);
+        assertThat(timeZonesAt(cellIndex, 1.3, 1.3)).containsExactly(0); // Square only
+        assertThat(timeZonesAt(cellIndex, 1.8, 1.8)).containsExactly(0, 1); // Overlap
+        assertThat(timeZonesAt(cellIndex, 2.3, 2.3)).containsExactly(1); // Second square only
+        assertThat(timeZonesAt(cellIndex, 1.4, 1.55)).isEmpty(); // In the hole
+    }
+
+    @Test
+    public void boundariesAreMixed() {
+        CellIndex cellIndex = new CellIndex(REGIONS, BOUNDS, 6);
+
+        assertThat(cellIndex.leafAt(1.0, 1.5)).isEqualTo(CellIndex.MIXED);
+        assertThat(cellIndex.leafAt(2.5, 2.5)).isEqualTo(CellIndex.MIXED);
+        assertThat(cellIndex.leafAt(1.25, 1.6)).isEqualTo(CellIndex.MIXED); // Bottom of the island
+    }
+
+    @Test
+    public void depthControlsSize() {
+        CellIndex disabled = new CellIndex(REGIONS, BOUNDS, 0);
+        CellIndex shallow = new CellIndex(REGIONS, BOUNDS, 3);
+        CellIndex deep = new CellIndex(REGIONS, BOUNDS, 7);
+
+        assertThat(disabled.getNodeCount()).isEqualTo(1);
+        assertThat(disabled.leafAt(0.5, 0.5)).isEqualTo(CellIndex.MIXED);
+        assertThat(shallow.getNodeCount()).isGreaterThan(1).isLessThan(deep.getNodeCount());
+    }
+
+    @Test
+    public void fromArchive() {
+        // The archive's time zone entries are a time zone that's not in the map, the second square and then the
+        // square. The cells around the squares are split once more than the rest, and list the time zones that
+        // cover them as they are and the ones that only cover or touch part of them as their complement.
+        ArchiveCellIndex archiveCellIndex = new ArchiveCellIndex(new Envelope(new LatLon(1, 1), new LatLon(3, 3)), 3,
+                new int[] {1, 5, ~3, ~3, ~3, ~0, ~0, ~1, ~2},
+                new int[] {0, 2, 5, 7, 9},
+                new int[] {~1, 2, ~0, ~1, ~2, 1, 2, ~1, ~2});
+        CellIndex cellIndex = CellIndex.Companion.fromArchive(new Envelope2D(1, 1, 3, 3), archiveCellIndex,
+                new int[] {-1, 1, 0});
+
+        for (double x = 1; x <= 3; x += 0.02) {
+            for (double y = 1; y <= 3; y += 0.02) {
+                int[] expected = bruteForce(x, y);
+                assertThat(timeZonesAt(cellIndex, x, y)).as("(%s, %s)", x, y).containsExactly(expected);
+                assertThat(firstTimeZoneAt(cellIndex, x, y))
+                        .as("(%s, %s)", x, y)
+                        .isEqualTo(expected.length == 0 ? -1 : expected[0]);
+            }
+        }
+        assertThat(cellIndex.getNodeCount()).isEqualTo(9);
+    }
+}
@@ -0,0 +1,320 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.assertj.core.api.Assertions.byLessThan;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.esri.core.geometry.Envelope;
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.GeometryEngine;
+import com.esri.core.geometry.Point;
+import com.esri.core.geometry.Point2D;
+import com.esri.core.geometry.Polygon;
+import com.esri.core.geometry.SpatialReference;
+
+public class FlatRegionTest {
+    // Every test is run both with and without the edges bucketed into latitude bands.
+    private static final int[] EDGE_BUCKET_VERTEX_THRESHOLDS = {Integer.MAX_VALUE, 0};
+
+    private static void assertMatchesEsri(Polygon region, FlatRegion flatRegion, double x, double y) {
+        assertThat(flatRegion.containsInclusive(x, y))
+                .as("(%s, %s)", x, y)
+                .isEqualTo(Util.containsInclusive(region, new Point(x, y)));
+    }
+
+    /**
+     * Check locations on, and just either side of, vertices and edge midpoints, where the boundary tolerance decides the
+     * answer. Only every stride'th edge is checked.
+     */
+    private static void assertBoundaryMatchesEsri(Polygon region, FlatRegion flatRegion, int stride) {
+        // Esri's tolerance depends on the magnitude of the coordinates, so offsets straddle it for small and large ones.
+        double[] offsets = {0, 1e-14, 1e-13, 1e-12, 5e-12, 1e-11, 1e-9};
+
+        for (int path = 0; path < region.getPathCount(); path++) {
+            for (int i = region.getPathStart(path); i < region.getPathEnd(path); i += stride) {
+                Point2D start = region.getXY(i);
+                Point2D end = region.getXY(i + 1 < region.getPathEnd(path) ? i + 1 : region.getPathStart(path));
+                Point2D middle = new Point2D((start.x + end.x) / 2, (start.y + end.y) / 2);
+
+                for (double offset : offsets) {
+                    for (Point2D location : new Point2D[] {start, middle}) {
+                        assertMatchesEsri(region, flatRegion, location.x + offset, location.y);
+                        assertMatchesEsri(region, flatRegion, location.x - offset, location.y);
+                        assertMatchesEsri(region, flatRegion, location.x, location.y + offset);
+                        assertMatchesEsri(region, flatRegion, location.x, location.y - offset);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void squareWithIsland() {
+        Polygon region = UtilTest.getSquareWithIslandTimeZone().getRegion();
+
+        for (int threshold : EDGE_BUCKET_VERTEX_THRESHOLDS) {
+            FlatRegion flatRegion = new FlatRegion(region, threshold);
+            Random random = new Random(42);
+
+            assertThat(flatRegion.containsInclusive(1.3, 1.3)).isTrue(); // In the square
+            assertThat(flatRegion.containsInclusive(1.4, 1.55)).isFalse(); // In the hole
+            assertThat(flatRegion.containsInclusive(1.25, 1.65)).isTrue(); // On the island
+            assertThat(flatRegion.containsInclusive(0.5, 0.5)).isFalse(); // Outside
+            assertThat(flatRegion.containsInclusive(1.0, 1.5)).isTrue(); // On the outer edge
+            assertThat(flatRegion.containsInclusive(1.1, 1.5)).isTrue(); // On the corner of the hole
+
+            for (int i = 0; i < 10_000; i++) {
+                assertMatchesEsri(region, flatRegion, random.nextDouble() * 3, random.nextDouble() * 3);
+            }
+            assertBoundaryMatchesEsri(region, flatRegion, 1);
+        }
+    }
+
+    @Test
+    public void realTimeZones() {
+        // Idaho, where the boundary between Pacific and Mountain time is irregular
+        TimeZoneMap map = TimeZoneMap.forRegion(45.0, -117.5, 46.5, -115.5);
+        Random random = new Random(42);
+
+        for (TimeZone timeZone : map.getTimeZones()) {
+            for (int threshold : EDGE_BUCKET_VERTEX_THRESHOLDS) {
+                FlatRegion flatRegion = new FlatRegion(timeZone.getRegion(), threshold);
+
+                for (int i = 0; i < 1_000; i++) {
+                    assertMatchesEsri(timeZone.getRegion(), flatRegion,
+                            -117.5 + random.nextDouble() * 2.0, 45.0 + random.nextDouble() * 1.5);
+                }
+                assertBoundaryMatchesEsri(timeZone.getRegion(), flatRegion, 17);
+            }
+        }
+    }
+
+    @Test
+    public void degenerateEdges() {
+        // A triangle with a repeated vertex, and a ray from a location that passes exactly through vertices
+        Polygon region = new Polygon();
+        region.startPath(0, 0);
+        region.lineTo(0, 0);
+        region.lineTo(2, 0);
+        region.lineTo(1, 2);
+
+        for (int threshold : EDGE_BUCKET_VERTEX_THRESHOLDS) {
+            FlatRegion flatRegion = new FlatRegion(region, threshold);
+
+            assertThat(flatRegion.containsInclusive(0, 0)).isTrue();
+            assertThat(flatRegion.containsInclusive(2, 0)).isTrue();
+            assertThat(flatRegion.containsInclusive(0.5, 0)).isTrue();
+            assertThat(flatRegion.containsInclusive(-1, 0)).isFalse();
+            assertThat(flatRegion.containsInclusive(1, 1)).isTrue();
+            assertThat(flatRegion.containsInclusive(0.5, 2)).isFalse();
+        }
+    }
+
+    @Test
+    public void flatRegion() {
+        // No height at all, so every location is in either the first or last latitude band
+        Polygon region = new Polygon();
+        region.startPath(0, 0);
+        region.lineTo(1, 0);
+        region.lineTo(2, 0);
+
+        for (int threshold : EDGE_BUCKET_VERTEX_THRESHOLDS) {
+            FlatRegion flatRegion = new FlatRegion(region, threshold);
+
+            assertThat(flatRegion.containsInclusive(0.5, 0)).isTrue();
+            assertThat(flatRegion.containsInclusive(2, 0)).isTrue();
+            assertThat(flatRegion.containsInclusive(0.5, 1e-9)).isFalse();
+            assertThat(flatRegion.containsInclusive(0.5, -1e-9)).isFalse();
+        }
+    }
+
+    private static Polygon getSquare(double min, double max) {
+        Polygon square = new Polygon();
+        square.startPath(min, min);
+        square.lineTo(min, max);
+        square.lineTo(max, max);
+        square.lineTo(max, min);
+        return square;
+    }
+
+    @Test
+    public void generalizations() {
+        // A square whose top edge is a saw tooth rising 0.05 above the generalizations' straight edge.
+        Polygon region = new Polygon();
+        region.startPath(1, 1);
+        region.lineTo(1, 3);
+        for (int tooth = 0; tooth < 100; tooth++) {
+            region.lineTo(1 + tooth * 0.02 + 0.01, 3.05);
+            region.lineTo(1 + tooth * 0.02 + 0.02, 3);
+        }
+        region.lineTo(3, 1);
+
+        for (int threshold : EDGE_BUCKET_VERTEX_THRESHOLDS) {
+            FlatRegion flatRegion = new FlatRegion(region, threshold, Arrays.asList(
+                    FlatRegion.Companion.generalization(getSquare(0.5, 3.5), 0.75, threshold),
+                    FlatRegion.Companion.generalization(getSquare(1, 3), 0.05, threshold)));
+            Random random = new Random(42);
+
+            for (int i = 0; i < 10_000; i++) {
+                assertMatchesEsri(region, flatRegion, random.nextDouble() * 4, random.nextDouble() * 4);
+            }
+            assertBoundaryMatchesEsri(region, flatRegion, 1);
+            assertThat(flatRegion).isEqualTo(new FlatRegion(region, threshold));
+            assertThat(flatRegion.getSizeBytes()).isGreaterThan(new FlatRegion(region, threshold).getSizeBytes());
+        }
+    }
+
+    @Test
+    public void generalizationsAnswerAwayFromTheirRings() throws IOException {
+        // A generalization that's wrong shows which locations it answers for.
+        Polygon region = getSquare(1, 3);
+
+        for (int threshold : EDGE_BUCKET_VERTEX_THRESHOLDS) {
+            FlatRegion flatRegion = new FlatRegion(region, threshold,
+                    Collections.singletonList(FlatRegion.Companion.generalization(getSquare(1, 2), 0.01, threshold)));
+
+            assertThat(flatRegion.containsInclusive(1.5, 1.5)).isTrue();
+            assertThat(flatRegion.containsInclusive(2.5, 2.5)).isFalse(); // Far from the generalization's rings
+            assertThat(flatRegion.containsInclusive(2.005, 1.5)).isTrue(); // Close to them, so the region answers
+            assertThat(flatRegion.containsInclusive(3 + 1e-13, 2.5)).isTrue(); // Just outside the extents, likewise
+            assertThat(flatRegion.containsInclusive(3.5, 2.5)).isFalse();
+
+            // Snapshots keep generalizations
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            SnapshotWriter writer = new SnapshotWriter(Channels.newChannel(bytes));
+            flatRegion.write(writer);
+            writer.finish();
+            FlatRegion restored = FlatRegion.Companion.read(
+                    SnapshotReader.Companion.verify(ByteBuffer.wrap(bytes.toByteArray())));
+            assertThat(restored.containsInclusive(2.5, 2.5)).isFalse();
+            assertThat(restored.containsInclusive(2.005, 1.5)).isTrue();
+            assertThat(restored.getSizeBytes()).isEqualTo(flatRegion.getSizeBytes());
+        }
+    }
+
+    @Test
+    public void emptyRegion() {
+        for (int threshold : EDGE_BUCKET_VERTEX_THRESHOLDS) {
+            assertThat(new FlatRegion(new Polygon(), threshold).containsInclusive(0, 0)).isFalse();
+        }
+    }
+
+    private static void assertRelateMatchesEsri(Polygon region, FlatRegion flatRegion, Envelope2D rectangle) {
+        Envelope envelope = new Envelope(rectangle);
+        SpatialReference spatialReference = Util.getSPATIAL_REFERENCE();
+        switch (flatRegion.relate(rectangle)) {
+            case FlatRegion.INSIDE:
+                assertThat(GeometryEngine.contains(region, envelope, spatialReference)).as("%s", rectangle).isTrue();
+                break;
+            case FlatRegion.OUTSIDE:
+                assertThat(GeometryEngine.disjoint(region, envelope, spatialReference)).as("%s", rectangle).isTrue();
+                break;
+            default:
+                assertThat(GeometryEngine.contains(region, envelope, spatialReference)).as("%s", rectangle).isFalse();
+        }
+    }
+
+    @Test
+    public void relate() {
+        Polygon region = UtilTest.getSquareWithIslandTimeZone().getRegion();
+
+        for (int threshold : EDGE_BUCKET_VERTEX_THRESHOLDS) {
+            FlatRegion flatRegion = new FlatRegion(region, threshold);
+            Random random = new Random(42);
+
+            assertThat(flatRegion.relate(new Envelope2D(1.2, 1.2, 1.4, 1.4))).isEqualTo(FlatRegion.INSIDE);
+            assertThat(flatRegion.relate(new Envelope2D(1.35, 1.52, 1.45, 1.58))).isEqualTo(FlatRegion.OUTSIDE); // Hole
+            assertThat(flatRegion.relate(new Envelope2D(1.22, 1.62, 1.28, 1.68))).isEqualTo(FlatRegion.INSIDE); // Island
+            assertThat(flatRegion.relate(new Envelope2D(0.2, 0.2, 0.8, 0.8))).isEqualTo(FlatRegion.OUTSIDE);
+            assertThat(flatRegion.relate(new Envelope2D(0.0, 0.0, 3.0, 0.8))).isEqualTo(FlatRegion.OUTSIDE);
+            assertThat(flatRegion.relate(new Envelope2D(0.9, 1.2, 1.1, 1.4))).isEqualTo(FlatRegion.CROSSES);
+            assertThat(flatRegion.relate(new Envelope2D(0.0, 0.0, 3.0, 3.0))).isEqualTo(FlatRegion.CROSSES);
+            // Touching the boundary from outside
+            assertThat(flatRegion.relate(new Envelope2D(0.5, 1.2, 1.0, 1.4))).isEqualTo(FlatRegion.CROSSES);
+
+            for (int i = 0; i < 2_000; i++) {
+                double x = random.nextDouble() * 3;
+                double y = random.nextDouble() * 3;
+                double size = random.nextDouble() * 0.2;
+                assertRelateMatchesEsri(region, flatRegion, new Envelope2D(x, y, x + size, y + size));
+            }
+        }
+        assertThat(new FlatRegion(new Polygon(), 0).relate(new Envelope2D(0, 0, 1, 1))).isEqualTo(FlatRegion.OUTSIDE);
+    }
+
+    @Test
+    public void nearestBoundaryPoint() {
+        Polygon region = UtilTest.getSquareWithIslandTimeZone().getRegion();
+        FlatRegion flatRegion = new FlatRegion(region, 0);
+        Random random = new Random(42);
+
+        // The region's vertices are stored as floats, so they're only close to the round numbers they were given as
+        assertThat(boundaryDistance(flatRegion, 1.3, 1.05)).isCloseTo(0.05, byLessThan(1e-6));
+        assertThat(boundaryDistance(flatRegion, 1.0, 1.5)).isZero();
+        assertThat(boundaryDistance(flatRegion, 1.25, 1.65)).isCloseTo(0.05, byLessThan(1e-6)); // Island's middle
+        for (int i = 0; i < 1_000; i++) {
+            assertNearestBoundaryMatchesEsri(region, flatRegion, random.nextDouble() * 3, random.nextDouble() * 3);
+        }
+        // Equally near the bottom of the square and the bottom of the hole
+        assertNearestBoundaryMatchesEsri(region, flatRegion, 1.4, 1.25);
+        assertThat(flatRegion.nearestBoundaryPoint(1.3, 1.05, 0.04)).isNull();
+        assertThat(flatRegion.nearestBoundaryPoint(1.3, 1.05, 0.06)).isNotNull();
+        assertThat(new FlatRegion(new Polygon(), 0).nearestBoundaryPoint(0, 0, Double.POSITIVE_INFINITY)).isNull();
+    }
+
+    @Test
+    public void sizeCountsBoundaryIndexOnceBuilt() {
+        FlatRegion flatRegion = new FlatRegion(UtilTest.getSquareWithIslandTimeZone().getRegion(), 0);
+        long sizeBytes = flatRegion.getSizeBytes();
+
+        flatRegion.containsInclusive(1.3, 1.05);
+        assertThat(flatRegion.getSizeBytes()).isEqualTo(sizeBytes);
+        flatRegion.nearestBoundaryPoint(1.3, 1.05, Double.POSITIVE_INFINITY);
+        assertThat(flatRegion.getSizeBytes()).isGreaterThan(sizeBytes);
+    }
+
+    @Test
+    public void nearestBoundaryPoint_realTimeZones() {
+        // Idaho, where the boundary between Pacific and Mountain time is irregular
+        TimeZoneMap map = TimeZoneMap.forRegion(45.0, -117.5, 46.5, -115.5);
+        Random random = new Random(42);
+
+        for (TimeZone timeZone : map.getTimeZones()) {
+            FlatRegion flatRegion = new FlatRegion(timeZone.getRegion(), 0);
+
+            for (int i = 0; i < 1_000; i++) {
+                assertNearestBoundaryMatchesEsri(timeZone.getRegion(), flatRegion,
+                        -117.5 + random.nextDouble() * 2.0, 45.0 + random.nextDouble() * 1.5);
+            }
+        }
+    }
+
+    private static void assertNearestBoundaryMatchesEsri(Polygon region, FlatRegion flatRegion, double x, double y) {
+        Point2D expected = GeometryEngine.getNearestCoordinate(region, new Point(x, y), false).getCoordinate().getXY();
+        Point2D nearest = flatRegion.nearestBoundaryPoint(x, y, Double.POSITIVE_INFINITY);
+
+        assertThat(Point2D.distance(nearest, expected)).as("(%s, %s)", x, y).isLessThan(1e-12);
+    }
+
+    private static double boundaryDistance(FlatRegion flatRegion, double x, double y) {
+        return Point2D.distance(flatRegion.nearestBoundaryPoint(x, y, Double.POSITIVE_INFINITY), new Point2D(x, y));
+    }
+
+    @Test
+    public void windingFillRuleUnsupported() {
+        Polygon region = new Polygon();
+        region.setFillRule(Polygon.FillRule.enumFillRuleWinding);
+
+        assertThatThrownBy(() -> new FlatRegion(region, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,133 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static us.dustinj.timezonemap.TimeZoneMapTest.createMapArchive;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class LazyTimeZoneMapTest {
+
+    private static void assertMatches(LazyTimeZoneMap lazy, TimeZoneMap map, double latitude, double longitude) {
+        assertThat(lazy.getOverlappingTimeZones(latitude, longitude))
+                .as("(%s, %s)", latitude, longitude)
+                .isEqualTo(map.getOverlappingTimeZones(latitude, longitude));
+        assertThat(lazy.getOverlappingTimeZone(latitude, longitude))
+                .as("(%s, %s)", latitude, longitude)
+                .isEqualTo(map.getOverlappingTimeZone(latitude, longitude));
+    }
+
+    @Test
+    public void matchesTimeZoneMapEverywhere() {
+        LazyTimeZoneMap lazy = LazyTimeZoneMap.forEverywhere();
+        TimeZoneMap map = TimeZoneMap.forEverywhere();
+        Random random = new Random(42);
+
+        assertThat(lazy.getMapVersion()).isEqualTo(map.getMapVersion());
+        assertThat(lazy.getInitializedRegion()).isEqualTo(map.getInitializedRegion());
+        for (int i = 0; i < 2_000; i++) {
+            assertMatches(lazy, map, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+        }
+        // Xinjiang, where Asia/Urumqi overlaps Asia/Shanghai
+        assertThat(lazy.getOverlappingTimeZones(42.534980, 87.615030).stream()
+                .map(TimeZone::getZoneId)
+                .collect(Collectors.toList()))
+                .containsExactly("Asia/Urumqi", "Asia/Shanghai");
+    }
+
+    @Test
+    public void matchesClippedTimeZoneMap() {
+        LazyTimeZoneMap lazy = LazyTimeZoneMap.forRegion(38.0, 72.0, 46.0, 92.0);
+        TimeZoneMap map = TimeZoneMap.forRegion(38.0, 72.0, 46.0, 92.0);
+        Random random = new Random(42);
+
+        assertThat(lazy.getTimeZoneCount()).isLessThan(30);
+        for (int i = 0; i < 1_000; i++) {
+            assertMatches(lazy, map, 38.0 + random.nextDouble() * 8.0, 72.0 + random.nextDouble() * 20.0);
+        }
+        assertMatches(lazy, map, 38.0, 72.0);
+        assertMatches(lazy, map, 46.0, 92.0);
+    }
+
+    @Test
+    public void onlyDeserializesTimeZonesThatAreLookedUp() {
+        LazyTimeZoneMap lazy = LazyTimeZoneMap.forEverywhere();
+
+        assertThat(lazy.getTimeZoneCount()).isGreaterThan(400);
+        assertThat(lazy.getDeserializedCount()).isZero();
+
+        assertThat(lazy.getOverlappingTimeZone(39.7392, -104.9903).getZoneId()).isEqualTo("America/Denver");
+        int deserialized = lazy.getDeserializedCount();
+        assertThat(deserialized).isBetween(1, 20);
+
+        lazy.getOverlappingTimeZone(39.7392, -104.9903);
+        lazy.getOverlappingTimeZone(39.74, -104.99);
+        assertThat(lazy.getDeserializedCount()).isEqualTo(deserialized);
+    }
+
+    @Test
+    public void concurrentLookupsDeserializeOnce() throws Exception {
+        LazyTimeZoneMap lazy = LazyTimeZoneMap.forEverywhere();
+        LazyTimeZoneMap expected = LazyTimeZoneMap.forEverywhere();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<TimeZone>> results = IntStream.range(0, 64)
+                    .mapToObj(i -> executor.submit(() -> lazy.getOverlappingTimeZone(48.8566, 2.3522)))
+                    .collect(Collectors.toList());
+            for (Future<TimeZone> result : results) {
+                assertThat(result.get().getZoneId()).isEqualTo("Europe/Paris");
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        expected.getOverlappingTimeZone(48.8566, 2.3522);
+        assertThat(lazy.getDeserializedCount()).isEqualTo(expected.getDeserializedCount());
+    }
+
+    @Test
+    public void squareWithIsland() throws IOException {
+        LazyTimeZoneMap lazy = LazyTimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), 0, 0, 3, 3);
+        TimeZoneMap map = TimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), 0, 0, 3, 3);
+
+        assertThat(lazy.getMapVersion()).isEqualTo(BuildInformation.VERSION + ":test");
+        assertThat(lazy.getOverlappingTimeZone(0.5, 0.5)).isNull(); // Outside the square entirely
+        assertThat(lazy.getOverlappingTimeZone(1.8, 1.4)).isNull(); // In the hole around the island
+        assertThat(lazy.getOverlappingTimeZone(1.3, 1.3).getZoneId()).isEqualTo("Square with island");
+        for (double latitude = 0.0; latitude <= 3.0; latitude += 0.05) {
+            for (double longitude = 0.0; longitude <= 3.0; longitude += 0.05) {
+                assertMatches(lazy, map, latitude, longitude);
+            }
+        }
+    }
+
+    @Test
+    public void emptyArchive() {
+        LazyTimeZoneMap lazy = LazyTimeZoneMap.forRegion(new ByteArrayInputStream(new byte[0]), 0, 0, 3, 3);
+
+        assertThat(lazy.getMapVersion()).isNull();
+        assertThat(lazy.getTimeZoneCount()).isZero();
+        assertThat(lazy.getOverlappingTimeZones(1, 1)).isEmpty();
+    }
+
+    @Test
+    public void invalidInput() throws IOException {
+        LazyTimeZoneMap lazy = LazyTimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), 0, 0, 3, 3);
+
+        assertThatThrownBy(() -> lazy.getOverlappingTimeZone(3.5, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> lazy.getOverlappingTimeZones(1, -0.5)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> LazyTimeZoneMap.forRegion(3, 0, 0, 3)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> LazyTimeZoneMap.forRegion(0, 3, 3, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+}
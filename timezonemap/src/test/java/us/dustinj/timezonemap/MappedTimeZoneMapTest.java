@@ -0,0 +1,346 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static us.dustinj.timezonemap.TimeZoneMapTest.createMapArchive;
+import static us.dustinj.timezonemap.TimeZoneMapTest.getSquare;
+import static us.dustinj.timezonemap.TimeZoneMapTest.withEntryMetadata;
+import static us.dustinj.timezonemap.TimeZoneMapTest.withGeneralization;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
+import org.apache.commons.compress.utils.IOUtils;
+import org.junit.Test;
+
+import com.esri.core.geometry.Point2D;
+import com.esri.core.geometry.Polygon;
+
+import us.dustinj.timezonemap.data.DataLocator;
+import us.dustinj.timezonemap.serialization.Envelope;
+import us.dustinj.timezonemap.serialization.Generalization;
+import us.dustinj.timezonemap.serialization.LatLon;
+import us.dustinj.timezonemap.serialization.RingEncoding;
+import us.dustinj.timezonemap.serialization.Serialization;
+
+public class MappedTimeZoneMapTest {
+
+    private static Path writeArchive(InputStream archive) throws IOException {
+        Path path = Files.createTempFile("timezonemap", ".tar");
+        path.toFile().deleteOnExit();
+        Files.copy(archive, path, StandardCopyOption.REPLACE_EXISTING);
+
+        return path;
+    }
+
+    /**
+     * Re-encode every time zone of an archive with {@link RingEncoding#DELTA_VARINT} rings, first rounding the points
+     * to fixed point and naming each entry after the extents of the rounded points, as the builder does.
+     */
+    private static Path reencodeArchive(InputStream archive) throws IOException {
+        Path path = Files.createTempFile("timezonemap", ".tar");
+        path.toFile().deleteOnExit();
+        try (TarArchiveInputStream in = new TarArchiveInputStream(archive);
+                TarArchiveOutputStream out = new TarArchiveOutputStream(Files.newOutputStream(path))) {
+            for (TarArchiveEntry entry = in.getNextTarEntry(); entry != null; entry = in.getNextTarEntry()) {
+                byte[] contents = IOUtils.toByteArray(in);
+                String name = entry.getName();
+                if (name.startsWith("Version: ")) {
+                    // Encoded rings are only read from archives of format 2 on
+                    name = Serialization.versionEntryName(name.split(" ")[1]);
+                } else if (name.contains("/") && contents.length > 0) {
+                    us.dustinj.timezonemap.serialization.TimeZone timeZone =
+                            Serialization.deserializeTimeZone(ByteBuffer.wrap(contents));
+                    List<List<List<LatLon>>> regions = roundToFixedPoint(timeZone.getRegions());
+                    List<LatLon> points = regions.stream()
+                            .flatMap(List::stream)
+                            .flatMap(List::stream)
+                            .collect(Collectors.toList());
+                    Envelope envelope = new Envelope(
+                            new LatLon((float) points.stream().mapToDouble(LatLon::getLatitude).min().getAsDouble(),
+                                    (float) points.stream().mapToDouble(LatLon::getLongitude).min().getAsDouble()),
+                            new LatLon((float) points.stream().mapToDouble(LatLon::getLatitude).max().getAsDouble(),
+                                    (float) points.stream().mapToDouble(LatLon::getLongitude).max().getAsDouble()));
+                    name = timeZone.getTimeZoneId() + "/" + Serialization.serializeEnvelope(envelope);
+                    ByteBuffer serializedTimeZone = Serialization.serializeTimeZone(
+                            new us.dustinj.timezonemap.serialization.TimeZone(timeZone.getTimeZoneId(), regions,
+                                    timeZone.getGeneralizations().stream()
+                                            .map(g -> new Generalization(g.getMaxDeviation(),
+                                                    roundToFixedPoint(g.getRegions())))
+                                            .collect(Collectors.toList())),
+                            RingEncoding.DELTA_VARINT);
+                    contents = new byte[serializedTimeZone.remaining()];
+                    serializedTimeZone.get(contents);
+                }
+                TarArchiveEntry reencodedEntry = new TarArchiveEntry(name);
+                reencodedEntry.setSize(contents.length);
+                out.putArchiveEntry(reencodedEntry);
+                out.write(contents);
+                out.closeArchiveEntry();
+            }
+        }
+
+        return path;
+    }
+
+    private static List<List<List<LatLon>>> roundToFixedPoint(List<List<List<LatLon>>> regions) {
+        return regions.stream()
+                .map(polygon -> polygon.stream()
+                        .map(ring -> ring.stream()
+                                .map(point -> new LatLon(Serialization.roundToFixedPoint(point.getLatitude()),
+                                        Serialization.roundToFixedPoint(point.getLongitude())))
+                                .collect(Collectors.toList()))
+                        .collect(Collectors.toList()))
+                .collect(Collectors.toList());
+    }
+
+    private static void assertMatches(MappedTimeZoneMap mapped, TimeZoneMap map, double latitude, double longitude) {
+        assertThat(mapped.getOverlappingTimeZoneIds(latitude, longitude))
+                .as("(%s, %s)", latitude, longitude)
+                .isEqualTo(map.getOverlappingTimeZones(latitude, longitude).stream()
+                        .map(TimeZone::getZoneId)
+                        .collect(Collectors.toList()));
+        TimeZone timeZone = map.getOverlappingTimeZone(latitude, longitude);
+        assertThat(mapped.getOverlappingTimeZoneId(latitude, longitude))
+                .as("(%s, %s)", latitude, longitude)
+                .isEqualTo(timeZone == null ? null : timeZone.getZoneId());
+    }
+
+    @Test
+    public void matchesTimeZoneMap() throws IOException {
+        MappedTimeZoneMap mapped = MappedTimeZoneMap.open(writeArchive(DataLocator.getDataInputStream()));
+        TimeZoneMap map = TimeZoneMap.forEverywhere();
+        Random random = new Random(42);
+
+        assertThat(mapped.getMapVersion()).isEqualTo(map.getMapVersion());
+        for (int i = 0; i < 5_000; i++) {
+            assertMatches(mapped, map, random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180);
+        }
+        // On and right next to the boundaries, where rounding matters most
+        for (TimeZone timeZone : map.getTimeZones()) {
+            Polygon region = timeZone.getRegion();
+            for (int i = 0; i < region.getPointCount(); i += 9973) {
+                Point2D vertex = region.getXY(i);
+                assertMatches(mapped, map, vertex.y, vertex.x);
+                assertMatches(mapped, map, Math.min(vertex.y + 1e-7, 90), vertex.x);
+                assertMatches(mapped, map, vertex.y, Math.max(vertex.x - 1e-7, -180));
+            }
+        }
+        // Xinjiang, where Asia/Urumqi overlaps Asia/Shanghai
+        assertThat(mapped.getOverlappingTimeZoneIds(42.534980, 87.615030))
+                .containsExactly("Asia/Urumqi", "Asia/Shanghai");
+    }
+
+    @Test
+    public void deltaVarintArchiveMatchesTimeZoneMap() throws IOException {
+        Path archive = reencodeArchive(DataLocator.getDataInputStream());
+        MappedTimeZoneMap mapped = MappedTimeZoneMap.open(archive);
+        TimeZoneMap map;
+        try (InputStream in = Files.newInputStream(archive)) {
+            map = TimeZoneMap.forRegion(in, -90, -180, 90, 180);
+        }
+        TimeZoneMap bundledMap = TimeZoneMap.forEverywhere();
+        Random random = new Random(42);
+
+        // Fewer locations than above, as it's the encoding being tested rather than the lookups, and every lookup
+        // next to a boundary decodes each nearby ring
+        for (int i = 0; i < 1_000; i++) {
+            double latitude = random.nextDouble() * 180 - 90;
+            double longitude = random.nextDouble() * 360 - 180;
+            assertMatches(mapped, map, latitude, longitude);
+            // Rounding only moves points by millimetres, which random locations are all but certain to miss
+            assertMatches(mapped, bundledMap, latitude, longitude);
+        }
+        for (TimeZone timeZone : map.getTimeZones()) {
+            Polygon region = timeZone.getRegion();
+            for (int i = 0; i < region.getPointCount(); i += 29989) {
+                Point2D vertex = region.getXY(i);
+                assertMatches(mapped, map, vertex.y, vertex.x);
+                assertMatches(mapped, map, Math.min(vertex.y + 1e-7, 90), vertex.x);
+                assertMatches(mapped, map, vertex.y, Math.max(vertex.x - 1e-7, -180));
+            }
+        }
+        assertThat(mapped.getOverlappingTimeZoneIds(42.534980, 87.615030))
+                .containsExactly("Asia/Urumqi", "Asia/Shanghai");
+    }
+
+    @Test
+    public void squareWithIsland() throws IOException {
+        MappedTimeZoneMap mapped = MappedTimeZoneMap.open(writeArchive(createMapArchive(UtilTest.getSquareWithIsland())));
+        TimeZoneMap map = TimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), -90, -180, 90, 180);
+
+        assertThat(mapped.getMapVersion()).isEqualTo(BuildInformation.VERSION + ":test");
+        assertThat(mapped.getOverlappingTimeZoneId(0.5, 0.5)).isNull(); // Outside the square entirely
+        assertThat(mapped.getOverlappingTimeZoneId(1.8, 1.4)).isNull(); // In the hole around the island
+        assertThat(mapped.getOverlappingTimeZoneId(1.3, 1.3)).isEqualTo("Square with island");
+        assertThat(mapped.getOverlappingTimeZoneId(1.65, 1.25)).isEqualTo("Square with island");
+        for (double latitude = 0.95; latitude < 2.05; latitude += 0.05) {
+            for (double longitude = 0.95; longitude < 2.05; longitude += 0.05) {
+                assertMatches(mapped, map, latitude, longitude);
+            }
+        }
+
+        assertThatThrownBy(() -> mapped.getOverlappingTimeZoneId(90.5, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> mapped.getOverlappingTimeZoneIds(0, -180.5))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> mapped.getOverlappingTimeZoneId(-90.5, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> mapped.getOverlappingTimeZoneIds(0, 180.5))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> mapped.getOverlappingTimeZoneId(Double.NaN, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void deltaVarintRings() throws IOException {
+        MappedTimeZoneMap mapped = MappedTimeZoneMap.open(writeArchive(
+                createMapArchive(RingEncoding.DELTA_VARINT, null, UtilTest.getSquareWithIsland())));
+        TimeZoneMap map = TimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), -90, -180, 90, 180);
+
+        assertThat(mapped.getOverlappingTimeZoneId(1.8, 1.4)).isNull(); // In the hole around the island
+        assertThat(mapped.getOverlappingTimeZoneId(1.65, 1.25)).isEqualTo("Square with island");
+        for (double latitude = 0.95; latitude < 2.05; latitude += 0.05) {
+            for (double longitude = 0.95; longitude < 2.05; longitude += 0.05) {
+                assertMatches(mapped, map, latitude, longitude);
+            }
+        }
+    }
+
+    @Test
+    public void generalizationsAnswerAwayFromTheirRings() throws IOException {
+        // Generalizations within their maximum deviations of the regions, and one that claims to be but isn't, so
+        // that which locations it answers for shows.
+        InputStream archive = createMapArchive(RingEncoding.DELTA_VARINT, null,
+                withGeneralization(getSquare("Square", 1.5f, 2.5f), 0.08, getSquare("", 1.45f, 2.55f)),
+                withGeneralization(getSquare("Misleading", 4, 7), 0.1, getSquare("", 5, 6)),
+                withGeneralization(UtilTest.getSquareWithIsland(), 0.01, UtilTest.getSquareWithIsland()));
+        Path path = writeArchive(archive);
+        MappedTimeZoneMap mapped = MappedTimeZoneMap.open(path);
+        TimeZoneMap map;
+        try (InputStream in = Files.newInputStream(path)) {
+            map = TimeZoneMap.forRegion(in, -90, -180, 90, 180);
+        }
+
+        assertThat(mapped.getOverlappingTimeZoneId(4.5, 4.5)).isNull();
+        assertThat(mapped.getOverlappingTimeZoneId(4.95, 5.5)).isEqualTo("Misleading");
+        for (double latitude = 0.95; latitude < 7.05; latitude += 0.05) {
+            for (double longitude = 0.95; longitude < 7.05; longitude += 0.05) {
+                assertMatches(mapped, map, latitude, longitude);
+            }
+        }
+    }
+
+    @Test
+    public void emptyEntriesAreSkipped() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(archive)) {
+            out.putArchiveEntry(new TarArchiveEntry("Version: " + BuildInformation.VERSION + ":test"));
+            out.closeArchiveEntry();
+            out.putArchiveEntry(new TarArchiveEntry("Empty/0.0,0.0,1.0,1.0"));
+            out.closeArchiveEntry();
+        }
+        MappedTimeZoneMap mapped = MappedTimeZoneMap.open(writeArchive(new ByteArrayInputStream(archive.toByteArray())));
+
+        assertThat(mapped.getOverlappingTimeZoneIds(0.5, 0.5)).isEmpty();
+    }
+
+    @Test
+    public void overlappingTimeZonesAreOrderedByArea() throws IOException {
+        // Its extents are larger, but the hole leaves it with the smaller area
+        us.dustinj.timezonemap.serialization.TimeZone frame = new us.dustinj.timezonemap.serialization.TimeZone(
+                "Frame", Collections.singletonList(Arrays.asList(
+                Arrays.asList(new LatLon(0, 0), new LatLon(3, 0), new LatLon(3, 3), new LatLon(0, 3)),
+                Arrays.asList(new LatLon(0.1f, 0.1f), new LatLon(0.1f, 2.9f), new LatLon(2.9f, 2.9f),
+                        new LatLon(2.9f, 0.1f)))));
+        us.dustinj.timezonemap.serialization.TimeZone square = new us.dustinj.timezonemap.serialization.TimeZone(
+                "Square", Collections.singletonList(Collections.singletonList(
+                Arrays.asList(new LatLon(0, 0), new LatLon(1.5f, 0), new LatLon(1.5f, 1.5f), new LatLon(0, 1.5f)))));
+        MappedTimeZoneMap mapped = MappedTimeZoneMap.open(writeArchive(createMapArchive(square, frame)));
+        TimeZoneMap map = TimeZoneMap.forRegion(createMapArchive(square, frame), -90, -180, 90, 180);
+
+        assertThat(mapped.getOverlappingTimeZoneIds(0.05, 0.05)).containsExactly("Frame", "Square");
+        assertThat(mapped.getOverlappingTimeZoneId(0.05, 0.05)).isEqualTo("Frame");
+        assertMatches(mapped, map, 0.05, 0.05);
+        assertMatches(mapped, map, 1, 1);
+        assertMatches(mapped, map, 2.95, 2.95);
+    }
+
+    @Test
+    public void entryMetadata() throws IOException {
+        us.dustinj.timezonemap.serialization.TimeZone square = new us.dustinj.timezonemap.serialization.TimeZone(
+                "Square", Collections.singletonList(Collections.singletonList(
+                Arrays.asList(new LatLon(1.5f, 1.5f), new LatLon(2.5f, 1.5f), new LatLon(2.5f, 2.5f),
+                        new LatLon(1.5f, 2.5f)))));
+        MappedTimeZoneMap without = MappedTimeZoneMap.open(
+                writeArchive(createMapArchive(square, UtilTest.getSquareWithIsland())));
+        MappedTimeZoneMap with = MappedTimeZoneMap.open(
+                writeArchive(withEntryMetadata(createMapArchive(square, UtilTest.getSquareWithIsland()))));
+        // The square with island has the smaller region, but the metadata claims otherwise, which shows it's used
+        MappedTimeZoneMap misleading = MappedTimeZoneMap.open(
+                writeArchive(withEntryMetadata(createMapArchive(square, UtilTest.getSquareWithIsland()), 0.5, 0.85)));
+
+        for (double latitude = 0.5; latitude <= 3; latitude += 0.05) {
+            for (double longitude = 0.5; longitude <= 3; longitude += 0.05) {
+                assertThat(with.getOverlappingTimeZoneIds(latitude, longitude))
+                        .as("(%s, %s)", latitude, longitude)
+                        .isEqualTo(without.getOverlappingTimeZoneIds(latitude, longitude));
+            }
+        }
+        assertThat(with.getOverlappingTimeZoneIds(1.75, 1.75)).containsExactly("Square with island", "Square");
+        assertThat(misleading.getOverlappingTimeZoneIds(1.75, 1.75)).containsExactly("Square", "Square with island");
+    }
+
+    @Test
+    public void mismatchedEntryMetadata() throws IOException {
+        for (InputStream archive : TimeZoneMapTest.mismatchedEntryMetadataArchives()) {
+            Path path = writeArchive(archive);
+            assertThatThrownBy(() -> MappedTimeZoneMap.open(path))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageStartingWith("Entry metadata");
+        }
+    }
+
+    @Test
+    public void unsupportedArchiveFormats() throws IOException {
+        for (String format : TimeZoneMapTest.unknownArchiveFormats()) {
+            Path path = writeArchive(TimeZoneMapTest.withArchiveFormat(format));
+            assertThatThrownBy(() -> MappedTimeZoneMap.open(path))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageStartingWith("Unsupported map archive format '" + format + "'");
+        }
+    }
+
+    @Test
+    public void invalidArchives() throws URISyntaxException, IOException {
+        Path mapDirectory = Paths.get(MappedTimeZoneMapTest.class.getResource("/no_version_marker.tar").toURI())
+                .getParent();
+
+        assertThatThrownBy(() -> MappedTimeZoneMap.open(mapDirectory.resolve("no_version_marker.tar")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Incompatible map archive");
+        assertThatThrownBy(() -> MappedTimeZoneMap.open(mapDirectory.resolve("incompatible_version.tar")))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Incompatible map archive")
+                .hasMessageContaining("1.0-SNAPSHOT:2017a");
+        Path empty = Files.createTempFile("timezonemap", ".tar");
+        empty.toFile().deleteOnExit();
+        assertThatThrownBy(() -> MappedTimeZoneMap.open(empty))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Empty map archive");
+    }
+}
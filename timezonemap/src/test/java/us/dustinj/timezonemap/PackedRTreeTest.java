@@ -0,0 +1,138 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import com.esri.core.geometry.Envelope2D;
+
+public class PackedRTreeTest {
+
+    private static List<Envelope2D> randomEnvelopes(Random random, int count) {
+        List<Envelope2D> envelopes = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            double x = random.nextDouble() * 360 - 180;
+            double y = random.nextDouble() * 180 - 90;
+            envelopes.add(new Envelope2D(x, y, x + random.nextDouble() * 40, y + random.nextDouble() * 20));
+        }
+        return envelopes;
+    }
+
+    @Test
+    public void matchesBruteForce() {
+        Random random = new Random(42);
+        List<Envelope2D> envelopes = randomEnvelopes(random, 500);
+        PackedRTree tree = new PackedRTree(envelopes, 4);
+        // Reject every third item to show that the predicate decides what's a match.
+        PackedRTree.ItemPredicate predicate = (item, x, y) -> item % 3 != 0;
+
+        for (int i = 0; i < 2_000; i++) {
+            double x = random.nextDouble() * 400 - 200;
+            double y = random.nextDouble() * 200 - 100;
+            int[] expected = IntStream.range(0, envelopes.size())
+                    .filter(item -> envelopes.get(item).contains(x, y) && predicate.test(item, x, y))
+                    .toArray();
+
+            assertThat(tree.allContaining(x, y, predicate)).containsExactly(expected);
+            assertThat(tree.firstContaining(x, y, predicate)).isEqualTo(expected.length == 0 ? -1 : expected[0]);
+        }
+    }
+
+    @Test
+    public void allIntersectingMatchesBruteForce() {
+        Random random = new Random(42);
+        List<Envelope2D> envelopes = randomEnvelopes(random, 500);
+        PackedRTree tree = new PackedRTree(envelopes, 4);
+
+        for (Envelope2D query : randomEnvelopes(random, 2_000)) {
+            int[] expected = IntStream.range(0, envelopes.size())
+                    .filter(item -> envelopes.get(item).isIntersecting(query))
+                    .toArray();
+
+            assertThat(tree.allIntersecting(query)).containsExactly(expected);
+        }
+    }
+
+    @Test
+    public void nearestMatchesBruteForce() {
+        Random random = new Random(42);
+        // Whole numbers, so that many items are equally near
+        List<Envelope2D> envelopes = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            double x = random.nextInt(50);
+            double y = random.nextInt(50);
+            envelopes.add(new Envelope2D(x, y, x + random.nextInt(3), y + random.nextInt(3)));
+        }
+        PackedRTree tree = new PackedRTree(envelopes, 4);
+        // The distance to each envelope's center, which is never nearer than the envelope itself
+        PackedRTree.ItemDistance distance = (item, x, y) -> {
+            double dx = envelopes.get(item).getCenterX() - x;
+            double dy = envelopes.get(item).getCenterY() - y;
+            return dx * dx + dy * dy;
+        };
+
+        for (int i = 0; i < 2_000; i++) {
+            double x = random.nextInt(60) - 5;
+            double y = random.nextInt(60) - 5;
+            double maxDistance = random.nextInt(4);
+            int expected = IntStream.range(0, envelopes.size())
+                    .filter(item -> distance.distanceSquared(item, x, y) <= maxDistance * maxDistance)
+                    .boxed()
+                    .min((a, b) -> Double.compare(distance.distanceSquared(a, x, y), distance.distanceSquared(b, x, y)))
+                    .orElse(-1);
+
+            assertThat(tree.nearest(x, y, maxDistance, distance)).as("(%s, %s)", x, y).isEqualTo(expected);
+        }
+    }
+
+    @Test
+    public void envelopeBoundaryIsInclusive() {
+        PackedRTree tree = new PackedRTree(Collections.singletonList(new Envelope2D(1, 2, 3, 4)), 16);
+
+        assertThat(tree.firstContaining(1, 2, (item, x, y) -> true)).isEqualTo(0);
+        assertThat(tree.firstContaining(3, 4, (item, x, y) -> true)).isEqualTo(0);
+        assertThat(tree.firstContaining(Math.nextUp(3.0), 4, (item, x, y) -> true)).isEqualTo(-1);
+        assertThat(tree.allIntersecting(new Envelope2D(3, 4, 5, 6))).containsExactly(0);
+        assertThat(tree.allIntersecting(new Envelope2D(Math.nextUp(3.0), 4, 5, 6))).isEmpty();
+    }
+
+    @Test
+    public void emptyEnvelopesNeverMatch() {
+        Envelope2D empty = new Envelope2D();
+        empty.setEmpty();
+        List<Envelope2D> envelopes = new ArrayList<>();
+        envelopes.add(empty);
+        envelopes.add(new Envelope2D(0, 0, 10, 10));
+        envelopes.add(empty);
+        PackedRTree tree = new PackedRTree(envelopes, 2);
+
+        assertThat(tree.allContaining(5, 5, (item, x, y) -> true)).containsExactly(1);
+        assertThat(tree.firstContaining(5, 5, (item, x, y) -> true)).isEqualTo(1);
+        assertThat(tree.allIntersecting(new Envelope2D(-100, -100, 100, 100))).containsExactly(1);
+        assertThat(tree.nearest(20, 20, Double.POSITIVE_INFINITY, (item, x, y) -> 0)).isEqualTo(1);
+    }
+
+    @Test
+    public void emptyTree() {
+        PackedRTree tree = new PackedRTree(Collections.emptyList(), 16);
+
+        assertThat(tree.getSize()).isZero();
+        assertThat(tree.firstContaining(0, 0, (item, x, y) -> true)).isEqualTo(-1);
+        assertThat(tree.allContaining(0, 0, (item, x, y) -> true)).isEmpty();
+        assertThat(tree.allIntersecting(new Envelope2D(-1, -1, 1, 1))).isEmpty();
+        assertThat(tree.nearest(0, 0, Double.POSITIVE_INFINITY, (item, x, y) -> 0)).isEqualTo(-1);
+    }
+
+    @Test
+    public void invalidNodeCapacity() {
+        assertThatThrownBy(() -> new PackedRTree(Collections.emptyList(), 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
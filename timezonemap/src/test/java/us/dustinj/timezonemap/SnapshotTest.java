@@ -0,0 +1,109 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.util.Arrays;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+public class SnapshotTest {
+
+    @Test
+    public void roundTrip() throws IOException {
+        // Large enough arrays and strings to take several fills of the writer's buffer
+        int[] ints = IntStream.range(0, 100_000).toArray();
+        float[] floats = new float[100_000];
+        double[] doubles = new double[100_000];
+        for (int i = 0; i < floats.length; i++) {
+            floats[i] = i / 3.0f;
+            doubles[i] = -i / 7.0;
+        }
+        char[] characters = new char[100_000];
+        Arrays.fill(characters, '\u00e9');
+        String longString = new String(characters);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SnapshotWriter writer = new SnapshotWriter(Channels.newChannel(bytes));
+
+        writer.writeInt(42);
+        writer.writeDouble(Math.PI);
+        writer.writeString("Europe/Paris");
+        writer.writeString(null);
+        writer.writeString(longString);
+        writer.writeInts(ints);
+        writer.writeInts(null);
+        writer.writeFloats(floats);
+        writer.writeFloats(null);
+        writer.writeDoubles(doubles);
+        writer.writeDoubles(new double[0]);
+        writer.finish();
+        SnapshotReader reader = SnapshotReader.Companion.verify(ByteBuffer.wrap(bytes.toByteArray()));
+
+        assertThat(reader.readInt()).isEqualTo(42);
+        assertThat(reader.readDouble()).isEqualTo(Math.PI);
+        assertThat(reader.readString()).isEqualTo("Europe/Paris");
+        assertThat(reader.readString()).isNull();
+        assertThat(reader.readString()).isEqualTo(longString);
+        assertThat(reader.readInts()).containsExactly(ints);
+        assertThat(reader.readInts()).isNull();
+        assertThat(reader.readFloats()).containsExactly(floats);
+        assertThat(reader.readFloats()).isNull();
+        assertThat(reader.readDoubles()).containsExactly(doubles);
+        assertThat(reader.readDoubles()).isEmpty();
+        assertThatThrownBy(reader::readInt).isInstanceOf(BufferUnderflowException.class);
+    }
+
+    @Test
+    public void damagedSnapshots() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        SnapshotWriter writer = new SnapshotWriter(Channels.newChannel(bytes));
+        writer.writeInts(new int[] { 1, 2, 3 });
+        writer.finish();
+        byte[] written = bytes.toByteArray();
+
+        assertThat(SnapshotReader.Companion.verify(ByteBuffer.wrap(written)).readInts()).containsExactly(1, 2, 3);
+        assertThat(SnapshotReader.Companion.verify(ByteBuffer.wrap(new byte[0]))).isNull();
+        assertThat(SnapshotReader.Companion.verify(ByteBuffer.wrap(Arrays.copyOf(written, written.length - 1))))
+                .isNull();
+        byte[] flipped = written.clone();
+        flipped[5] ^= 1;
+        assertThat(SnapshotReader.Companion.verify(ByteBuffer.wrap(flipped))).isNull();
+    }
+
+    @Test
+    public void truncatedValues() {
+        // Sizes larger than what's left fail before anything is allocated for them
+        ByteBuffer size = ByteBuffer.allocate(Integer.BYTES + 11).putInt(0, 3);
+        assertThatThrownBy(() -> new SnapshotReader(size.duplicate()).readInts())
+                .isInstanceOf(BufferUnderflowException.class);
+        assertThatThrownBy(() -> new SnapshotReader(size.duplicate()).readFloats())
+                .isInstanceOf(BufferUnderflowException.class);
+        assertThatThrownBy(() -> new SnapshotReader(size.duplicate()).readDoubles())
+                .isInstanceOf(BufferUnderflowException.class);
+        assertThatThrownBy(() -> new SnapshotReader(ByteBuffer.allocate(Integer.BYTES + 2).putInt(0, 3)).readString())
+                .isInstanceOf(BufferUnderflowException.class);
+        assertThatThrownBy(() -> new SnapshotReader(ByteBuffer.allocate(Integer.BYTES).putInt(0, -1)).readDoubles())
+                .isInstanceOf(BufferUnderflowException.class);
+        assertThatThrownBy(() -> new SnapshotReader(ByteBuffer.allocate(Integer.BYTES).putInt(0, Integer.MAX_VALUE))
+                .readInts()).isInstanceOf(BufferUnderflowException.class);
+        assertThatThrownBy(() -> new SnapshotReader(ByteBuffer.allocate(Integer.BYTES + 1).putInt(0, 2)).readCount())
+                .isInstanceOf(BufferUnderflowException.class);
+        assertThatThrownBy(() -> new SnapshotReader(ByteBuffer.allocate(Integer.BYTES).putInt(0, -1)).readCount())
+                .isInstanceOf(BufferUnderflowException.class);
+        assertThat(new SnapshotReader(ByteBuffer.allocate(Integer.BYTES + 1).putInt(0, 1)).readCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void missingRequiredArrays() {
+        assertThatThrownBy(() -> new SnapshotReader(ByteBuffer.allocate(Integer.BYTES).putInt(0, -1))
+                .readRequiredInts()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(new SnapshotReader(ByteBuffer.allocate(Integer.BYTES + 4).putInt(0, 1).putInt(4, 7))
+                .readRequiredInts()).containsExactly(7);
+    }
+}
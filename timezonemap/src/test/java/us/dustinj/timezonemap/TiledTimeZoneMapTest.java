@@ -0,0 +1,169 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static us.dustinj.timezonemap.TimeZoneMapTest.createMapArchive;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.junit.Test;
+
+import us.dustinj.timezonemap.data.DataLocator;
+
+public class TiledTimeZoneMapTest {
+
+    private static List<String> zoneIds(List<TimeZone> timeZones) {
+        return timeZones.stream().map(TimeZone::getZoneId).collect(Collectors.toList());
+    }
+
+    @Test
+    public void matchesTimeZoneMap() throws IOException {
+        Path archive = Files.createTempFile("timezonemap", ".tar");
+        archive.toFile().deleteOnExit();
+        Files.copy(DataLocator.getDataInputStream(), archive, StandardCopyOption.REPLACE_EXISTING);
+        TiledTimeZoneMap tiled = TiledTimeZoneMap.open(archive, 7.0, 100);
+        TimeZoneMap map = TimeZoneMap.forEverywhere();
+        Random random = new Random(42);
+
+        assertThat(tiled.getMapVersion()).isEqualTo(map.getMapVersion());
+        // Europe, where many tiles are crossed by boundaries, in three rows of eight tiles
+        for (int i = 0; i < 2_000; i++) {
+            double latitude = 36 + random.nextDouble() * 21;
+            double longitude = -12 + random.nextDouble() * 56;
+
+            assertThat(zoneIds(tiled.getOverlappingTimeZones(latitude, longitude)))
+                    .as("(%s, %s)", latitude, longitude)
+                    .isEqualTo(zoneIds(map.getOverlappingTimeZones(latitude, longitude)));
+            assertThat(tiled.getOverlappingTimeZone(latitude, longitude).getZoneId())
+                    .as("(%s, %s)", latitude, longitude)
+                    .isEqualTo(map.getOverlappingTimeZone(latitude, longitude).getZoneId());
+        }
+        assertThat(tiled.getResidentTileCount()).isEqualTo(3 * 8);
+        // The corners of the world, which are in the partial tiles of the last row and column
+        assertThat(zoneIds(tiled.getOverlappingTimeZones(90, 180)))
+                .isEqualTo(zoneIds(map.getOverlappingTimeZones(90, 180)));
+        assertThat(zoneIds(tiled.getOverlappingTimeZones(-90, -180)))
+                .isEqualTo(zoneIds(map.getOverlappingTimeZones(-90, -180)));
+        // Xinjiang, where Asia/Urumqi overlaps Asia/Shanghai
+        assertThat(zoneIds(tiled.getOverlappingTimeZones(42.534980, 87.615030)))
+                .containsExactly("Asia/Urumqi", "Asia/Shanghai");
+        assertThat(tiled.getResidentBytes()).isPositive();
+    }
+
+    @Test
+    public void leastRecentlyUsedTilesAreEvicted() throws IOException {
+        TiledTimeZoneMap tiled = TiledTimeZoneMap.forArchive(createMapArchive(UtilTest.getSquareWithIsland()), 1.0, 2);
+
+        assertThat(tiled.getOverlappingTimeZone(1.3, 1.3).getZoneId()).isEqualTo("Square with island");
+        assertThat(tiled.getOverlappingTimeZone(1.8, 1.4)).isNull(); // In the hole around the island
+        assertThat(tiled.getTileLoadCount()).isEqualTo(1);
+        assertThat(tiled.getOverlappingTimeZone(-45, -45)).isNull();
+        assertThat(tiled.getResidentTileCount()).isEqualTo(2);
+        assertThat(tiled.getEvictionCount()).isZero();
+
+        // Using the first tile again leaves the second as the least recently used
+        tiled.getOverlappingTimeZone(1.3, 1.3);
+        assertThat(tiled.getOverlappingTimeZones(45, 45)).isEmpty();
+        assertThat(tiled.getTileLoadCount()).isEqualTo(3);
+        assertThat(tiled.getEvictionCount()).isEqualTo(1);
+        assertThat(tiled.getResidentTileCount()).isEqualTo(2);
+        tiled.getOverlappingTimeZone(1.3, 1.3);
+        assertThat(tiled.getTileLoadCount()).isEqualTo(3);
+        tiled.getOverlappingTimeZone(-45, -45);
+        assertThat(tiled.getTileLoadCount()).isEqualTo(4);
+        assertThat(tiled.getEvictionCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void tilesAreKeptWithinMaximumBytes() throws IOException {
+        TiledTimeZoneMap tiled = TiledTimeZoneMap.forArchive(createMapArchive(UtilTest.getSquareWithIsland()), 0.5,
+                100, 1, new TimeZoneMapOptions().withCellIndexDepth(2));
+
+        assertThat(tiled.getOverlappingTimeZone(1.3, 1.3).getZoneId()).isEqualTo("Square with island");
+        long tileBytes = tiled.getResidentBytes();
+        assertThat(tileBytes).isPositive();
+        // The most recently used tile is kept even though it's over budget on its own
+        assertThat(tiled.getResidentTileCount()).isEqualTo(1);
+
+        assertThat(tiled.getOverlappingTimeZone(1.8, 1.8).getZoneId()).isEqualTo("Square with island");
+        assertThat(tiled.getResidentTileCount()).isEqualTo(1);
+        assertThat(tiled.getEvictionCount()).isEqualTo(1);
+        assertThat(tiled.getOverlappingTimeZone(1.3, 1.3).getZoneId()).isEqualTo("Square with island");
+        assertThat(tiled.getResidentBytes()).isEqualTo(tileBytes);
+        assertThat(tiled.getTileLoadCount()).isEqualTo(3);
+        assertThat(tiled.getOptions().getCellIndexDepth()).isEqualTo(2);
+    }
+
+    @Test
+    public void concurrentLookupsLoadTileOnce() throws Exception {
+        TiledTimeZoneMap tiled = TiledTimeZoneMap.forEverywhere();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+
+        try {
+            List<Future<TimeZone>> results = IntStream.range(0, 64)
+                    .mapToObj(i -> executor.submit(() -> tiled.getOverlappingTimeZone(48.8566, 2.3522)))
+                    .collect(Collectors.toList());
+            for (Future<TimeZone> result : results) {
+                assertThat(result.get().getZoneId()).isEqualTo("Europe/Paris");
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(tiled.getTileLoadCount()).isEqualTo(1);
+        assertThat(tiled.getResidentTileCount()).isEqualTo(1);
+        assertThat(tiled.getTileSizeDegrees()).isEqualTo(TiledTimeZoneMap.DEFAULT_TILE_SIZE_DEGREES);
+        assertThat(tiled.getMaximumTiles()).isEqualTo(TiledTimeZoneMap.DEFAULT_MAXIMUM_TILES);
+        assertThat(tiled.getMaximumBytes()).isEqualTo(Long.MAX_VALUE);
+    }
+
+    @Test
+    public void emptyArchive() {
+        TiledTimeZoneMap tiled = TiledTimeZoneMap.forArchive(new ByteArrayInputStream(new byte[0]));
+
+        assertThat(tiled.getMapVersion()).isNull();
+        assertThat(tiled.getOverlappingTimeZones(0, 0)).isEmpty();
+        assertThat(tiled.getResidentBytes()).isZero();
+    }
+
+    @Test
+    public void invalidInput() throws IOException {
+        TiledTimeZoneMap tiled = TiledTimeZoneMap.forArchive(createMapArchive(UtilTest.getSquareWithIsland()));
+
+        assertThatThrownBy(() -> tiled.getOverlappingTimeZone(90.5, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> tiled.getOverlappingTimeZone(-90.5, 0)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> tiled.getOverlappingTimeZones(0, 180.5)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> tiled.getOverlappingTimeZones(0, -180.5))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> tiled.getOverlappingTimeZone(Double.NaN, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        assertThatThrownBy(() -> TiledTimeZoneMap.forArchive(createMapArchive(), 0.0001))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TiledTimeZoneMap.forArchive(createMapArchive(), 181))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TiledTimeZoneMap.forArchive(createMapArchive(), 1, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TiledTimeZoneMap.forArchive(createMapArchive(), 1, 1, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        InputStream unreadable = new InputStream() {
+            @Override
+            public int read() throws IOException {
+                throw new IOException("Unreadable");
+            }
+        };
+        assertThatThrownBy(() -> TiledTimeZoneMap.forArchive(unreadable)).isInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,117 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static us.dustinj.timezonemap.TimeZoneMapTest.createMapArchive;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+import us.dustinj.timezonemap.serialization.LatLon;
+
+public class TimeZoneMapHolderTest {
+
+    /** A square time zone covering (0, 0) to (3, 3). */
+    private static us.dustinj.timezonemap.serialization.TimeZone getSquare(String timeZoneId) {
+        return new us.dustinj.timezonemap.serialization.TimeZone(timeZoneId, Collections.singletonList(
+                Collections.singletonList(Arrays.asList(
+                        new LatLon(0, 0), new LatLon(3, 0), new LatLon(3, 3), new LatLon(0, 3), new LatLon(0, 0)))));
+    }
+
+    private static TimeZoneMap createMap(String timeZoneId) throws IOException {
+        return TimeZoneMap.forRegion(createMapArchive(getSquare(timeZoneId)), 0, 0, 3, 3);
+    }
+
+    @Test
+    public void rebuild() throws IOException {
+        TimeZoneMap initial = createMap("Etc/GMT+1");
+        TimeZoneMapHolder holder = new TimeZoneMapHolder(initial);
+
+        assertThat(holder.getMap()).isSameAs(initial);
+        assertThat(holder.getMapVersion()).isEqualTo(BuildInformation.VERSION + ":test");
+        assertThat(holder.getOptions()).isEqualTo(new TimeZoneMapOptions());
+        assertThat(holder.getReplacementCount()).isZero();
+        assertThat(holder.getLastBuildMillis()).isEqualTo(-1);
+        assertThat(holder.getOverlappingTimeZone(1, 1).getZoneId()).isEqualTo("Etc/GMT+1");
+
+        TimeZoneMap replacement = holder.rebuild(createMapArchive(getSquare("Etc/GMT+2")));
+
+        assertThat(holder.getMap()).isSameAs(replacement);
+        assertThat(replacement.getInitializedRegion()).isEqualTo(initial.getInitializedRegion());
+        assertThat(holder.getReplacementCount()).isEqualTo(1);
+        assertThat(holder.getLastBuildMillis()).isNotNegative();
+        assertThat(holder.getOverlappingTimeZone(1, 1).getZoneId()).isEqualTo("Etc/GMT+2");
+        assertThat(holder.getOverlappingTimeZones(1, 1)).extracting(TimeZone::getZoneId).containsExactly("Etc/GMT+2");
+        // Anything still holding the initial map keeps working with it
+        assertThat(initial.getOverlappingTimeZone(1, 1).getZoneId()).isEqualTo("Etc/GMT+1");
+    }
+
+    @Test
+    public void rebuildInBackground() throws Exception {
+        TimeZoneMapHolder holder = new TimeZoneMapHolder(createMap("Etc/GMT+1"),
+                new TimeZoneMapOptions().withCellIndexDepth(2));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        AtomicBoolean stop = new AtomicBoolean();
+        Set<String> seen = ConcurrentHashMap.newKeySet();
+
+        try {
+            // Lookups carry on, always finding one of the two time zones, while the map is replaced
+            Thread reader = new Thread(() -> {
+                while (!stop.get()) {
+                    TimeZone timeZone = holder.getOverlappingTimeZone(1, 1);
+                    seen.add(timeZone == null ? "none" : timeZone.getZoneId());
+                }
+            });
+            reader.start();
+
+            TimeZoneMap replacement = holder.rebuildInBackground(executor,
+                    () -> createMapArchive(getSquare("Etc/GMT+2"))).get();
+            stop.set(true);
+            reader.join();
+            assertThat(seen).isSubsetOf("Etc/GMT+1", "Etc/GMT+2");
+
+            assertThat(holder.getMap()).isSameAs(replacement);
+            assertThat(holder.getOverlappingTimeZone(1, 1).getZoneId()).isEqualTo("Etc/GMT+2");
+
+            assertThatThrownBy(() -> holder.rebuildInBackground(executor, () -> {
+                throw new IOException("Unavailable");
+            }).get()).isInstanceOf(ExecutionException.class).hasRootCauseInstanceOf(IOException.class);
+            assertThat(holder.getMap()).isSameAs(replacement);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void incompatibleReplacement() throws IOException {
+        TimeZoneMap initial = createMap("Etc/GMT+1");
+        TimeZoneMapHolder holder = new TimeZoneMapHolder(initial);
+
+        // Doesn't cover the region of the map in use
+        assertThatThrownBy(() -> holder.replace(
+                TimeZoneMap.forRegion(createMapArchive(getSquare("Etc/GMT+2")), 0, 0, 2, 2)))
+                .isInstanceOf(IllegalArgumentException.class);
+        // An empty archive, without even a version
+        assertThatThrownBy(() -> holder.rebuild(new ByteArrayInputStream(new byte[1024])))
+                .isInstanceOf(IllegalArgumentException.class);
+        // A map of an empty archive, which has no version to check
+        assertThatThrownBy(() -> holder.replace(
+                TimeZoneMap.forRegion(new ByteArrayInputStream(new byte[0]), -90, -180, 90, 180)))
+                .isInstanceOf(IllegalArgumentException.class)
+                .hasMessageContaining("Incompatible map");
+
+        assertThat(holder.getMap()).isSameAs(initial);
+        assertThat(holder.getReplacementCount()).isZero();
+        assertThat(holder.getLastBuildMillis()).isEqualTo(-1);
+    }
+}
@@ -0,0 +1,59 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import nl.jqno.equalsverifier.EqualsVerifier;
+
+public class TimeZoneMapOptionsTest {
+
+    @Test
+    public void defaults() {
+        assertThat(new TimeZoneMapOptions().getCellIndexDepth()).isZero();
+        assertThat(new TimeZoneMapOptions().getEdgeBucketVertexThreshold())
+                .isEqualTo(TimeZoneMapOptions.DEFAULT_EDGE_BUCKET_VERTEX_THRESHOLD);
+        assertThat(new TimeZoneMapOptions().getInitializationExecutor()).isNull();
+    }
+
+    @Test
+    public void cellIndexDepth() {
+        assertThat(new TimeZoneMapOptions().withCellIndexDepth(8).getCellIndexDepth()).isEqualTo(8);
+        assertThat(new TimeZoneMapOptions().withCellIndexDepth(TimeZoneMapOptions.MAX_CELL_INDEX_DEPTH)
+                .getCellIndexDepth()).isEqualTo(TimeZoneMapOptions.MAX_CELL_INDEX_DEPTH);
+
+        assertThatThrownBy(() -> new TimeZoneMapOptions().withCellIndexDepth(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TimeZoneMapOptions()
+                .withCellIndexDepth(TimeZoneMapOptions.MAX_CELL_INDEX_DEPTH + 1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void edgeBucketVertexThreshold() {
+        assertThat(new TimeZoneMapOptions().withEdgeBucketVertexThreshold(0).getEdgeBucketVertexThreshold()).isZero();
+        assertThat(new TimeZoneMapOptions().withEdgeBucketVertexThreshold(Integer.MAX_VALUE)
+                .getEdgeBucketVertexThreshold()).isEqualTo(Integer.MAX_VALUE);
+
+        assertThatThrownBy(() -> new TimeZoneMapOptions().withEdgeBucketVertexThreshold(-1))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void initializationExecutor() {
+        Executor executor = Runnable::run;
+
+        assertThat(new TimeZoneMapOptions().withInitializationExecutor(executor).getInitializationExecutor())
+                .isSameAs(executor);
+        assertThat(new TimeZoneMapOptions().withInitializationExecutor(executor).withInitializationExecutor(null)
+                .getInitializationExecutor()).isNull();
+    }
+
+    @Test
+    public void equalsContract() {
+        EqualsVerifier.forClass(TimeZoneMapOptions.class).verify();
+    }
+}
@@ -3,19 +3,44 @@ package us.dustinj.timezonemap;
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.byLessThan;
+import static org.assertj.core.api.Assertions.catchThrowable;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 import java.util.stream.Stream;
+import java.util.zip.CRC32;
 
+import org.apache.commons.compress.archivers.tar.TarArchiveEntry;
+import org.apache.commons.compress.archivers.tar.TarArchiveInputStream;
+import org.apache.commons.compress.archivers.tar.TarArchiveOutputStream;
 import org.apache.commons.compress.utils.CountingInputStream;
+import org.apache.commons.compress.utils.IOUtils;
 import org.geojson.Feature;
 import org.geojson.FeatureCollection;
 import org.geojson.GeoJsonObject;
@@ -28,10 +53,25 @@ import com.esri.core.geometry.GeometryException;
 import com.esri.core.geometry.OperatorSimplify;
 import com.esri.core.geometry.Polygon;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.luben.zstd.Zstd;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.google.common.collect.Multimaps;
 
+import us.dustinj.timezonemap.data.DataLocator;
+import us.dustinj.timezonemap.serialization.ArchiveCellIndex;
+import us.dustinj.timezonemap.serialization.ArchiveCellIndexes;
+import us.dustinj.timezonemap.serialization.EntryMetadata;
+import us.dustinj.timezonemap.serialization.EntryMetadatas;
+import us.dustinj.timezonemap.serialization.Envelope;
+import us.dustinj.timezonemap.serialization.Generalization;
+import us.dustinj.timezonemap.serialization.LatLon;
+import us.dustinj.timezonemap.serialization.RingEncoding;
+import us.dustinj.timezonemap.serialization.SeekableArchive;
+import us.dustinj.timezonemap.serialization.Serialization;
+import us.dustinj.timezonemap.serialization.TableOfContents;
+import us.dustinj.timezonemap.serialization.TableOfContentsEntry;
+
 @SuppressWarnings("ConstantConditions")
 public class TimeZoneMapTest {
     private static final TimeZoneMap EVERYWHERE = TimeZoneMap.forEverywhere();
@@ -402,6 +442,601 @@ public class TimeZoneMapTest {
                 .isEqualTo("America/New_York");
     }
 
+    @Test
+    public void parallelInitializationMatchesSequential() {
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        TimeZoneMapOptions options = new TimeZoneMapOptions().withInitializationExecutor(executor);
+
+        try {
+            assertThat(TimeZoneMap.forEverywhere(options).getTimeZones()).isEqualTo(EVERYWHERE.getTimeZones());
+            assertThat(TimeZoneMap.forRegion(38.0, 72.0, 46.0, 92.0, options).getTimeZones())
+                    .isEqualTo(TimeZoneMap.forRegion(38.0, 72.0, 46.0, 92.0).getTimeZones());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void parallelInitializationFailsLikeSequential() throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(archive)) {
+            out.putArchiveEntry(new TarArchiveEntry("Version: " + BuildInformation.VERSION + ":test"));
+            out.closeArchiveEntry();
+            TarArchiveEntry entry = new TarArchiveEntry("Broken/" + Serialization.serializeEnvelope(
+                    new Envelope(new LatLon(0, 0), new LatLon(1, 1))));
+            entry.setSize(2);
+            out.putArchiveEntry(entry);
+            out.write(new byte[2]);
+            out.closeArchiveEntry();
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+
+        try {
+            Throwable sequential = catchThrowable(() -> TimeZoneMap.forRegion(
+                    new ByteArrayInputStream(archive.toByteArray()), 0, 0, 3, 3));
+            Throwable parallel = catchThrowable(() -> TimeZoneMap.forRegion(
+                    new ByteArrayInputStream(archive.toByteArray()), 0, 0, 3, 3,
+                    new TimeZoneMapOptions().withInitializationExecutor(executor)));
+
+            assertThat(sequential).isNotNull();
+            assertThat(parallel).isExactlyInstanceOf(sequential.getClass());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void seekableArchiveMatchesForRegion() throws IOException {
+        Path archive = createSeekableArchive(DataLocator.getDataInputStream());
+        // Xinjiang, where Asia/Urumqi overlaps Asia/Shanghai, along with a few borders
+        TimeZoneMap seekable = TimeZoneMap.forSeekableArchive(archive, 38.0, 72.0, 46.0, 92.0);
+        TimeZoneMap map = TimeZoneMap.forRegion(38.0, 72.0, 46.0, 92.0);
+
+        assertThat(seekable.getMapVersion()).isEqualTo(map.getMapVersion());
+        assertThat(seekable.getInitializedRegion()).isEqualTo(map.getInitializedRegion());
+        assertThat(seekable.getTimeZones()).isEqualTo(map.getTimeZones());
+        assertThat(TimeZoneMap.forSeekableArchive(archive, -90, -180, 90, 180, new TimeZoneMapOptions())
+                .getTimeZones())
+                .isEqualTo(EVERYWHERE.getTimeZones());
+    }
+
+    @Test
+    public void seekableArchiveOnlyReadsOverlappingTimeZones() throws IOException {
+        Path archive = createSeekableArchive(createMapArchive(UtilTest.getSquareWithIsland()));
+
+        TimeZoneMap map = TimeZoneMap.forSeekableArchive(archive, 0, 0, 3, 3);
+        assertThat(map.getMapVersion()).isEqualTo(BuildInformation.VERSION + ":test");
+        assertThat(map.getOverlappingTimeZone(1.8, 1.4)).isNull(); // In the hole around the island
+        assertThat(map.getOverlappingTimeZone(1.3, 1.3).getZoneId()).isEqualTo("Square with island");
+
+        // Truncating the entry makes no difference to a region it doesn't overlap
+        try (FileChannel channel = FileChannel.open(archive, StandardOpenOption.WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+        assertThat(TimeZoneMap.forSeekableArchive(archive, 10, 10, 20, 20).getTimeZones()).isEmpty();
+        assertThatThrownBy(() -> TimeZoneMap.forSeekableArchive(archive, 0, 0, 3, 3))
+                .isInstanceOf(EOFException.class);
+    }
+
+    @Test
+    public void seekableArchiveInvalidInput() throws IOException {
+        Path archive = createSeekableArchive(createMapArchive(UtilTest.getSquareWithIsland()));
+        Path tarArchive = Files.createTempFile("timezonemap", ".tar");
+        tarArchive.toFile().deleteOnExit();
+        Files.copy(createMapArchive(UtilTest.getSquareWithIsland()), tarArchive, StandardCopyOption.REPLACE_EXISTING);
+        Path oldArchive = Files.createTempFile("timezonemap", ".seekable");
+        oldArchive.toFile().deleteOnExit();
+        Files.write(oldArchive, SeekableArchive.serializeTableOfContents(
+                new TableOfContents("0.1:test", Collections.emptyList())).array());
+
+        assertThatThrownBy(() -> TimeZoneMap.forSeekableArchive(archive, 3, 0, 0, 3))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TimeZoneMap.forSeekableArchive(archive, 0, 3, 3, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TimeZoneMap.forSeekableArchive(tarArchive, 0, 0, 3, 3))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TimeZoneMap.forSeekableArchive(oldArchive, 0, 0, 3, 3))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    private static Object fileKey(Path path) throws IOException {
+        return Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    }
+
+    @Test
+    public void snapshotRestoresTheSameMap() throws IOException {
+        Path snapshot = Files.createTempDirectory("timezonemap").resolve("xinjiang.snapshot");
+        snapshot.toFile().deleteOnExit();
+        TimeZoneMapOptions options = new TimeZoneMapOptions().withCellIndexDepth(6);
+        // Xinjiang, where Asia/Urumqi overlaps Asia/Shanghai, along with a few borders
+        TimeZoneMap built = TimeZoneMap.forRegionWithSnapshot(snapshot, 38.0, 72.0, 46.0, 92.0, options);
+        Object writtenSnapshot = fileKey(snapshot);
+        TimeZoneMap restored = TimeZoneMap.forRegionWithSnapshot(snapshot, 38.0, 72.0, 46.0, 92.0, options);
+        Random random = new Random(42);
+
+        assertThat(fileKey(snapshot)).isEqualTo(writtenSnapshot);
+        assertThat(restored.getMapVersion()).isEqualTo(built.getMapVersion());
+        assertThat(restored.getInitializedRegion()).isEqualTo(built.getInitializedRegion());
+        assertThat(restored.getTimeZones()).isEqualTo(built.getTimeZones());
+        double[] latitudes = new double[1_000];
+        double[] longitudes = new double[1_000];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = 38.0 + random.nextDouble() * 8.0;
+            longitudes[i] = 72.0 + random.nextDouble() * 20.0;
+
+            assertThat(restored.getOverlappingTimeZones(latitudes[i], longitudes[i]))
+                    .isEqualTo(built.getOverlappingTimeZones(latitudes[i], longitudes[i]));
+        }
+        assertThat(restored.getOverlappingTimeZoneIndexes(latitudes, longitudes))
+                .containsExactly(built.getOverlappingTimeZoneIndexes(latitudes, longitudes));
+        assertThat(restored.getOverlappingTimeZones(42.534980, 87.615030).stream().map(TimeZone::getZoneId))
+                .containsExactly("Asia/Urumqi", "Asia/Shanghai");
+    }
+
+    @Test
+    public void snapshotForEverywhere() throws IOException {
+        Path snapshot = Files.createTempDirectory("timezonemap").resolve("everywhere.snapshot");
+        snapshot.toFile().deleteOnExit();
+
+        TimeZoneMap.forEverywhereWithSnapshot(snapshot);
+        assertThat(TimeZoneMap.forEverywhereWithSnapshot(snapshot).getTimeZones()).isEqualTo(EVERYWHERE.getTimeZones());
+        Files.delete(snapshot);
+    }
+
+    @Test
+    public void mismatchedSnapshotsAreReplaced() throws IOException {
+        Path snapshot = Files.createTempDirectory("timezonemap").resolve("square.snapshot");
+        snapshot.toFile().deleteOnExit();
+        TimeZoneMapOptions options = new TimeZoneMapOptions();
+
+        // A map of other map data
+        TimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), 0, 0, 3, 3).writeSnapshot(snapshot);
+        String mapVersion = TimeZoneMap.forRegion(0, 0, 3, 3).getMapVersion();
+        assertThat(TimeZoneMap.forRegionWithSnapshot(snapshot, 0, 0, 3, 3).getMapVersion()).isEqualTo(mapVersion);
+        byte[] written = Files.readAllBytes(snapshot);
+
+        int mapVersionOffset = 12 + BuildInformation.VERSION.getBytes(StandardCharsets.UTF_8).length;
+        int timeZoneCountOffset = mapVersionOffset + 4 + mapVersion.getBytes(StandardCharsets.UTF_8).length + 32 + 8;
+        // The first time zone's id, followed by its region's float coordinates, double coordinates and ring starts
+        ByteBuffer values = ByteBuffer.wrap(written);
+        int idOffset = timeZoneCountOffset + 4;
+        int floatsOffset = idOffset + 4 + values.getInt(idOffset);
+        int doublesOffset = floatsOffset + 4 + Math.max(values.getInt(floatsOffset), 0) * Float.BYTES;
+        int ringStartsOffset = doublesOffset + 4 + values.getInt(doublesOffset) * Double.BYTES;
+        List<Runnable> mismatches = ImmutableList.of(
+                () -> uncheckedWrite(snapshot, resealed(flipBit(written, 0))), // Magic number
+                () -> uncheckedWrite(snapshot, resealed(flipBit(written, 7))), // Format version
+                () -> uncheckedWrite(snapshot, resealed(flipBit(written, 12))), // Library version
+                () -> uncheckedWrite(snapshot, resealed(flipBit(written, mapVersionOffset + 4))), // Map version
+                // Hundreds more time zones than the snapshot holds, which it runs out of
+                () -> uncheckedWrite(snapshot, resealed(flipBit(written, timeZoneCountOffset + 2))),
+                () -> uncheckedWrite(snapshot, resealed(withInt(written, timeZoneCountOffset, -1))),
+                () -> uncheckedWrite(snapshot, resealed(withInt(written, idOffset, -1))), // Null id
+                () -> uncheckedWrite(snapshot, resealed(withInt(written, ringStartsOffset, -1))), // Null ring starts
+                () -> uncheckedWrite(snapshot, flipBit(written, 40)), // Damaged
+                () -> uncheckedWrite(snapshot, Arrays.copyOf(written, written.length - 1)),
+                () -> uncheckedWrite(snapshot, new byte[0]),
+                () -> uncheckedDelete(snapshot));
+        for (Runnable mismatch : mismatches) {
+            mismatch.run();
+            Object damagedSnapshot = Files.exists(snapshot) ? fileKey(snapshot) : null;
+
+            TimeZoneMap rebuilt = TimeZoneMap.forRegionWithSnapshot(snapshot, 0, 0, 3, 3, options);
+            assertThat(fileKey(snapshot)).isNotEqualTo(damagedSnapshot);
+            assertThat(Files.readAllBytes(snapshot)).isEqualTo(written);
+            assertThat(rebuilt.getOverlappingTimeZone(1.5, 1.5).getZoneId()).isEqualTo("Etc/GMT");
+        }
+
+        List<TimeZoneMapOptions> otherOptions = ImmutableList.of(options.withCellIndexDepth(1),
+                options.withEdgeBucketVertexThreshold(1));
+        for (TimeZoneMapOptions other : otherOptions) {
+            Object previousSnapshot = fileKey(snapshot);
+            TimeZoneMap.forRegionWithSnapshot(snapshot, 0, 0, 3, 3, other);
+            assertThat(fileKey(snapshot)).isNotEqualTo(previousSnapshot);
+        }
+        Object previousSnapshot = fileKey(snapshot);
+        TimeZoneMap.forRegionWithSnapshot(snapshot, 0, 0, 4, 4, options);
+        assertThat(fileKey(snapshot)).isNotEqualTo(previousSnapshot);
+    }
+
+    private static byte[] flipBit(byte[] bytes, int index) {
+        byte[] flipped = bytes.clone();
+        flipped[index] ^= 1;
+        return flipped;
+    }
+
+    private static byte[] withInt(byte[] bytes, int index, int value) {
+        byte[] replaced = bytes.clone();
+        ByteBuffer.wrap(replaced).putInt(index, value);
+        return replaced;
+    }
+
+    /** Replace the trailer of a snapshot with one that matches its contents, as though it was written that way. */
+    private static byte[] resealed(byte[] snapshot) {
+        int length = snapshot.length - SnapshotWriter.TRAILER_BYTES;
+        CRC32 checksum = new CRC32();
+        checksum.update(snapshot, 0, length);
+        byte[] resealed = snapshot.clone();
+        ByteBuffer.wrap(resealed, length, SnapshotWriter.TRAILER_BYTES)
+                .putLong(length)
+                .putInt((int) checksum.getValue());
+        return resealed;
+    }
+
+    private static void uncheckedWrite(Path path, byte[] bytes) {
+        try {
+            Files.write(path, bytes);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void uncheckedDelete(Path path) {
+        try {
+            Files.delete(path);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Test
+    public void snapshotInvalidInput() throws IOException {
+        Path snapshot = Files.createTempDirectory("timezonemap").resolve("invalid.snapshot");
+
+        assertThatThrownBy(() -> TimeZoneMap.forRegionWithSnapshot(snapshot, 3, 0, 0, 3))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TimeZoneMap.forRegionWithSnapshot(snapshot, 0, 3, 3, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> TimeZoneMap.forRegionWithSnapshot(snapshot.resolve("missing").resolve("directory"),
+                0, 0, 3, 3)).isInstanceOf(IOException.class);
+        assertThat(Files.exists(snapshot)).isFalse();
+    }
+
+    @Test
+    public void locationWithoutTimeZone() throws IOException {
+        TimeZoneMap map = TimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), 0, 0, 3, 3);
+
+        assertThat(map.getOverlappingTimeZone(0.5, 0.5)).isNull(); // Outside the square entirely
+        assertThat(map.getOverlappingTimeZones(0.5, 0.5)).isEmpty();
+        assertThat(map.getOverlappingTimeZone(1.8, 1.4)).isNull(); // In the hole around the island
+        assertThat(map.getOverlappingTimeZone(1.3, 1.3).getZoneId()).isEqualTo("Square with island");
+        assertThat(map.getOverlappingTimeZone(1.65, 1.25).getZoneId()).isEqualTo("Square with island");
+    }
+
+    @Test
+    public void cellIndexMatchesUnindexed() {
+        // Xinjiang, where Asia/Urumqi overlaps Asia/Shanghai, along with a few borders
+        TimeZoneMap unindexed = TimeZoneMap.forRegion(38.0, 72.0, 46.0, 92.0);
+        TimeZoneMap indexed = TimeZoneMap.forRegion(38.0, 72.0, 46.0, 92.0,
+                new TimeZoneMapOptions().withCellIndexDepth(8));
+        Random random = new Random(42);
+
+        for (int i = 0; i < 1_000; i++) {
+            double latitude = 38.0 + random.nextDouble() * 8.0;
+            double longitude = 72.0 + random.nextDouble() * 20.0;
+
+            assertThat(indexed.getOverlappingTimeZone(latitude, longitude))
+                    .as("(%s, %s)", latitude, longitude)
+                    .isEqualTo(unindexed.getOverlappingTimeZone(latitude, longitude));
+            assertThat(indexed.getOverlappingTimeZones(latitude, longitude))
+                    .as("(%s, %s)", latitude, longitude)
+                    .isEqualTo(unindexed.getOverlappingTimeZones(latitude, longitude));
+        }
+        assertThat(indexed.getOverlappingTimeZones(42.534980, 87.615030).stream().map(TimeZone::getZoneId))
+                .containsExactly("Asia/Urumqi", "Asia/Shanghai");
+
+    }
+
+    /**
+     * An archive holding a time zone far away, a square from 1.5 to 2.5 and the square with an island, in that order,
+     * along with the provided cell index.
+     */
+    private static InputStream createSquaresArchive(ArchiveCellIndex cellIndex) throws IOException {
+        return createMapArchive(cellIndex, getSquare("Far away", 10, 11), getSquare("Square", 1.5f, 2.5f),
+                UtilTest.getSquareWithIsland());
+    }
+
+    static us.dustinj.timezonemap.serialization.TimeZone getSquare(String timeZoneId, float min, float max) {
+        return new us.dustinj.timezonemap.serialization.TimeZone(timeZoneId, Collections.singletonList(
+                Collections.singletonList(ImmutableList.of(
+                        new LatLon(max, min), new LatLon(max, max), new LatLon(min, max), new LatLon(min, min)))));
+    }
+
+    @Test
+    public void archiveCellIndexMatchesUnindexed() throws IOException {
+        // The cell index described by CellIndexTest.fromArchive, which lists the time zones covering each cell, and
+        // the ones only covering part of it as their complement.
+        ArchiveCellIndex cellIndex = new ArchiveCellIndex(new Envelope(new LatLon(1, 1), new LatLon(3, 3)), 3,
+                new int[] {1, 5, ~3, ~3, ~3, ~0, ~0, ~1, ~2},
+                new int[] {0, 2, 5, 7, 9},
+                new int[] {~1, 2, ~0, ~1, ~2, 1, 2, ~1, ~2});
+        TimeZoneMap unindexed = TimeZoneMap.forRegion(createSquaresArchive(null), 1, 1, 3, 3);
+        TimeZoneMap indexed = TimeZoneMap.forRegion(createSquaresArchive(cellIndex), 1, 1, 3, 3);
+        List<Double> latitudes = new ArrayList<>();
+        List<Double> longitudes = new ArrayList<>();
+
+        assertThat(indexed.getTimeZones()).isEqualTo(unindexed.getTimeZones());
+        for (double latitude = 1; latitude <= 3; latitude += 0.02) {
+            for (double longitude = 1; longitude <= 3; longitude += 0.02) {
+                assertThat(indexed.getOverlappingTimeZones(latitude, longitude))
+                        .as("(%s, %s)", latitude, longitude)
+                        .isEqualTo(unindexed.getOverlappingTimeZones(latitude, longitude));
+                assertThat(indexed.getOverlappingTimeZone(latitude, longitude))
+                        .as("(%s, %s)", latitude, longitude)
+                        .isEqualTo(unindexed.getOverlappingTimeZone(latitude, longitude));
+                latitudes.add(latitude);
+                longitudes.add(longitude);
+            }
+        }
+        double[] latitudeArray = latitudes.stream().mapToDouble(Double::doubleValue).toArray();
+        double[] longitudeArray = longitudes.stream().mapToDouble(Double::doubleValue).toArray();
+        assertThat(indexed.getOverlappingTimeZoneIndexes(latitudeArray, longitudeArray,
+                new int[latitudeArray.length], null, true))
+                .containsExactly(unindexed.getOverlappingTimeZoneIndexes(latitudeArray, longitudeArray));
+    }
+
+    @Test
+    public void archiveCellIndexIsOnlyUsedWhenItCoversTheMap() throws IOException {
+        // A cell index claiming the square covers the whole world, which shows whether it's used
+        ArchiveCellIndex everywhere = new ArchiveCellIndex(new Envelope(new LatLon(-90, -180), new LatLon(90, 180)), 3,
+                new int[] {~0}, new int[] {0, 1}, new int[] {1});
+        ArchiveCellIndex elsewhere = new ArchiveCellIndex(new Envelope(new LatLon(1, 1), new LatLon(3, 3)), 3,
+                new int[] {~0}, new int[] {0, 1}, new int[] {1});
+
+        TimeZoneMap indexed = TimeZoneMap.forRegion(createSquaresArchive(everywhere), 0, 0, 3, 3);
+        assertThat(indexed.getTimeZones()).extracting(TimeZone::getZoneId)
+                .containsExactly("Square with island", "Square");
+        assertThat(indexed.getOverlappingTimeZone(0.5, 0.5).getZoneId()).isEqualTo("Square");
+        // Maps that build their own cell index, or aren't within the archive's cell index, don't use it
+        assertThat(TimeZoneMap.forRegion(createSquaresArchive(everywhere), 0, 0, 3, 3,
+                new TimeZoneMapOptions().withCellIndexDepth(4)).getOverlappingTimeZone(0.5, 0.5)).isNull();
+        assertThat(TimeZoneMap.forRegion(createSquaresArchive(elsewhere), 0, 0, 3, 3)
+                .getOverlappingTimeZone(0.5, 0.5)).isNull();
+
+        // Maps that don't use cell indexes skip the entry
+        Path archive = Files.createTempFile("timezonemap", ".tar");
+        archive.toFile().deleteOnExit();
+        Files.copy(createSquaresArchive(everywhere), archive, StandardCopyOption.REPLACE_EXISTING);
+        assertThat(LazyTimeZoneMap.forRegion(createSquaresArchive(everywhere), 0, 0, 3, 3)
+                .getOverlappingTimeZone(0.5, 0.5)).isNull();
+        assertThat(TiledTimeZoneMap.forArchive(createSquaresArchive(everywhere))
+                .getOverlappingTimeZone(1.3, 1.3).getZoneId()).isEqualTo("Square with island");
+        assertThat(MappedTimeZoneMap.open(archive).getOverlappingTimeZoneIds(1.3, 1.3))
+                .containsExactly("Square with island");
+        assertThat(TiledTimeZoneMap.open(archive).getOverlappingTimeZone(1.8, 1.8).getZoneId())
+                .isEqualTo("Square with island");
+    }
+
+    static us.dustinj.timezonemap.serialization.TimeZone withGeneralization(
+            us.dustinj.timezonemap.serialization.TimeZone timeZone, double maxDeviation,
+            us.dustinj.timezonemap.serialization.TimeZone generalization) {
+        return new us.dustinj.timezonemap.serialization.TimeZone(timeZone.getTimeZoneId(), timeZone.getRegions(),
+                Collections.singletonList(new Generalization(maxDeviation, generalization.getRegions())));
+    }
+
+    @Test
+    public void archiveGeneralizationsMatchFullRegions() throws IOException {
+        us.dustinj.timezonemap.serialization.TimeZone square = getSquare("Square", 1.5f, 2.5f);
+        us.dustinj.timezonemap.serialization.TimeZone island = UtilTest.getSquareWithIsland();
+        // Generalizations within their maximum deviations of the regions, one of them no coarser than the region
+        TimeZoneMap generalized = TimeZoneMap.forRegion(createMapArchive(
+                withGeneralization(square, 0.08, getSquare("", 1.45f, 2.55f)),
+                withGeneralization(island, 0.01, island)), 1, 1, 3, 3);
+        TimeZoneMap full = TimeZoneMap.forRegion(createMapArchive(square, island), 1, 1, 3, 3);
+
+        assertThat(generalized.getTimeZones()).isEqualTo(full.getTimeZones());
+        for (double latitude = 1; latitude <= 3; latitude += 0.01) {
+            for (double longitude = 1; longitude <= 3; longitude += 0.01) {
+                assertThat(generalized.getOverlappingTimeZones(latitude, longitude))
+                        .as("(%s, %s)", latitude, longitude)
+                        .isEqualTo(full.getOverlappingTimeZones(latitude, longitude));
+            }
+        }
+
+        // A generalization that's wrong shows which maps use them
+        us.dustinj.timezonemap.serialization.TimeZone wrong =
+                withGeneralization(square, 0.01, getSquare("", 10, 11));
+        assertThat(TimeZoneMap.forRegion(createMapArchive(wrong), 1, 1, 3, 3).getOverlappingTimeZone(2, 2)).isNull();
+        assertThat(LazyTimeZoneMap.forRegion(createMapArchive(wrong), 1, 1, 3, 3).getOverlappingTimeZone(2, 2))
+                .isNull();
+        assertThat(TiledTimeZoneMap.forArchive(createMapArchive(wrong)).getOverlappingTimeZone(2, 2)).isNull();
+    }
+
+    @Test
+    public void entryMetadataArchivesMatchArchivesWithout() throws IOException {
+        // The cell index of archiveCellIndexMatchesUnindexed, which only works if the metadata isn't numbered
+        ArchiveCellIndex cellIndex = new ArchiveCellIndex(new Envelope(new LatLon(1, 1), new LatLon(3, 3)), 3,
+                new int[] {1, 5, ~3, ~3, ~3, ~0, ~0, ~1, ~2},
+                new int[] {0, 2, 5, 7, 9},
+                new int[] {~1, 2, ~0, ~1, ~2, 1, 2, ~1, ~2});
+        TimeZoneMap without = TimeZoneMap.forRegion(createSquaresArchive(cellIndex), 1, 1, 3, 3);
+        TimeZoneMap with = TimeZoneMap.forRegion(withEntryMetadata(createSquaresArchive(cellIndex)), 1, 1, 3, 3);
+        LazyTimeZoneMap lazy = LazyTimeZoneMap.forRegion(withEntryMetadata(createSquaresArchive(null)), 1, 1, 3, 3);
+        TiledTimeZoneMap tiled = TiledTimeZoneMap.forArchive(withEntryMetadata(createSquaresArchive(null)));
+
+        assertThat(with.getTimeZones()).isEqualTo(without.getTimeZones());
+        for (double latitude = 1; latitude <= 3; latitude += 0.02) {
+            for (double longitude = 1; longitude <= 3; longitude += 0.02) {
+                assertThat(with.getOverlappingTimeZones(latitude, longitude))
+                        .as("(%s, %s)", latitude, longitude)
+                        .isEqualTo(without.getOverlappingTimeZones(latitude, longitude));
+                assertThat(lazy.getOverlappingTimeZone(latitude, longitude))
+                        .as("(%s, %s)", latitude, longitude)
+                        .isEqualTo(without.getOverlappingTimeZone(latitude, longitude));
+                assertThat(tiled.getOverlappingTimeZone(latitude, longitude))
+                        .as("(%s, %s)", latitude, longitude)
+                        .isEqualTo(without.getOverlappingTimeZone(latitude, longitude));
+            }
+        }
+    }
+
+    @Test
+    public void entryMetadataAreasOrderOverlappingTimeZones() throws IOException {
+        // The square with island has the smaller region, but the metadata claims otherwise, which shows it's used
+        TimeZoneMap map = TimeZoneMap.forRegion(withEntryMetadata(createSquaresArchive(null), 1, 0.5, 0.85), 0, 0,
+                3, 3);
+
+        assertThat(map.getTimeZones()).extracting(TimeZone::getZoneId)
+                .containsExactly("Square", "Square with island");
+        assertThat(map.getOverlappingTimeZone(1.75, 1.75).getZoneId()).isEqualTo("Square");
+    }
+
+    @Test
+    public void mismatchedEntryMetadata() {
+        for (InputStream archive : mismatchedEntryMetadataArchives()) {
+            assertThatThrownBy(() -> TimeZoneMap.forRegion(archive, 0, 0, 3, 3))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessageStartingWith("Entry metadata");
+        }
+    }
+
+    /** Map archives whose entry metadata doesn't match their time zone entries. */
+    static List<InputStream> mismatchedEntryMetadataArchives() {
+        List<UnaryOperator<List<EntryMetadata>>> alterations = ImmutableList.of(
+                metadata -> metadata.subList(0, 1), // Too few
+                metadata -> ImmutableList.<EntryMetadata>builder().addAll(metadata).add(metadata.get(0)).build(),
+                metadata -> ImmutableList.of(metadata.get(1), metadata.get(0), metadata.get(2))); // Out of order
+
+        return alterations.stream()
+                .map(alteration -> {
+                    try {
+                        return withAlteredEntryMetadata(createSquaresArchive(null), alteration);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                })
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    public void unsupportedArchiveFormats() {
+        for (String format : unknownArchiveFormats()) {
+            assertThatThrownBy(() -> TimeZoneMap.forRegion(withArchiveFormat(format), 0, 0, 3, 3))
+                    .isInstanceOf(IllegalArgumentException.class)
+                    .hasMessage("Unsupported map archive format '%s', required at most %d", format,
+                            Serialization.MAP_ARCHIVE_FORMAT_VERSION);
+        }
+    }
+
+    /** Archive formats no reader of this version of the library knows. */
+    static List<String> unknownArchiveFormats() {
+        return ImmutableList.of("0", String.valueOf(Serialization.MAP_ARCHIVE_FORMAT_VERSION + 1), "x");
+    }
+
+    /** A map archive holding a single square, whose version entry names the given format. */
+    static InputStream withArchiveFormat(String format) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveInputStream in = new TarArchiveInputStream(createMapArchive(getSquare("Square", 1, 2)));
+                TarArchiveOutputStream out = new TarArchiveOutputStream(archive)) {
+            out.putArchiveEntry(new TarArchiveEntry(
+                    "Version: " + BuildInformation.VERSION + ":test Format: " + format));
+            out.closeArchiveEntry();
+            in.getNextTarEntry();
+            for (TarArchiveEntry entry = in.getNextTarEntry(); entry != null; entry = in.getNextTarEntry()) {
+                out.putArchiveEntry(entry);
+                IOUtils.copy(in, out);
+                out.closeArchiveEntry();
+            }
+        }
+
+        return new ByteArrayInputStream(archive.toByteArray());
+    }
+
+    @Test
+    public void deltaVarintArchivesMatchPointArchives() throws IOException {
+        us.dustinj.timezonemap.serialization.TimeZone square = withGeneralization(getSquare("Square", 1.5f, 2.5f),
+                0.08, getSquare("", 1.45f, 2.55f));
+        us.dustinj.timezonemap.serialization.TimeZone island = UtilTest.getSquareWithIsland();
+        TimeZoneMap points = TimeZoneMap.forRegion(createMapArchive(square, island), 1, 1, 3, 3);
+        TimeZoneMap encoded = TimeZoneMap.forRegion(
+                createMapArchive(RingEncoding.DELTA_VARINT, null, square, island), 1, 1, 3, 3);
+        LazyTimeZoneMap lazy = LazyTimeZoneMap.forRegion(
+                createMapArchive(RingEncoding.DELTA_VARINT, null, square, island), 1, 1, 3, 3);
+
+        assertThat(encoded.getTimeZones()).isEqualTo(points.getTimeZones());
+        for (double latitude = 1; latitude <= 3; latitude += 0.01) {
+            for (double longitude = 1; longitude <= 3; longitude += 0.01) {
+                assertThat(encoded.getOverlappingTimeZones(latitude, longitude))
+                        .as("(%s, %s)", latitude, longitude)
+                        .isEqualTo(points.getOverlappingTimeZones(latitude, longitude));
+                assertThat(lazy.getOverlappingTimeZone(latitude, longitude))
+                        .as("(%s, %s)", latitude, longitude)
+                        .isEqualTo(points.getOverlappingTimeZone(latitude, longitude));
+            }
+        }
+    }
+
+    @Test
+    public void getOverlappingTimeZoneIndexes() {
+        Random random = new Random(42);
+        double[] latitudes = new double[20_000];
+        double[] longitudes = new double[latitudes.length];
+        for (int i = 0; i < latitudes.length; i++) {
+            latitudes[i] = random.nextDouble() * 180 - 90;
+            longitudes[i] = random.nextDouble() * 360 - 180;
+        }
+        latitudes[10] = Double.NaN;
+        latitudes[20] = 90.5;
+        longitudes[30] = -180.5;
+
+        int[] expected = new int[latitudes.length];
+        for (int i = 0; i < latitudes.length; i++) {
+            try {
+                expected[i] = EVERYWHERE.getTimeZones()
+                        .indexOf(EVERYWHERE.getOverlappingTimeZone(latitudes[i], longitudes[i]));
+            } catch (IllegalArgumentException e) {
+                expected[i] = TimeZoneMap.OUTSIDE_INITIALIZED_REGION;
+            }
+        }
+        assertThat(expected[10]).isEqualTo(TimeZoneMap.OUTSIDE_INITIALIZED_REGION);
+        assertThat(expected[20]).isEqualTo(TimeZoneMap.OUTSIDE_INITIALIZED_REGION);
+        assertThat(expected[30]).isEqualTo(TimeZoneMap.OUTSIDE_INITIALIZED_REGION);
+
+        assertThat(EVERYWHERE.getOverlappingTimeZoneIndexes(latitudes, longitudes)).containsExactly(expected);
+
+        int[] results = new int[latitudes.length + 1];
+        results[latitudes.length] = 42;
+        assertThat(EVERYWHERE.getOverlappingTimeZoneIndexes(latitudes, longitudes, results)).isSameAs(results);
+        assertThat(results).startsWith(expected).endsWith(42);
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            assertThat(EVERYWHERE.getOverlappingTimeZoneIndexes(latitudes, longitudes, new int[latitudes.length], pool))
+                    .containsExactly(expected);
+            assertThat(EVERYWHERE.getOverlappingTimeZoneIndexes(
+                    latitudes, longitudes, new int[latitudes.length], pool, true))
+                    .containsExactly(expected);
+        } finally {
+            pool.shutdown();
+        }
+        assertThat(EVERYWHERE.getOverlappingTimeZoneIndexes(latitudes, longitudes, new int[latitudes.length], null, true))
+                .containsExactly(expected);
+    }
+
+    @Test
+    public void getOverlappingTimeZoneIndexes_noTimeZone() throws IOException {
+        double[] latitudes = {0.5, 1.3, 3.5, 1.55, 1.65};
+        double[] longitudes = {0.5, 1.3, 1.0, 1.4, 1.25};
+        int[] expected = {TimeZoneMap.NO_TIME_ZONE, 0, TimeZoneMap.OUTSIDE_INITIALIZED_REGION, TimeZoneMap.NO_TIME_ZONE, 0};
+
+        for (int cellIndexDepth : new int[] {0, 4}) {
+            TimeZoneMap map = TimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), 0, 0, 3, 3,
+                    new TimeZoneMapOptions().withCellIndexDepth(cellIndexDepth));
+
+            assertThat(map.getOverlappingTimeZoneIndexes(latitudes, longitudes)).containsExactly(expected);
+            assertThat(map.getOverlappingTimeZoneIndexes(latitudes, longitudes, new int[latitudes.length], null, true))
+                    .containsExactly(expected);
+        }
+    }
+
+    @Test
+    public void getOverlappingTimeZoneIndexes_invalidInput() {
+        assertThatThrownBy(() -> EVERYWHERE.getOverlappingTimeZoneIndexes(new double[2], new double[1]))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> EVERYWHERE.getOverlappingTimeZoneIndexes(new double[2], new double[2], new int[1]))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
     @Test
     public void envelopeToPolygon() {
         Envelope2D envelope = new Envelope2D(1.0, 2.0, 3.0, 4.0);
@@ -409,6 +1044,150 @@ public class TimeZoneMapTest {
         assertThat(TimeZoneMap.envelopeToPolygon(envelope).calculateArea2D()).isEqualTo(envelope.getArea());
     }
 
+    /**
+     * Build an in-memory map archive, compatible with this version of the library, holding the provided time zones.
+     */
+    static InputStream createMapArchive(us.dustinj.timezonemap.serialization.TimeZone... timeZones)
+            throws IOException {
+        return createMapArchive(null, timeZones);
+    }
+
+    /**
+     * Build an in-memory map archive, compatible with this version of the library, holding the provided cell index,
+     * unless it's null, and time zones.
+     */
+    static InputStream createMapArchive(ArchiveCellIndex cellIndex,
+            us.dustinj.timezonemap.serialization.TimeZone... timeZones) throws IOException {
+        return createMapArchive(RingEncoding.POINTS, cellIndex, timeZones);
+    }
+
+    /**
+     * Build an in-memory map archive, as [createMapArchive] does, storing the points of its rings as requested.
+     */
+    static InputStream createMapArchive(RingEncoding ringEncoding, ArchiveCellIndex cellIndex,
+            us.dustinj.timezonemap.serialization.TimeZone... timeZones) throws IOException {
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(archive)) {
+            out.putArchiveEntry(new TarArchiveEntry(Serialization.versionEntryName(BuildInformation.VERSION + ":test")));
+            out.closeArchiveEntry();
+            if (cellIndex != null) {
+                ByteBuffer serializedCellIndex = ArchiveCellIndexes.serializeCellIndex(cellIndex);
+                TarArchiveEntry entry = new TarArchiveEntry(ArchiveCellIndexes.CELL_INDEX_ENTRY_NAME);
+                entry.setSize(serializedCellIndex.remaining());
+                out.putArchiveEntry(entry);
+                out.write(serializedCellIndex.array(), 0, serializedCellIndex.remaining());
+                out.closeArchiveEntry();
+            }
+
+            for (us.dustinj.timezonemap.serialization.TimeZone timeZone : timeZones) {
+                List<LatLon> points = timeZone.getRegions().stream()
+                        .flatMap(List::stream)
+                        .flatMap(List::stream)
+                        .collect(Collectors.toList());
+                Envelope envelope = new Envelope(
+                        new LatLon((float) points.stream().mapToDouble(LatLon::getLatitude).min().getAsDouble(),
+                                (float) points.stream().mapToDouble(LatLon::getLongitude).min().getAsDouble()),
+                        new LatLon((float) points.stream().mapToDouble(LatLon::getLatitude).max().getAsDouble(),
+                                (float) points.stream().mapToDouble(LatLon::getLongitude).max().getAsDouble()));
+                ByteBuffer serializedTimeZone = Serialization.serializeTimeZone(timeZone, ringEncoding);
+
+                TarArchiveEntry entry = new TarArchiveEntry(
+                        timeZone.getTimeZoneId() + "/" + Serialization.serializeEnvelope(envelope));
+                entry.setSize(serializedTimeZone.remaining());
+                out.putArchiveEntry(entry);
+                out.write(serializedTimeZone.array(), serializedTimeZone.position(), serializedTimeZone.remaining());
+                out.closeArchiveEntry();
+            }
+        }
+
+        return new ByteArrayInputStream(archive.toByteArray());
+    }
+
+    /**
+     * Rewrite a map archive with entry metadata ahead of its time zones, as the builder writes them. The areas of the
+     * time zones are the ones provided, in archive order, if there are any, otherwise those of their regions.
+     */
+    static InputStream withEntryMetadata(InputStream tarInputStream, double... areas) throws IOException {
+        return withAlteredEntryMetadata(tarInputStream, UnaryOperator.identity(), areas);
+    }
+
+    /** Rewrite a map archive with entry metadata, as {@link #withEntryMetadata} does, but altered first. */
+    static InputStream withAlteredEntryMetadata(InputStream tarInputStream,
+            UnaryOperator<List<EntryMetadata>> alteration, double... areas) throws IOException {
+        List<TarArchiveEntry> entries = new ArrayList<>();
+        List<byte[]> contents = new ArrayList<>();
+        List<EntryMetadata> metadata = new ArrayList<>();
+        try (TarArchiveInputStream in = new TarArchiveInputStream(tarInputStream)) {
+            for (TarArchiveEntry entry = in.getNextTarEntry(); entry != null; entry = in.getNextTarEntry()) {
+                byte[] entryContents = IOUtils.toByteArray(in);
+                entries.add(entry);
+                contents.add(entryContents);
+                if (entry.getName().contains("/")) {
+                    Polygon region = Util.convertToEsriPolygon(
+                            Serialization.deserializeTimeZone(ByteBuffer.wrap(entryContents)));
+                    metadata.add(new EntryMetadata(entry.getName().substring(0, entry.getName().lastIndexOf('/')),
+                            Serialization.deserializeEnvelope(
+                                    entry.getName().substring(entry.getName().lastIndexOf('/') + 1)),
+                            areas.length > 0 ? areas[metadata.size()] : region.calculateArea2D(), 0,
+                            region.getPointCount(), entryContents.length));
+                }
+            }
+        }
+
+        ByteArrayOutputStream archive = new ByteArrayOutputStream();
+        try (TarArchiveOutputStream out = new TarArchiveOutputStream(archive)) {
+            for (int i = 0; i < entries.size(); i++) {
+                out.putArchiveEntry(entries.get(i));
+                out.write(contents.get(i));
+                out.closeArchiveEntry();
+                if (i == 0) {
+                    ByteBuffer serializedMetadata =
+                            EntryMetadatas.serializeEntryMetadata(alteration.apply(metadata));
+                    TarArchiveEntry entry = new TarArchiveEntry(EntryMetadatas.ENTRY_METADATA_ENTRY_NAME);
+                    entry.setSize(serializedMetadata.remaining());
+                    out.putArchiveEntry(entry);
+                    out.write(serializedMetadata.array(), 0, serializedMetadata.remaining());
+                    out.closeArchiveEntry();
+                }
+            }
+        }
+
+        return new ByteArrayInputStream(archive.toByteArray());
+    }
+
+    /**
+     * Convert a map archive into a seekable map archive in a temporary file, as the builder writes them.
+     */
+    static Path createSeekableArchive(InputStream tarInputStream) throws IOException {
+        List<TableOfContentsEntry> entries = new ArrayList<>();
+        ByteArrayOutputStream compressedTimeZones = new ByteArrayOutputStream();
+        String mapVersion;
+        try (TarArchiveInputStream in = new TarArchiveInputStream(tarInputStream)) {
+            mapVersion = in.getNextTarEntry().getName().split(" ")[1];
+            for (TarArchiveEntry entry = in.getNextTarEntry(); entry != null; entry = in.getNextTarEntry()) {
+                byte[] serializedTimeZone = IOUtils.toByteArray(in);
+                byte[] compressed = Zstd.compress(serializedTimeZone);
+                double area = Util.convertToEsriPolygon(
+                        Serialization.deserializeTimeZone(ByteBuffer.wrap(serializedTimeZone))).calculateArea2D();
+
+                entries.add(new TableOfContentsEntry(entry.getName().substring(0, entry.getName().lastIndexOf('/')),
+                        Serialization.deserializeEnvelope(
+                                entry.getName().substring(entry.getName().lastIndexOf('/') + 1)),
+                        area, compressedTimeZones.size(), compressed.length, serializedTimeZone.length));
+                compressedTimeZones.write(compressed);
+            }
+        }
+
+        Path archive = Files.createTempFile("timezonemap", ".seekable");
+        archive.toFile().deleteOnExit();
+        try (OutputStream out = Files.newOutputStream(archive)) {
+            out.write(SeekableArchive.serializeTableOfContents(new TableOfContents(mapVersion, entries)).array());
+            compressedTimeZones.writeTo(out);
+        }
+
+        return archive;
+    }
+
     private Path getShapeOutputPath() throws IOException {
         Path outputPath =
                 new File(TimeZoneMapTest.class.getProtectionDomain().getCodeSource().getLocation().getFile())
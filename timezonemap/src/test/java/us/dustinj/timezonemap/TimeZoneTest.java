@@ -4,8 +4,13 @@ import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.assertj.core.api.Assertions.byLessThan;
 
+import java.lang.ref.SoftReference;
+import java.util.Random;
+
 import org.junit.Test;
 
+import com.esri.core.geometry.Envelope2D;
+import com.esri.core.geometry.OperatorClip;
 import com.esri.core.geometry.Polygon;
 
 import nl.jqno.equalsverifier.EqualsVerifier;
@@ -60,6 +65,35 @@ public class TimeZoneTest {
         assertThat(timeZone.getDistanceFromBoundary(1.65f, 1.25f)).isCloseTo(5563.676, byLessThan(0.001));
     }
 
+    @Test
+    public void isFartherFromBoundaryThan() {
+        TimeZone timeZone = UtilTest.getSquareWithIslandTimeZone();
+
+        assertThat(timeZone.isFartherFromBoundaryThan(1.5f, 1.99f, 1_000)).isTrue();
+        assertThat(timeZone.isFartherFromBoundaryThan(1.5f, 1.99f, 1_200)).isFalse();
+        assertThat(timeZone.isFartherFromBoundaryThan(2.0f, 2.0f, 0)).isFalse();
+        assertThatThrownBy(() -> timeZone.isFartherFromBoundaryThan(1.8, 1.4, 0))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    public void isFartherFromBoundaryThan_realTimeZones() {
+        // Includes the far north, where degrees of longitude are short, and the boundary of the region
+        TimeZoneMap map = TimeZoneMap.forRegion(60.0, 20.0, 89.9, 40.0);
+        Random random = new Random(42);
+
+        for (int i = 0; i < 2_000; i++) {
+            double latitude = 60.0 + random.nextDouble() * 29.9;
+            double longitude = 20.0 + random.nextDouble() * 20.0;
+            double meters = random.nextDouble() * 200_000;
+            TimeZone timeZone = map.getOverlappingTimeZone(latitude, longitude);
+
+            assertThat(timeZone.isFartherFromBoundaryThan(latitude, longitude, meters))
+                    .as("(%s, %s) %sm", latitude, longitude, meters)
+                    .isEqualTo(timeZone.getDistanceFromBoundary(latitude, longitude) > meters);
+        }
+    }
+
     @Test
     public void equalsContract() {
         Polygon polygonA = new Polygon();
@@ -70,6 +104,29 @@ public class TimeZoneTest {
 
         EqualsVerifier.forClass(TimeZone.class)
                 .withPrefabValues(Polygon.class, polygonA, polygonB)
+                .withPrefabValues(FlatRegion.class, new FlatRegion(polygonA, 0), new FlatRegion(polygonB, 0))
+                .withPrefabValues(SoftReference.class, new SoftReference<>(polygonA), new SoftReference<>(polygonB))
+                .withIgnoredFields("rebuiltRegion")
                 .verify();
     }
+
+    @Test
+    public void regionIsRebuiltFromCompactCopy() {
+        TimeZone timeZone = UtilTest.getSquareWithIslandTimeZone();
+        Polygon region = timeZone.getRegion();
+
+        assertThat(region).isSameAs(timeZone.getRegion());
+        assertThat(region.equals(Util.convertToEsriPolygon(UtilTest.getSquareWithIsland()))).isTrue();
+        assertThat(new TimeZone(timeZone.getZoneId(), region)).isEqualTo(timeZone);
+        assertThat(timeZone.copy(timeZone.getZoneId(), region)).isEqualTo(timeZone).hasSameHashCodeAs(timeZone);
+        assertThat(timeZone.component1()).isEqualTo(timeZone.getZoneId());
+        assertThat(timeZone.component2().equals(region)).isTrue();
+        assertThat(timeZone.toString()).startsWith("TimeZone(zoneId=Square with island, region=");
+
+        // Clipped regions have coordinates that don't fit in a float, which have to survive as well.
+        Polygon clipped = (Polygon) OperatorClip.local().execute(region, new Envelope2D(1.05, 1.0, 1.5, 1.0 / 3 + 1),
+                Util.getSPATIAL_REFERENCE(), null);
+        assertThat(new TimeZone("Clipped", clipped).getRegion().equals(clipped)).isTrue();
+        assertThat(new TimeZone("Clipped", clipped)).isNotEqualTo(timeZone);
+    }
 }
\ No newline at end of file
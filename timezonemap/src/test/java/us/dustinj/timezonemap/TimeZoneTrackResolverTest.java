@@ -0,0 +1,142 @@
+package us.dustinj.timezonemap;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static us.dustinj.timezonemap.TimeZoneMapTest.createMapArchive;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.Test;
+
+public class TimeZoneTrackResolverTest {
+    private static final TimeZoneMap SQUARE_MAP;
+
+    static {
+        try {
+            SQUARE_MAP = TimeZoneMap.forRegion(createMapArchive(UtilTest.getSquareWithIsland()), 0, 0, 3, 3);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /** A random walk, taking steps of up to the given size in each direction, that stays within the bounds. */
+    private static List<double[]> randomWalk(Random random, int steps, double stepSize, double minLatitude,
+            double minLongitude, double maxLatitude, double maxLongitude) {
+        List<double[]> track = new ArrayList<>();
+        double latitude = (minLatitude + maxLatitude) / 2;
+        double longitude = (minLongitude + maxLongitude) / 2;
+        for (int i = 0; i < steps; i++) {
+            latitude = Math.max(minLatitude, Math.min(maxLatitude, latitude + (random.nextDouble() - 0.5) * stepSize));
+            longitude = Math.max(minLongitude, Math.min(maxLongitude, longitude + (random.nextDouble() - 0.5) * stepSize));
+            track.add(new double[] {latitude, longitude});
+        }
+
+        return track;
+    }
+
+    @Test
+    public void reusesTimeZoneAwayFromBoundaries() {
+        TimeZoneTrackResolver resolver = new TimeZoneTrackResolver(SQUARE_MAP);
+        String zoneId = UtilTest.getSquareWithIsland().getTimeZoneId();
+
+        assertThat(resolver.getOverlappingTimeZone(1.25, 1.5).getZoneId()).isEqualTo(zoneId);
+        assertThat(resolver.getOverlappingTimeZone(1.26, 1.51).getZoneId()).isEqualTo(zoneId);
+        assertThat(resolver.getOverlappingTimeZone(1.24, 1.49).getZoneId()).isEqualTo(zoneId);
+        assertThat(resolver.getLookupCount()).isEqualTo(1);
+        assertThat(resolver.getReuseCount()).isEqualTo(2);
+
+        // Into the hole, which is closer than the boundary distance allows
+        assertThat(resolver.getOverlappingTimeZone(1.55, 1.4)).isNull();
+        assertThat(resolver.getLookupCount()).isEqualTo(2);
+
+        // Out of the square
+        assertThat(resolver.getOverlappingTimeZone(0.5, 0.5)).isNull();
+        assertThat(resolver.getOverlappingTimeZone(0.6, 0.6)).isNull();
+        assertThat(resolver.getLookupCount()).isEqualTo(3);
+        assertThat(resolver.getReuseCount()).isEqualTo(3);
+    }
+
+    @Test
+    public void onBoundary() {
+        TimeZoneTrackResolver resolver = new TimeZoneTrackResolver(SQUARE_MAP);
+
+        assertThat(resolver.getOverlappingTimeZone(1.5, 1.0)).isNotNull();
+        assertThat(resolver.getOverlappingTimeZone(1.5, 1.0)).isNotNull();
+        assertThat(resolver.getOverlappingTimeZone(1.5, 1.0 - 1e-9)).isNull();
+        assertThat(resolver.getReuseCount()).isZero();
+    }
+
+    @Test
+    public void matchesMap() {
+        TimeZoneTrackResolver resolver = new TimeZoneTrackResolver(SQUARE_MAP);
+
+        for (double[] location : randomWalk(new Random(42), 20_000, 0.01, 0, 0, 3, 3)) {
+            assertThat(resolver.getOverlappingTimeZone(location[0], location[1]))
+                    .as("(%s, %s)", location[0], location[1])
+                    .isEqualTo(SQUARE_MAP.getOverlappingTimeZone(location[0], location[1]));
+        }
+        assertThat(resolver.getReuseCount()).isGreaterThan(resolver.getLookupCount());
+    }
+
+    @Test
+    public void matchesMap_realTimeZones() {
+        // Idaho, where the boundary between Pacific and Mountain time is irregular
+        TimeZoneMap map = TimeZoneMap.forRegion(45.0, -117.5, 46.5, -115.5);
+        TimeZoneTrackResolver resolver = new TimeZoneTrackResolver(map);
+        List<double[]> track = randomWalk(new Random(42), 20_000, 0.002, 45.0, -117.5, 46.5, -115.5);
+
+        Iterator<TimeZone> resolved = resolver.resolve(track.iterator(), l -> l[0], l -> l[1]);
+        for (double[] location : track) {
+            assertThat(resolved.next())
+                    .as("(%s, %s)", location[0], location[1])
+                    .isEqualTo(map.getOverlappingTimeZone(location[0], location[1]));
+        }
+        assertThat(resolved.hasNext()).isFalse();
+        assertThat(resolver.getReuseCount()).isGreaterThan(resolver.getLookupCount());
+    }
+
+    @Test
+    public void matchesMap_highLatitudes() {
+        // Lapland, where Norway, Sweden and Finland meet and degrees of longitude are less than half as long
+        TimeZoneMap map = TimeZoneMap.forRegion(67.5, 18.0, 70.0, 30.0);
+        TimeZoneTrackResolver resolver = new TimeZoneTrackResolver(map);
+
+        for (double[] location : randomWalk(new Random(42), 20_000, 0.005, 67.5, 18.0, 70.0, 30.0)) {
+            assertThat(resolver.getOverlappingTimeZone(location[0], location[1]))
+                    .as("(%s, %s)", location[0], location[1])
+                    .isEqualTo(map.getOverlappingTimeZone(location[0], location[1]));
+        }
+        assertThat(resolver.getReuseCount()).isGreaterThan(resolver.getLookupCount());
+    }
+
+    @Test
+    public void resolveStream() {
+        List<double[]> track = Arrays.asList(new double[] {1.25, 1.5}, new double[] {1.55, 1.4},
+                new double[] {1.26, 1.5});
+        TimeZoneTrackResolver resolver = new TimeZoneTrackResolver(SQUARE_MAP);
+
+        assertThat(resolver.resolve(track.parallelStream(), l -> l[0], l -> l[1]).collect(Collectors.toList()))
+                .isEqualTo(track.stream().map(l -> SQUARE_MAP.getOverlappingTimeZone(l[0], l[1]))
+                        .collect(Collectors.toList()));
+    }
+
+    @Test
+    public void invalidInput() {
+        TimeZoneTrackResolver resolver = new TimeZoneTrackResolver(SQUARE_MAP);
+
+        assertThat(resolver.getMap()).isSameAs(SQUARE_MAP);
+        assertThatThrownBy(() -> resolver.getOverlappingTimeZone(3.5, 1.0))
+                .isInstanceOf(IllegalArgumentException.class);
+        resolver.getOverlappingTimeZone(1.25, 1.5);
+        assertThatThrownBy(() -> resolver.getOverlappingTimeZone(Double.NaN, 1.5))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> resolver.getOverlappingTimeZone(1.25, 3.5))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -10,51 +10,57 @@ import com.esri.core.geometry.Point;
 import com.esri.core.geometry.Polygon;
 import com.google.common.collect.ImmutableList;
 
+import us.dustinj.timezonemap.serialization.Generalization;
 import us.dustinj.timezonemap.serialization.LatLon;
+import us.dustinj.timezonemap.serialization.RingEncoding;
+import us.dustinj.timezonemap.serialization.Serialization;
 
 public class UtilTest {
 
     static TimeZone getSquareWithIslandTimeZone() {
-        return Util.convertToEsriBackedTimeZone(
-                new us.dustinj.timezonemap.serialization.TimeZone("Square with island", Collections.singletonList(
-                        /*-
-                        This time zone region looks something like this, with a hole in the upper left quadrant and
-                        an island in the hole:
-                        +------------------+
-                        |+-------+         |
-                        || hole  |         |
-                        || []    |         |
-                        |+-------+         |
-                        |                  |
-                        |                  |
-                        |                  |
-                        +------------------+
-                         */
+        return Util.convertToEsriBackedTimeZone(getSquareWithIsland());
+    }
+
+    static us.dustinj.timezonemap.serialization.TimeZone getSquareWithIsland() {
+        return new us.dustinj.timezonemap.serialization.TimeZone("Square with island", Collections.singletonList(
+                /*-
+                This time zone region looks something like this, with a hole in the upper left quadrant and
+                an island in the hole:
+                +------------------+
+                |+-------+         |
+                || hole  |         |
+                || []    |         |
+                |+-------+         |
+                |                  |
+                |                  |
+                |                  |
+                +------------------+
+                 */
+                ImmutableList.of(
+                        // Outer boundary. Coordinates go clockwise.
+                        ImmutableList.of(
+                                new LatLon(2f, 1f), // Upper left
+                                new LatLon(2f, 2f), // Upper right
+                                new LatLon(1f, 2f), // Lower right
+                                new LatLon(1f, 1f)  // Lower left
+                        ),
+                        // Inner hole in the upper left quadrant of the outer boundary.
+                        // Coordinates go counter-clockwise.
                         ImmutableList.of(
-                                // Outer boundary. Coordinates go clockwise.
-                                ImmutableList.of(
-                                        new LatLon(2f, 1f), // Upper left
-                                        new LatLon(2f, 2f), // Upper right
-                                        new LatLon(1f, 2f), // Lower right
-                                        new LatLon(1f, 1f)  // Lower left
-                                ),
-                                // Inner hole in the upper left quadrant of the outer boundary.
-                                // Coordinates go counter-clockwise.
-                                ImmutableList.of(
-                                        new LatLon(1.9f, 1.1f), // Upper left
-                                        new LatLon(1.5f, 1.1f), // Lower left
-                                        new LatLon(1.5f, 1.5f), // Lower right
-                                        new LatLon(1.9f, 1.5f)  // Upper right
-                                ),
-                                // Island in the hole. Coordinates go clockwise.
-                                ImmutableList.of(
-                                        new LatLon(1.7f, 1.2f), // Upper left
-                                        new LatLon(1.7f, 1.3f), // Upper right
-                                        new LatLon(1.6f, 1.3f), // Lower right
-                                        new LatLon(1.6f, 1.2f)  // Lower left
-                                )
+                                new LatLon(1.9f, 1.1f), // Upper left
+                                new LatLon(1.5f, 1.1f), // Lower left
+                                new LatLon(1.5f, 1.5f), // Lower right
+                                new LatLon(1.9f, 1.5f)  // Upper right
+                        ),
+                        // Island in the hole. Coordinates go clockwise.
+                        ImmutableList.of(
+                                new LatLon(1.7f, 1.2f), // Upper left
+                                new LatLon(1.7f, 1.3f), // Upper right
+                                new LatLon(1.6f, 1.3f), // Lower right
+                                new LatLon(1.6f, 1.2f)  // Lower left
                         )
-                )));
+                )
+        ));
     }
 
     @Test
@@ -79,4 +85,23 @@ public class UtilTest {
         assertThat(Util.containsInclusive(squareWithIsland, new Point(10f, 10f))).isFalse(); // Main area
         assertThat(Util.containsInclusive(squareWithIsland, new Point(1.4f, 1.8f))).isFalse(); // Hole area
     }
-}
\ No newline at end of file
+
+    @Test
+    public void decodeToEsri() {
+        us.dustinj.timezonemap.serialization.TimeZone squareWithIsland = getSquareWithIsland();
+        us.dustinj.timezonemap.serialization.TimeZone timeZone = new us.dustinj.timezonemap.serialization.TimeZone(
+                squareWithIsland.getTimeZoneId(), squareWithIsland.getRegions(), Collections.singletonList(
+                        new Generalization(0.5, squareWithIsland.getRegions().subList(0, 1))));
+
+        for (RingEncoding ringEncoding : RingEncoding.values()) {
+            EsriTimeZone decoded = Util.decodeToEsri(Serialization.serializeTimeZone(timeZone, ringEncoding));
+
+            assertThat(decoded.getTimeZoneId()).isEqualTo("Square with island");
+            assertThat(decoded.getRegion().equals(Util.convertToEsriPolygon(squareWithIsland))).isTrue();
+            assertThat(decoded.getGeneralizations()).hasSize(1);
+            assertThat(decoded.getGeneralizations().get(0).getMaxDeviation()).isEqualTo(0.5);
+            assertThat(decoded.getGeneralizations().get(0).getRegion().equals(
+                    Util.convertToEsriPolygon(squareWithIsland))).isTrue();
+        }
+    }
+}